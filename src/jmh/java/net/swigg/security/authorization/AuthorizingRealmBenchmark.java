@@ -0,0 +1,148 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.apache.shiro.authc.AuthenticationException;
+import org.apache.shiro.authc.AuthenticationInfo;
+import org.apache.shiro.authc.AuthenticationToken;
+import org.apache.shiro.authz.Permission;
+import org.apache.shiro.subject.PrincipalCollection;
+import org.apache.shiro.subject.SimplePrincipalCollection;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times {@link AuthorizingRealm#isPermitted(PrincipalCollection, Permission)} against an in-memory
+ * {@link PermissionFetcher} so that only the realm's own overhead is measured.
+ *
+ * @author Dustin Sweigart <dustin@swigg.net>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AuthorizingRealmBenchmark {
+    @Param({"10", "1000"})
+    int grantsPerIdentity;
+
+    AuthorizingRealm realm;
+
+    PrincipalCollection principals;
+
+    Permission granted;
+
+    Permission denied;
+
+    List<Permission> batch;
+
+    @Setup
+    public void setUp() {
+        List<DATPermission> grants = Lists.newArrayList();
+        for (int x = 0; x < grantsPerIdentity; x++) {
+            grants.add(new DATPermission("account:1", "account:read:account-" + x));
+        }
+        grants.add(new DATPermission("role:member", "post:read:*"));
+
+        realm = new BenchmarkRealm(new InMemoryPermissionFetcher(grants));
+        principals = new SimplePrincipalCollection(ImmutableList.of(identity("account:1"), identity("role:member")), "benchmark");
+        granted = new DATPermission("account:read:account-" + (grantsPerIdentity - 1));
+        denied = new DATPermission("account:delete:account-1");
+
+        batch = Lists.newArrayList();
+        for (int x = 0; x < 20; x++) {
+            batch.add(new DATPermission("account:read:account-" + x));
+        }
+    }
+
+    @Benchmark
+    public boolean isPermittedGranted() {
+        return realm.isPermitted(principals, granted);
+    }
+
+    @Benchmark
+    public boolean isPermittedDenied() {
+        return realm.isPermitted(principals, denied);
+    }
+
+    @Benchmark
+    public boolean isPermittedString() {
+        return realm.isPermitted(principals, "post:read:post-1");
+    }
+
+    @Benchmark
+    public boolean[] isPermittedBatch() {
+        return realm.isPermitted(principals, batch);
+    }
+
+    private static PrincipalIdentity identity(final String identity) {
+        return new PrincipalIdentity() {
+            @Override
+            public String getPrincipalIdentity() {
+                return identity;
+            }
+        };
+    }
+
+    /**
+     * {@link PermissionFetcher} that scans an in-memory list of grants.
+     */
+    static class InMemoryPermissionFetcher implements PermissionFetcher {
+        private final List<DATPermission> grants;
+
+        InMemoryPermissionFetcher(List<DATPermission> grants) {
+            this.grants = ImmutableList.copyOf(grants);
+        }
+
+        @Override
+        public Set<? extends Permission> fetchPermissions(Collection<PrincipalIdentity> identities, Permission... permissions) {
+            Set<String> identityStrings = Sets.newHashSet();
+            for (PrincipalIdentity identity : identities) {
+                identityStrings.add(identity.getPrincipalIdentity());
+            }
+
+            Set<Permission> result = Sets.newHashSet();
+            for (DATPermission grant : grants) {
+                if (identityStrings.contains(grant.getPrincipalIdentity())) {
+                    result.add(grant);
+                }
+            }
+
+            return result;
+        }
+    }
+
+    static class BenchmarkRealm extends AuthorizingRealm {
+        BenchmarkRealm(PermissionFetcher permissionFetcher) {
+            super(permissionFetcher);
+        }
+
+        @Override
+        protected AuthenticationInfo doGetAuthenticationInfo(AuthenticationToken token) throws AuthenticationException {
+            throw new AuthenticationException("benchmark realm does not authenticate");
+        }
+    }
+}
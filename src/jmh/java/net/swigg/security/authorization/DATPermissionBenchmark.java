@@ -0,0 +1,73 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import com.google.common.collect.ImmutableList;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures construction and parsing of {@link DATPermission}s and their implication checks.
+ *
+ * @author Dustin Sweigart <dustin@swigg.net>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DATPermissionBenchmark {
+    static final List<String> ACTIONS = ImmutableList.of("read", "write");
+
+    static final List<String> TARGETS = ImmutableList.of("account-1", "account-2");
+
+    DATPermission grant;
+
+    DATPermission request;
+
+    @Setup
+    public void setUp() {
+        grant = new DATPermission("role:member", "account:read,write:*");
+        request = new DATPermission("account", ACTIONS, TARGETS);
+    }
+
+    @Benchmark
+    public DATPermission parse() {
+        return new DATPermission("account:read,write:account-1,account-2");
+    }
+
+    @Benchmark
+    public DATPermission parseWithPrincipal() {
+        return new DATPermission("role:member", "account:read,write:account-1,account-2");
+    }
+
+    @Benchmark
+    public DATPermission construct() {
+        return new DATPermission("account", ACTIONS, TARGETS);
+    }
+
+    @Benchmark
+    public void implies(Blackhole blackhole) {
+        blackhole.consume(grant.implies(request));
+        blackhole.consume(request.implies(grant));
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.shiro.authz.Permission;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.security.SecurityAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times {@link DATPermissionFetcher#fetchPermissions(Collection, Permission...)} against an embedded H2 database.
+ *
+ * @author Dustin Sweigart <dustin@swigg.net>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DATPermissionFetcherBenchmark {
+    @Param({"100", "10000"})
+    int accounts;
+
+    ConfigurableApplicationContext context;
+
+    PermissionFetcher permissionFetcher;
+
+    List<PrincipalIdentity> identities;
+
+    Permission permission;
+
+    @Setup
+    public void setUp() {
+        context = new SpringApplicationBuilder(Config.class).web(false).showBanner(false).run();
+        permissionFetcher = context.getBean(PermissionFetcher.class);
+
+        final EntityManager entityManager = context.getBean(EntityManager.class);
+        new TransactionTemplate(context.getBean(PlatformTransactionManager.class)).execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                entityManager.persist(new DATPermission("role:admin", "*:*:*"));
+                entityManager.persist(new DATPermission("role:member", "account:read:*"));
+                for (int x = 0; x < accounts; x++) {
+                    entityManager.persist(new DATPermission("account:" + x, "account:delete:account-" + x));
+                }
+            }
+        });
+
+        identities = ImmutableList.of(identity("account:" + (accounts / 2)), identity("role:member"));
+        permission = new DATPermission("account:delete:account-" + (accounts / 2));
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Set<? extends Permission> fetchPermissions() {
+        return permissionFetcher.fetchPermissions(identities, permission);
+    }
+
+    private static PrincipalIdentity identity(final String identity) {
+        return new PrincipalIdentity() {
+            @Override
+            public String getPrincipalIdentity() {
+                return identity;
+            }
+        };
+    }
+
+    @Configuration
+    @EnableAutoConfiguration(exclude = {SecurityAutoConfiguration.class})
+    @Import({AuthorizationConfig.class})
+    public static class Config {
+    }
+}
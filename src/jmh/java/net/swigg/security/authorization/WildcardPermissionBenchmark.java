@@ -0,0 +1,97 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import org.apache.shiro.authz.Permission;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link WildcardPermission#implies(Permission)} with Shiro's
+ * {@link org.apache.shiro.authz.permission.WildcardPermission}, both for prebuilt permissions and for parsing.
+ *
+ * @author Dustin Sweigart <dustin@swigg.net>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WildcardPermissionBenchmark {
+    static final String[] PERMISSIONS = {
+            "*:*:*",
+            "domain:*:*",
+            "domain:action1:*",
+            "domain:action1:instance1",
+            "domain:action1,action2:*",
+            "domain:action1:instance1,instance2"
+    };
+
+    Permission[] shiro;
+
+    Permission[] swigg;
+
+    @Setup
+    public void setUp() {
+        shiro = new Permission[PERMISSIONS.length];
+        swigg = new Permission[PERMISSIONS.length];
+        for (int x = 0; x < PERMISSIONS.length; x++) {
+            shiro[x] = new org.apache.shiro.authz.permission.WildcardPermission(PERMISSIONS[x]);
+            swigg[x] = new WildcardPermission(PERMISSIONS[x]);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(36)
+    public void shiroImplies(Blackhole blackhole) {
+        implies(shiro, blackhole);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(36)
+    public void swiggImplies(Blackhole blackhole) {
+        implies(swigg, blackhole);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(6)
+    public void shiroParse(Blackhole blackhole) {
+        for (String permission : PERMISSIONS) {
+            blackhole.consume(new org.apache.shiro.authz.permission.WildcardPermission(permission));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(6)
+    public void swiggParse(Blackhole blackhole) {
+        for (String permission : PERMISSIONS) {
+            blackhole.consume(new WildcardPermission(permission));
+        }
+    }
+
+    private static void implies(Permission[] permissions, Blackhole blackhole) {
+        for (Permission p1 : permissions) {
+            for (Permission p2 : permissions) {
+                blackhole.consume(p1.implies(p2));
+            }
+        }
+    }
+}
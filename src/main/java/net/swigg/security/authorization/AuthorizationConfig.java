@@ -17,9 +17,11 @@
 
 package net.swigg.security.authorization;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.orm.jpa.EntityScan;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.PropertySource;
 
 import javax.persistence.EntityManager;
 
@@ -28,9 +30,43 @@ import javax.persistence.EntityManager;
  */
 @Configuration
 @EntityScan({"net.swigg.security.authorization"})
+@PropertySource("classpath:authorization.properties")
 public class AuthorizationConfig {
+    /**
+     * The fetch queries are cached when the Hibernate query cache is enabled, e.g. by the {@code permission-cache}
+     * profile. See {@code authorization.match-typed-identity-strings} in {@code authorization.properties}.
+     */
     @Bean
-    public PermissionFetcher permissionFetcher(final EntityManager entityManager) {
-        return new DATPermissionFetcher(entityManager);
+    public PermissionFetcher permissionFetcher(final EntityManager entityManager,
+                                               @Value("${spring.jpa.properties.hibernate.cache.use_query_cache:false}") boolean cacheQueries,
+                                               @Value("${authorization.match-typed-identity-strings:true}") boolean matchTypedIdentityStrings) {
+        DATPermissionFetcher permissionFetcher = new DATPermissionFetcher(entityManager);
+        permissionFetcher.setCacheQueries(cacheQueries);
+        permissionFetcher.setMatchTypedIdentityStrings(matchTypedIdentityStrings);
+        return permissionFetcher;
+    }
+
+    /**
+     * Disabled by default, see {@code authorization.warmup.*} in {@code authorization.properties}.
+     */
+    @Bean
+    public PermissionWarmup permissionWarmup(final EntityManager entityManager, PermissionFetcher permissionFetcher,
+                                             @Value("${authorization.warmup.enabled:false}") boolean enabled,
+                                             @Value("${authorization.warmup.top-identities:1000}") int topIdentities,
+                                             @Value("${authorization.warmup.role-prefix:role:}") String rolePrefix,
+                                             @Value("${authorization.warmup.batch-size:100}") int batchSize,
+                                             @Value("${authorization.warmup.threads:4}") int threads) {
+        PermissionWarmup permissionWarmup = new PermissionWarmup(entityManager, permissionFetcher);
+        permissionWarmup.setEnabled(enabled);
+        permissionWarmup.setTopIdentities(topIdentities);
+        permissionWarmup.setRolePrefix(rolePrefix);
+        permissionWarmup.setBatchSize(batchSize);
+        permissionWarmup.setThreads(threads);
+        return permissionWarmup;
+    }
+
+    @Bean
+    public static PermissionChangeListenerRegistrar permissionChangeListenerRegistrar() {
+        return new PermissionChangeListenerRegistrar();
     }
 }
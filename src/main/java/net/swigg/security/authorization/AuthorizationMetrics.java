@@ -0,0 +1,329 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import com.google.common.collect.Lists;
+import net.swigg.security.metrics.Histogram;
+import net.swigg.security.metrics.StripedCounter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Low-overhead metrics of an {@link AuthorizingRealm} and its {@link PermissionFetcher}:
+ * <ul>
+ * <li>latency histograms of permission checks, {@code checkPermission(s)} and role checks, in nanoseconds</li>
+ * <li>fetch count, rows and latency of an {@link InstrumentedPermissionFetcher}</li>
+ * <li>grant-set sizes per principal identity as they are loaded into the permission cache, and the largest ones</li>
+ * <li>permission cache hits and misses</li>
+ * </ul>
+ * Counters and histograms are striped, so recording does not serialize the threads on the hot path. Hand the metrics
+ * to {@link AuthorizingRealm#setMetrics(AuthorizationMetrics)} and {@link InstrumentedPermissionFetcher}, and call
+ * {@link #register()} to expose them over JMX.
+ *
+ * @author Dustin Sweigart <dustin@swigg.net>
+ */
+public class AuthorizationMetrics implements AuthorizationMetricsMBean {
+    static private final Logger LOGGER = LoggerFactory.getLogger(AuthorizationMetrics.class);
+
+    public static final String DOMAIN = "net.swigg.security.authorization";
+
+    /**
+     * number of largest grant sets that are tracked
+     */
+    static final int LARGEST_GRANT_SETS = 10;
+
+    public static enum Operation {
+        IS_PERMITTED("isPermitted"), CHECK_PERMISSION("checkPermission"), HAS_ROLE("hasRole");
+
+        private final String attribute;
+
+        Operation(String attribute) {
+            this.attribute = attribute;
+        }
+    }
+
+    private final String name;
+
+    private final EnumMap<Operation, Histogram> latencies = new EnumMap<Operation, Histogram>(Operation.class);
+
+    private final StripedCounter fetches = new StripedCounter();
+
+    private final StripedCounter fetchedRows = new StripedCounter();
+
+    private final Histogram rowsPerFetch = new Histogram("rows");
+
+    private final Histogram fetchLatency = new Histogram("ns");
+
+    private final Histogram grantSetSizes = new Histogram("grants");
+
+    private final StripedCounter cacheHits = new StripedCounter();
+
+    private final StripedCounter cacheMisses = new StripedCounter();
+
+    /**
+     * largest grant sets by size, smallest first; only touched on cache misses
+     */
+    private final TreeSet<GrantSetSize> largestGrantSets = new TreeSet<GrantSetSize>();
+
+    private final List<ObjectName> registered = Lists.newArrayList();
+
+    public AuthorizationMetrics() {
+        this("default");
+    }
+
+    /**
+     * @param name the {@code name} key of the JMX object names, to tell several realms apart
+     */
+    public AuthorizationMetrics(String name) {
+        this.name = checkNotNull(name);
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, new Histogram("ns"));
+        }
+    }
+
+    public void recordLatency(Operation operation, long nanos) {
+        latencies.get(operation).record(nanos);
+    }
+
+    public void recordFetch(int rows, long nanos) {
+        fetches.increment();
+        fetchedRows.add(rows);
+        rowsPerFetch.record(rows);
+        fetchLatency.record(nanos);
+    }
+
+    public void recordGrantSetSize(String principalIdentity, int size) {
+        grantSetSizes.record(size);
+
+        synchronized (largestGrantSets) {
+            // drop the previous size first, a grant set that shrank must not keep its old place
+            for (Iterator<GrantSetSize> iterator = largestGrantSets.iterator(); iterator.hasNext(); ) {
+                if (iterator.next().principalIdentity.equals(principalIdentity)) {
+                    iterator.remove();
+                }
+            }
+
+            if (largestGrantSets.size() < LARGEST_GRANT_SETS || size > largestGrantSets.first().size) {
+                largestGrantSets.add(new GrantSetSize(principalIdentity, size));
+                if (largestGrantSets.size() > LARGEST_GRANT_SETS) {
+                    largestGrantSets.pollFirst();
+                }
+            }
+        }
+    }
+
+    public void recordCacheLookups(int hits, int misses) {
+        if (hits > 0) {
+            cacheHits.add(hits);
+        }
+        if (misses > 0) {
+            cacheMisses.add(misses);
+        }
+    }
+
+    public Histogram getLatency(Operation operation) {
+        return latencies.get(operation);
+    }
+
+    public Histogram getRowsPerFetch() {
+        return rowsPerFetch;
+    }
+
+    public Histogram getFetchLatency() {
+        return fetchLatency;
+    }
+
+    public Histogram getGrantSetSizes() {
+        return grantSetSizes;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getPermissionChecks() {
+        return latencies.get(Operation.IS_PERMITTED).getCount();
+    }
+
+    @Override
+    public long getPermissionAssertions() {
+        return latencies.get(Operation.CHECK_PERMISSION).getCount();
+    }
+
+    @Override
+    public long getRoleChecks() {
+        return latencies.get(Operation.HAS_ROLE).getCount();
+    }
+
+    @Override
+    public long getFetches() {
+        return fetches.sum();
+    }
+
+    @Override
+    public long getFetchedRows() {
+        return fetchedRows.sum();
+    }
+
+    @Override
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    @Override
+    public double getCacheHitRatio() {
+        long hits = getCacheHits();
+        long lookups = hits + getCacheMisses();
+        return lookups > 0 ? (double) hits / lookups : 0;
+    }
+
+    @Override
+    public String[] getLargestGrantSets() {
+        synchronized (largestGrantSets) {
+            List<String> result = Lists.newArrayListWithCapacity(largestGrantSets.size());
+            for (GrantSetSize grantSetSize : largestGrantSets.descendingSet()) {
+                result.add(grantSetSize.principalIdentity + "=" + grantSetSize.size);
+            }
+
+            return result.toArray(new String[result.size()]);
+        }
+    }
+
+    @Override
+    public void reset() {
+        for (Histogram histogram : histograms().values()) {
+            histogram.reset();
+        }
+
+        fetches.reset();
+        fetchedRows.reset();
+        cacheHits.reset();
+        cacheMisses.reset();
+
+        synchronized (largestGrantSets) {
+            largestGrantSets.clear();
+        }
+    }
+
+    /**
+     * Registers these metrics and each of their histograms with the platform MBean server.
+     */
+    public void register() {
+        register(ManagementFactory.getPlatformMBeanServer());
+    }
+
+    /**
+     * Registers these metrics as {@code net.swigg.security.authorization:type=AuthorizationMetrics,name=<name>} and each
+     * histogram as an additional {@code histogram=<histogram>} key, replacing MBeans that are already registered under
+     * the same names.
+     *
+     * @param server
+     */
+    public synchronized void register(MBeanServer server) {
+        try {
+            registerMBean(server, objectName(null), this);
+            for (Map.Entry<String, Histogram> entry : histograms().entrySet()) {
+                registerMBean(server, objectName(entry.getKey()), entry.getValue());
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("Failed to register authorization metrics " + name, e);
+        }
+    }
+
+    public void unregister() {
+        unregister(ManagementFactory.getPlatformMBeanServer());
+    }
+
+    public synchronized void unregister(MBeanServer server) {
+        for (ObjectName objectName : registered) {
+            try {
+                if (server.isRegistered(objectName)) {
+                    server.unregisterMBean(objectName);
+                }
+            } catch (JMException e) {
+                LOGGER.warn("Failed to unregister {}", objectName, e);
+            }
+        }
+
+        registered.clear();
+    }
+
+    private void registerMBean(MBeanServer server, ObjectName objectName, Object mbean) throws JMException {
+        if (server.isRegistered(objectName)) {
+            server.unregisterMBean(objectName);
+        }
+
+        server.registerMBean(mbean, objectName);
+        registered.add(objectName);
+    }
+
+    ObjectName objectName(String histogram) throws JMException {
+        Hashtable<String, String> properties = new Hashtable<String, String>();
+        properties.put("type", "AuthorizationMetrics");
+        properties.put("name", ObjectName.quote(name));
+        if (histogram != null) {
+            properties.put("histogram", histogram);
+        }
+
+        return new ObjectName(DOMAIN, properties);
+    }
+
+    private Map<String, Histogram> histograms() {
+        Map<String, Histogram> histograms = new LinkedHashMap<String, Histogram>();
+        for (Map.Entry<Operation, Histogram> entry : latencies.entrySet()) {
+            histograms.put(entry.getKey().attribute, entry.getValue());
+        }
+
+        histograms.put("fetchLatency", fetchLatency);
+        histograms.put("rowsPerFetch", rowsPerFetch);
+        histograms.put("grantSetSize", grantSetSizes);
+        return histograms;
+    }
+
+    private static final class GrantSetSize implements Comparable<GrantSetSize> {
+        private final String principalIdentity;
+
+        private final int size;
+
+        GrantSetSize(String principalIdentity, int size) {
+            this.principalIdentity = principalIdentity;
+            this.size = size;
+        }
+
+        @Override
+        public int compareTo(GrantSetSize other) {
+            int result = size < other.size ? -1 : (size == other.size ? 0 : 1);
+            return result != 0 ? result : principalIdentity.compareTo(other.principalIdentity);
+        }
+    }
+}
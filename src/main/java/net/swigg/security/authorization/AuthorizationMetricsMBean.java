@@ -0,0 +1,61 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+/**
+ * JMX view of {@link AuthorizationMetrics}. Latencies, rows per fetch and grant-set sizes are exposed as separate
+ * {@link net.swigg.security.metrics.HistogramMBean}s.
+ *
+ * @author Dustin Sweigart <dustin@swigg.net>
+ */
+public interface AuthorizationMetricsMBean {
+    String getName();
+
+    /**
+     * @return number of {@code isPermitted} and {@code isPermittedAll} calls
+     */
+    long getPermissionChecks();
+
+    /**
+     * @return number of {@code checkPermission} and {@code checkPermissions} calls
+     */
+    long getPermissionAssertions();
+
+    /**
+     * @return number of {@code hasRole}, {@code hasRoles} and {@code hasAllRoles} calls, including those made by {@code
+     * checkRole(s)}
+     */
+    long getRoleChecks();
+
+    long getFetches();
+
+    long getFetchedRows();
+
+    long getCacheHits();
+
+    long getCacheMisses();
+
+    double getCacheHitRatio();
+
+    /**
+     * @return the largest grant sets loaded since the last reset as {@code identity=size}, largest first
+     */
+    String[] getLargestGrantSets();
+
+    void reset();
+}
@@ -17,6 +17,13 @@
 
 package net.swigg.security.authorization;
 
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.MapMaker;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Uninterruptibles;
 import org.apache.shiro.authc.credential.CredentialsMatcher;
 import org.apache.shiro.authz.AuthorizationException;
 import org.apache.shiro.authz.Authorizer;
@@ -24,23 +31,96 @@ import org.apache.shiro.authz.Permission;
 import org.apache.shiro.authz.UnauthorizedException;
 import org.apache.shiro.authz.permission.PermissionResolver;
 import org.apache.shiro.authz.permission.PermissionResolverAware;
+import org.apache.shiro.cache.Cache;
+import org.apache.shiro.cache.CacheManager;
 import org.apache.shiro.realm.AuthenticatingRealm;
 import org.apache.shiro.subject.PrincipalCollection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
  * Abstract {@link org.apache.shiro.realm.Realm} that implements {@link Authorizer}.
+ * <p/>
+ * When a {@link CacheManager} is configured the grants of each {@link PrincipalIdentity} are cached under the identity
+ * string as a {@link PermissionIndex}, so an identity shared by many subjects (e.g. a role) is only fetched and indexed
+ * once. Identities without any grants are cached as an empty set, which means repeated denials are answered from the
+ * cache as well. Register the realm with {@link PermissionChangePublisher} (or let {@link AuthorizationConfig} do it)
+ * to evict identities whose grants change. Without a cache the grants fetched for a check are scanned, not indexed.
+ * <p/>
+ * With a {@link #setParallelExecutor(ExecutorService) parallel executor} large bulk checks are spread over several
+ * threads; smaller ones, and every check without an executor, are evaluated on the calling thread.
+ * <p/>
+ * Roles and groups can inherit other identities through an {@link IdentityHierarchy}. The identities of a subject are
+ * expanded with the precomputed closure before grants are fetched and roles are checked.
+ * <p/>
+ * Check latencies, permission cache hits and the sizes of loaded grant sets are recorded in {@link
+ * #setMetrics(AuthorizationMetrics) metrics} when they are set. Permission decisions, together with the grant that
+ * implied them, are appended to a {@link #setDecisionLog(DecisionLog) decision log} when one is set.
  *
  * @author Dustin Sweigart <dustin@swigg.net>
  */
-public abstract class AuthorizingRealm extends AuthenticatingRealm implements Authorizer, PermissionResolverAware {
+public abstract class AuthorizingRealm extends AuthenticatingRealm implements Authorizer, PermissionResolverAware, PermissionChangeListener {
+    static private final Logger LOGGER = LoggerFactory.getLogger(AuthorizingRealm.class);
+
+    private static final String PERMISSION_CACHE_SUFFIX = ".permissionCache";
+
+    private static final String IS_PERMITTED = "isPermitted";
+
+    private static final String CHECK_PERMISSION = "checkPermission";
+
     private PermissionResolver permissionResolver;
 
     private PermissionFetcher permissionFetcher;
 
+    private Cache<String, PermissionIndex> permissionCache;
+
+    private boolean permissionCachingEnabled = true;
+
+    private String permissionCacheName = getClass().getName() + PERMISSION_CACHE_SUFFIX;
+
+    /**
+     * parallel chunks are never smaller than this, so short lists are not spread over more threads than is useful
+     */
+    private static final int MIN_CHUNK_SIZE = 16;
+
+    private ExecutorService parallelExecutor;
+
+    private int parallelThreshold = 64;
+
+    private volatile IdentityHierarchy identityHierarchy = IdentityHierarchy.EMPTY;
+
+    /**
+     * eviction generations of the cached identities, striped by hash code, and of the whole cache; a fetch only caches
+     * its grants if they have not moved in the meantime
+     */
+    private static final int GENERATION_STRIPES = 256;
+
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+    private final AtomicLong clears = new AtomicLong();
+
+    private AuthorizationMetrics metrics;
+
+    private DecisionLog decisionLog;
+
+    /**
+     * expanded identities per subject, keyed by {@link PrincipalCollection} instance and dropped once the collection
+     * is garbage collected
+     */
+    private final ConcurrentMap<PrincipalCollection, SubjectIdentities> subjectIdentities = new MapMaker().weakKeys().makeMap();
+
     public AuthorizingRealm(CredentialsMatcher matcher, PermissionFetcher permissionFetcher) {
         super(matcher);
         this.permissionFetcher = permissionFetcher;
@@ -57,14 +137,25 @@ public abstract class AuthorizingRealm extends AuthenticatingRealm implements Au
 
     @Override
     public boolean isPermitted(PrincipalCollection subjectPrincipal, Permission permission) {
-        Collection<PrincipalIdentity> identities = subjectPrincipal.byType(PrincipalIdentity.class);
-        for (Permission p : permissionFetcher().fetchPermissions(identities, permission)) {
-            if (p.implies(permission)) {
-                return true;
-            }
+        AuthorizationMetrics metrics = this.metrics;
+        long start = metrics != null ? System.nanoTime() : 0;
+
+        boolean permitted = permitted(subjectPrincipal, permission, IS_PERMITTED);
+        record(metrics, AuthorizationMetrics.Operation.IS_PERMITTED, start);
+        return permitted;
+    }
+
+    private boolean permitted(PrincipalCollection subjectPrincipal, Permission permission, String operation) {
+        Collection<PrincipalIdentity> identities = identities(subjectPrincipal);
+        Collection<PermissionIndex> grants = fetchGrants(identities, permission);
+        boolean permitted = implies(grants, permission);
+
+        DecisionLog decisionLog = this.decisionLog;
+        if (decisionLog != null) {
+            log(decisionLog, operation, subjectPrincipal, grants, permission, permitted);
         }
 
-        return false;
+        return permitted;
     }
 
     @Override
@@ -80,14 +171,22 @@ public abstract class AuthorizingRealm extends AuthenticatingRealm implements Au
     @Override
     public boolean[] isPermitted(PrincipalCollection subjectPrincipal, List<Permission> permissions) {
         if (permissions != null) {
+            AuthorizationMetrics metrics = this.metrics;
+            long start = metrics != null ? System.nanoTime() : 0;
             boolean[] result = new boolean[permissions.size()];
-            int index = 0;
 
-            for (Permission permission : permissions) {
-                result[index] = isPermitted(subjectPrincipal, permission);
-                index++;
+            // fetch the candidate grants for the whole list at once and evaluate each permission in memory
+            Collection<PermissionIndex> grants = fetchGrants(subjectPrincipal, permissions);
+            evaluate(grants, permissions, result);
+
+            DecisionLog decisionLog = this.decisionLog;
+            if (decisionLog != null) {
+                for (int index = 0; index < result.length; index++) {
+                    log(decisionLog, IS_PERMITTED, subjectPrincipal, grants, permissions.get(index), result[index]);
+                }
             }
 
+            record(metrics, AuthorizationMetrics.Operation.IS_PERMITTED, start);
             return result;
         }
 
@@ -107,11 +206,16 @@ public abstract class AuthorizingRealm extends AuthenticatingRealm implements Au
     @Override
     public boolean isPermittedAll(PrincipalCollection subjectPrincipal, Collection<Permission> permissions) {
         if (permissions != null) {
-            for (Permission permission : permissions) {
-                if (!isPermitted(subjectPrincipal, permission)) {
-                    return false;
-                }
-            }
+            AuthorizationMetrics metrics = this.metrics;
+            long start = metrics != null ? System.nanoTime() : 0;
+
+            Collection<PermissionIndex> grants = fetchGrants(subjectPrincipal, permissions);
+            int denied = evaluate(grants, permissions, null);
+            log(IS_PERMITTED, subjectPrincipal, grants, permissions, denied);
+
+            boolean permitted = denied < 0;
+            record(metrics, AuthorizationMetrics.Operation.IS_PERMITTED, start);
+            return permitted;
         }
 
         return true;
@@ -124,7 +228,12 @@ public abstract class AuthorizingRealm extends AuthenticatingRealm implements Au
 
     @Override
     public void checkPermission(PrincipalCollection subjectPrincipal, Permission permission) throws AuthorizationException {
-        if (!isPermitted(subjectPrincipal, permission)) {
+        AuthorizationMetrics metrics = this.metrics;
+        long start = metrics != null ? System.nanoTime() : 0;
+
+        boolean permitted = permitted(subjectPrincipal, permission, CHECK_PERMISSION);
+        record(metrics, AuthorizationMetrics.Operation.CHECK_PERMISSION, start);
+        if (!permitted) {
             String msg = "User is not permitted [" + permission + "]";
             throw new UnauthorizedException(msg);
         }
@@ -133,45 +242,58 @@ public abstract class AuthorizingRealm extends AuthenticatingRealm implements Au
     @Override
     public void checkPermissions(PrincipalCollection subjectPrincipal, String... permissions) throws AuthorizationException {
         if (permissions != null) {
-            for (String permission : permissions) {
-                checkPermission(subjectPrincipal, permission);
+            List<Permission> perms = new ArrayList<Permission>(permissions.length);
+            for (String permString : permissions) {
+                perms.add(permissionResolver().resolvePermission(permString));
             }
+
+            checkPermissions(subjectPrincipal, perms);
         }
     }
 
     @Override
     public void checkPermissions(PrincipalCollection subjectPrincipal, Collection<Permission> permissions) throws AuthorizationException {
         if (permissions != null) {
-            for (Permission permission : permissions) {
-                checkPermission(subjectPrincipal, permission);
+            AuthorizationMetrics metrics = this.metrics;
+            long start = metrics != null ? System.nanoTime() : 0;
+
+            Collection<PermissionIndex> grants = fetchGrants(subjectPrincipal, permissions);
+            int denied = evaluate(grants, permissions, null);
+            log(CHECK_PERMISSION, subjectPrincipal, grants, permissions, denied);
+            record(metrics, AuthorizationMetrics.Operation.CHECK_PERMISSION, start);
+            if (denied >= 0) {
+                String msg = "User is not permitted [" + Iterables.get(permissions, denied) + "]";
+                throw new UnauthorizedException(msg);
             }
         }
     }
 
     @Override
     public boolean hasRole(PrincipalCollection subjectPrincipal, String roleIdentifier) {
-        if (roleIdentifier != null) {
-            for (PrincipalIdentity principalIdentity : subjectPrincipal.byType(PrincipalIdentity.class)) {
-                if (principalIdentity.getPrincipalIdentity().equals(roleIdentifier)) {
-                    return true;
-                }
-            }
-        }
+        AuthorizationMetrics metrics = this.metrics;
+        long start = metrics != null ? System.nanoTime() : 0;
 
-        return false;
+        boolean hasRole = roleIdentifier != null && subjectIdentities(subjectPrincipal).names.contains(roleIdentifier);
+        record(metrics, AuthorizationMetrics.Operation.HAS_ROLE, start);
+        return hasRole;
     }
 
     @Override
     public boolean[] hasRoles(PrincipalCollection subjectPrincipal, List<String> roleIdentifiers) {
         if (roleIdentifiers != null) {
+            AuthorizationMetrics metrics = this.metrics;
+            long start = metrics != null ? System.nanoTime() : 0;
+
+            ImmutableSet<String> names = subjectIdentities(subjectPrincipal).names;
             boolean[] result = new boolean[roleIdentifiers.size()];
             int index = 0;
 
             for (String roleIdentifier : roleIdentifiers) {
-                result[index] = hasRole(subjectPrincipal, roleIdentifier);
+                result[index] = roleIdentifier != null && names.contains(roleIdentifier);
                 index++;
             }
 
+            record(metrics, AuthorizationMetrics.Operation.HAS_ROLE, start);
             return result;
         }
 
@@ -181,11 +303,20 @@ public abstract class AuthorizingRealm extends AuthenticatingRealm implements Au
     @Override
     public boolean hasAllRoles(PrincipalCollection subjectPrincipal, Collection<String> roleIdentifiers) {
         if (roleIdentifiers != null) {
+            AuthorizationMetrics metrics = this.metrics;
+            long start = metrics != null ? System.nanoTime() : 0;
+
+            ImmutableSet<String> names = subjectIdentities(subjectPrincipal).names;
+            boolean hasAllRoles = true;
             for (String roleIdentifier : roleIdentifiers) {
-                if (!hasRole(subjectPrincipal, roleIdentifier)) {
-                    return false;
+                if (roleIdentifier == null || !names.contains(roleIdentifier)) {
+                    hasAllRoles = false;
+                    break;
                 }
             }
+
+            record(metrics, AuthorizationMetrics.Operation.HAS_ROLE, start);
+            return hasAllRoles;
         }
 
         return true;
@@ -215,9 +346,487 @@ public abstract class AuthorizingRealm extends AuthenticatingRealm implements Au
         }
     }
 
+    /**
+     * Logs the outcome of an evaluation that stopped at the first denial: every permission up to and including the
+     * denied one.
+     */
+    private void log(String operation, PrincipalCollection subjectPrincipal, Collection<PermissionIndex> grants,
+                     Collection<Permission> permissions, int denied) {
+        DecisionLog decisionLog = this.decisionLog;
+        if (decisionLog != null) {
+            int index = 0;
+            for (Permission permission : permissions) {
+                log(decisionLog, operation, subjectPrincipal, grants, permission, index != denied);
+                if (index++ == denied) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private void log(DecisionLog decisionLog, String operation, PrincipalCollection subjectPrincipal,
+                     Collection<PermissionIndex> grants, Permission permission, boolean permitted) {
+        if (decisionLog.isLogged(permitted)) {
+            Permission grant = permitted ? findImplying(grants, permission) : null;
+            decisionLog.append(new DecisionRecord(System.currentTimeMillis(), getName(), operation,
+                    subjectIdentities(subjectPrincipal).names, permission, permitted, grant));
+        }
+    }
+
+    private static Permission findImplying(Collection<PermissionIndex> grants, Permission permission) {
+        for (PermissionIndex index : grants) {
+            Permission grant = index.findImplying(permission);
+            if (grant != null) {
+                return grant;
+            }
+        }
+
+        return null;
+    }
+
+    private static void record(AuthorizationMetrics metrics, AuthorizationMetrics.Operation operation, long start) {
+        if (metrics != null) {
+            metrics.recordLatency(operation, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Returns the {@link PrincipalIdentity}s of the subject together with every identity they inherit through the
+     * {@link #getIdentityHierarchy()}.
+     *
+     * @param subjectPrincipal
+     * @return
+     */
+    protected Collection<PrincipalIdentity> identities(PrincipalCollection subjectPrincipal) {
+        return subjectIdentities(subjectPrincipal).identities;
+    }
+
+    /**
+     * Returns the expanded identities of a subject, memoized per {@link PrincipalCollection} so the identity strings
+     * are only built once per subject. Principal collections are expected not to change once they have been checked.
+     *
+     * @param subjectPrincipal
+     * @return
+     */
+    private SubjectIdentities subjectIdentities(PrincipalCollection subjectPrincipal) {
+        IdentityHierarchy hierarchy = this.identityHierarchy;
+        SubjectIdentities memoized = subjectIdentities.get(subjectPrincipal);
+        if (memoized != null && memoized.hierarchy == hierarchy) {
+            return memoized;
+        }
+
+        memoized = new SubjectIdentities(hierarchy, hierarchy.expand(subjectPrincipal.byType(PrincipalIdentity.class)));
+        subjectIdentities.put(subjectPrincipal, memoized);
+        return memoized;
+    }
+
+    /**
+     * Returns true if one of the grants implies the permission.
+     *
+     * @param grants
+     * @param permission
+     * @return
+     */
+    protected boolean implies(Collection<PermissionIndex> grants, Permission permission) {
+        for (PermissionIndex index : grants) {
+            if (index.implies(permission)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Evaluates permissions against the grants. Collections of at least {@link #getParallelThreshold()} permissions are
+     * copied to a list and split into chunks that are evaluated on the {@link #getParallelExecutor()} and the calling
+     * thread. The calling thread runs every chunk that has not started by the time it waits for it, so evaluation never
+     * waits on queued work, even when the realm is called from a thread of the executor itself.
+     * <p/>
+     * Without a result array evaluation stops at the first denial: chunks skip every permission after the lowest
+     * denied index found so far, so the returned index is the same as that of a sequential evaluation.
+     *
+     * @param grants
+     * @param permissions
+     * @param result receives whether each permission is implied; if given, every permission is evaluated
+     * @return the index of the first permission that is not implied, or -1 if all are
+     */
+    private int evaluate(final Collection<PermissionIndex> grants, final Collection<Permission> permissions, final boolean[] result) {
+        ExecutorService executor = this.parallelExecutor;
+        if (executor == null || permissions.size() < Math.max(parallelThreshold, 2)) {
+            int denied = -1;
+            int index = 0;
+            for (Permission permission : permissions) {
+                boolean implied = implies(grants, permission);
+                if (result != null) {
+                    result[index] = implied;
+                }
+                if (!implied && denied < 0) {
+                    denied = index;
+                    if (result == null) {
+                        break;
+                    }
+                }
+                index++;
+            }
+
+            return denied;
+        }
+
+        return evaluate(executor, grants, permissions instanceof List && permissions instanceof RandomAccess
+                ? (List<Permission>) permissions
+                : Lists.newArrayList(permissions), result);
+    }
+
+    private int evaluate(ExecutorService executor, final Collection<PermissionIndex> grants, final List<Permission> permissions, final boolean[] result) {
+        final AtomicInteger denied = new AtomicInteger(Integer.MAX_VALUE);
+
+        int chunks = Math.min(Runtime.getRuntime().availableProcessors(), (permissions.size() + MIN_CHUNK_SIZE - 1) / MIN_CHUNK_SIZE);
+        int chunkSize = (permissions.size() + chunks - 1) / chunks;
+
+        List<Evaluation> evaluations = Lists.newArrayListWithCapacity(chunks - 1);
+        List<Future<?>> futures = Lists.newArrayListWithCapacity(chunks - 1);
+        for (int from = chunkSize; from < permissions.size(); from += chunkSize) {
+            Evaluation evaluation = new Evaluation(grants, permissions, from, Math.min(from + chunkSize, permissions.size()), result, denied);
+            try {
+                futures.add(executor.submit(evaluation));
+                evaluations.add(evaluation);
+            } catch (RejectedExecutionException e) {
+                evaluation.run();
+            }
+        }
+
+        // the calling thread takes the first chunk, which decides early denials on its own
+        new Evaluation(grants, permissions, 0, Math.min(chunkSize, permissions.size()), result, denied).run();
+        boolean decided = result == null && denied.get() < chunkSize;
+
+        for (int x = 0; x < futures.size(); x++) {
+            Future<?> future = futures.get(x);
+            if (decided) {
+                future.cancel(false);
+                continue;
+            }
+
+            if (future.cancel(false)) {
+                // not started yet, e.g. because every thread of the executor is busy with callers waiting like this one
+                evaluations.get(x).run();
+                continue;
+            }
+
+            try {
+                Uninterruptibles.getUninterruptibly(future);
+            } catch (ExecutionException e) {
+                throw Throwables.propagate(e.getCause());
+            }
+        }
+
+        return denied.get() == Integer.MAX_VALUE ? -1 : denied.get();
+    }
+
+    /**
+     * Fetches the candidate grants for a batch of permissions with a single call.
+     *
+     * @param subjectPrincipal
+     * @param permissions
+     * @return
+     */
+    private Collection<PermissionIndex> fetchGrants(PrincipalCollection subjectPrincipal, Collection<Permission> permissions) {
+        if (permissions.isEmpty()) {
+            // no permissions would mean every grant of the identities, which is never needed for an empty batch
+            return Collections.emptyList();
+        }
+
+        Collection<PrincipalIdentity> identities = identities(subjectPrincipal);
+        return fetchGrants(identities, permissions.toArray(new Permission[permissions.size()]));
+    }
+
+    /**
+     * Returns the grants of the identities that are candidates for implying the permissions, going through the
+     * permission cache when one is available. Cached grants are indexed per identity.
+     *
+     * @param identities
+     * @param permissions
+     * @return
+     */
+    protected Collection<PermissionIndex> fetchGrants(Collection<PrincipalIdentity> identities, Permission... permissions) {
+        Cache<String, PermissionIndex> cache = getAvailablePermissionCache();
+        if (cache == null) {
+            // the grants are only used for this check, so scanning them is cheaper than indexing them
+            return Collections.singletonList(PermissionIndex.unindexed(permissionFetcher().fetchPermissions(identities, permissions)));
+        }
+
+        List<PermissionIndex> result = Lists.newArrayListWithCapacity(identities.size());
+        List<PrincipalIdentity> misses = Lists.newArrayList();
+        for (PrincipalIdentity identity : identities) {
+            PermissionIndex cached = cache.get(identity.getPrincipalIdentity());
+            if (cached != null) {
+                result.add(cached);
+            } else {
+                misses.add(identity);
+            }
+        }
+
+        AuthorizationMetrics metrics = this.metrics;
+        if (metrics != null) {
+            metrics.recordCacheLookups(result.size(), misses.size());
+        }
+
+        if (!misses.isEmpty()) {
+            Map<String, Long> generations = Maps.newHashMap();
+            for (PrincipalIdentity identity : misses) {
+                generations.put(identity.getPrincipalIdentity(), generation(identity.getPrincipalIdentity()));
+            }
+
+            for (Map.Entry<String, PermissionIndex> entry : fetchAllGrants(misses).entrySet()) {
+                cacheGrants(cache, entry.getKey(), entry.getValue(), generations.get(entry.getKey()));
+                result.add(entry.getValue());
+                if (metrics != null) {
+                    metrics.recordGrantSetSize(entry.getKey(), entry.getValue().size());
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Caches grants fetched at the given eviction generation of the identity, unless a change of its grants has been
+     * committed since. The generation is checked again after the put, since an eviction may have run between the first
+     * check and the put; the entry is then removed again.
+     *
+     * @param cache
+     * @param principalIdentity
+     * @param grants
+     * @param generation
+     */
+    private void cacheGrants(Cache<String, PermissionIndex> cache, String principalIdentity, PermissionIndex grants, long generation) {
+        if (generation(principalIdentity) != generation) {
+            return;
+        }
+
+        cache.put(principalIdentity, grants);
+        if (generation(principalIdentity) != generation) {
+            cache.remove(principalIdentity);
+        }
+    }
+
+    /**
+     * @param principalIdentity
+     * @return a value that changes whenever the cached grants of the identity are evicted
+     */
+    private long generation(String principalIdentity) {
+        return clears.get() + generations.get(principalIdentity.hashCode() & (GENERATION_STRIPES - 1));
+    }
+
+    /**
+     * Loads every grant of the identities into the permission cache, e.g. to warm it up before the realm takes traffic.
+     * Without a permission cache the grants are only fetched, which still warms whatever caches the {@link
+     * PermissionFetcher} has.
+     *
+     * @param identities
+     */
+    public void preloadPermissions(Collection<PrincipalIdentity> identities) {
+        if (identities.isEmpty()) {
+            return;
+        }
+
+        if (getAvailablePermissionCache() != null) {
+            fetchGrants(identities);
+        } else {
+            permissionFetcher().fetchPermissions(identities);
+        }
+    }
+
+    /**
+     * Fetches every grant of the identities, indexed per identity. Identities without grants are mapped to an empty
+     * index.
+     *
+     * @param identities
+     * @return
+     */
+    private Map<String, PermissionIndex> fetchAllGrants(Collection<PrincipalIdentity> identities) {
+        Map<String, List<Permission>> grants = Maps.newHashMap();
+        for (PrincipalIdentity identity : identities) {
+            grants.put(identity.getPrincipalIdentity(), Lists.<Permission>newArrayList());
+        }
+
+        for (Permission permission : permissionFetcher().fetchPermissions(identities)) {
+            List<Permission> identityGrants = DATPermission.class.isInstance(permission)
+                    ? grants.get(DATPermission.class.cast(permission).getPrincipalIdentity())
+                    : null;
+
+            if (identityGrants == null) {
+                // the grant can not be attributed to a single identity, so fetch each identity on its own
+                return fetchAllGrantsIndividually(identities);
+            }
+
+            identityGrants.add(permission);
+        }
+
+        Map<String, PermissionIndex> result = Maps.newHashMap();
+        for (Map.Entry<String, List<Permission>> entry : grants.entrySet()) {
+            result.put(entry.getKey(), PermissionIndex.build(entry.getValue()));
+        }
+
+        return result;
+    }
+
+    private Map<String, PermissionIndex> fetchAllGrantsIndividually(Collection<PrincipalIdentity> identities) {
+        Map<String, PermissionIndex> result = Maps.newHashMap();
+        for (PrincipalIdentity identity : identities) {
+            Collection<PrincipalIdentity> single = Collections.singletonList(identity);
+            result.put(identity.getPrincipalIdentity(), PermissionIndex.build(permissionFetcher().fetchPermissions(single)));
+        }
+
+        return result;
+    }
+
+    @Override
+    protected void afterCacheManagerSet() {
+        super.afterCacheManagerSet();
+        getAvailablePermissionCache();
+    }
+
+    private Cache<String, PermissionIndex> getAvailablePermissionCache() {
+        if (this.permissionCache == null && isPermissionCachingEnabled()) {
+            CacheManager cacheManager = getCacheManager();
+            if (cacheManager != null) {
+                LOGGER.debug("Creating permission cache [{}] for realm [{}]", getPermissionCacheName(), getName());
+                this.permissionCache = cacheManager.getCache(getPermissionCacheName());
+            }
+        }
+
+        return isPermissionCachingEnabled() ? this.permissionCache : null;
+    }
+
+    /**
+     * Evicts the cached grants of a single identity, e.g. after its grants have been changed.
+     *
+     * @param principalIdentity
+     */
+    public void clearCachedPermissions(String principalIdentity) {
+        if (principalIdentity != null) {
+            // invalidate fetches in progress before evicting, see cacheGrants
+            generations.incrementAndGet(principalIdentity.hashCode() & (GENERATION_STRIPES - 1));
+        }
+
+        if (this.permissionCache != null && principalIdentity != null) {
+            this.permissionCache.remove(principalIdentity);
+        }
+    }
+
+    /**
+     * Evicts the cached grants of every identity whose grants have changed.
+     *
+     * @param changes
+     */
+    @Override
+    public void permissionsChanged(Collection<PermissionChange> changes) {
+        for (PermissionChange change : changes) {
+            clearCachedPermissions(change.getPrincipalIdentity());
+        }
+    }
+
+    /**
+     * Evicts all cached grants.
+     */
+    public void clearCachedPermissions() {
+        clears.incrementAndGet();
+        if (this.permissionCache != null) {
+            this.permissionCache.clear();
+        }
+    }
+
+    public Cache<String, PermissionIndex> getPermissionCache() {
+        return permissionCache;
+    }
+
+    public void setPermissionCache(Cache<String, PermissionIndex> permissionCache) {
+        this.permissionCache = permissionCache;
+    }
+
+    public boolean isPermissionCachingEnabled() {
+        return isCachingEnabled() && permissionCachingEnabled;
+    }
+
+    public void setPermissionCachingEnabled(boolean permissionCachingEnabled) {
+        this.permissionCachingEnabled = permissionCachingEnabled;
+    }
+
+    public String getPermissionCacheName() {
+        return permissionCacheName;
+    }
+
+    public void setPermissionCacheName(String permissionCacheName) {
+        this.permissionCacheName = permissionCacheName;
+    }
+
+    public ExecutorService getParallelExecutor() {
+        return parallelExecutor;
+    }
+
+    /**
+     * Sets the executor on which large permission lists are evaluated in parallel; null (the default) evaluates every
+     * list on the calling thread. The executor should be bounded, and {@link Permission}s passed to the realm must then
+     * be safe to use from several threads.
+     *
+     * @param parallelExecutor
+     */
+    public void setParallelExecutor(ExecutorService parallelExecutor) {
+        this.parallelExecutor = parallelExecutor;
+    }
+
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    /**
+     * @param parallelThreshold the smallest number of permissions that is evaluated in parallel
+     */
+    public void setParallelThreshold(int parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    /**
+     * @return the metrics checks and cache lookups are recorded in, or null if they are not recorded
+     */
+    public AuthorizationMetrics getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(AuthorizationMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return the log permission decisions are appended to, or null if they are not logged
+     */
+    public DecisionLog getDecisionLog() {
+        return decisionLog;
+    }
+
+    public void setDecisionLog(DecisionLog decisionLog) {
+        this.decisionLog = decisionLog;
+    }
+
+    public IdentityHierarchy getIdentityHierarchy() {
+        return identityHierarchy;
+    }
+
+    /**
+     * Sets the hierarchy used to expand the identities of a subject; may be replaced at any time with a rebuilt one.
+     * Grants cached per identity stay valid when the hierarchy changes.
+     *
+     * @param identityHierarchy
+     */
+    public void setIdentityHierarchy(IdentityHierarchy identityHierarchy) {
+        this.identityHierarchy = checkNotNull(identityHierarchy);
+        this.subjectIdentities.clear();
+    }
+
     PermissionResolver permissionResolver() {
         if (this.permissionResolver == null) {
-            this.permissionResolver = new WildcardPermissionResolver();
+            this.permissionResolver = new DATPermissionResolver();
         }
 
         return permissionResolver;
@@ -231,4 +840,76 @@ public abstract class AuthorizingRealm extends AuthenticatingRealm implements Au
     public PermissionFetcher permissionFetcher() {
         return permissionFetcher;
     }
+
+    /**
+     * Evaluates a range of a permission list.
+     */
+    private final class Evaluation implements Runnable {
+        private final Collection<PermissionIndex> grants;
+
+        private final List<Permission> permissions;
+
+        private final int from;
+
+        private final int to;
+
+        private final boolean[] result;
+
+        private final AtomicInteger denied;
+
+        Evaluation(Collection<PermissionIndex> grants, List<Permission> permissions, int from, int to, boolean[] result, AtomicInteger denied) {
+            this.grants = grants;
+            this.permissions = permissions;
+            this.from = from;
+            this.to = to;
+            this.result = result;
+            this.denied = denied;
+        }
+
+        @Override
+        public void run() {
+            for (int x = from; x < to; x++) {
+                if (result == null && x > denied.get()) {
+                    return;
+                }
+
+                boolean implied = implies(grants, permissions.get(x));
+                if (result != null) {
+                    result[x] = implied;
+                }
+
+                if (!implied) {
+                    int current = denied.get();
+                    while (x < current && !denied.compareAndSet(current, x)) {
+                        current = denied.get();
+                    }
+                    if (result == null) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Identities of a subject as expanded with a particular hierarchy.
+     */
+    private static final class SubjectIdentities {
+        private final IdentityHierarchy hierarchy;
+
+        private final Collection<PrincipalIdentity> identities;
+
+        private final ImmutableSet<String> names;
+
+        SubjectIdentities(IdentityHierarchy hierarchy, Collection<PrincipalIdentity> identities) {
+            ImmutableSet.Builder<String> names = ImmutableSet.builder();
+            for (PrincipalIdentity identity : identities) {
+                names.add(identity.getPrincipalIdentity());
+            }
+
+            this.hierarchy = hierarchy;
+            this.identities = Collections.unmodifiableCollection(Lists.newArrayList(identities));
+            this.names = names.build();
+        }
+    }
 }
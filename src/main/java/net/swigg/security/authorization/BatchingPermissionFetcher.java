@@ -0,0 +1,278 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.apache.shiro.authz.Permission;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * {@link PermissionFetcher} that collects the fetches of concurrent callers into batches and makes one fetch per
+ * batch, for the union of their principal identities and permissions. Each caller then gets the grants of its own
+ * principal identities.
+ * <p/>
+ * A batch is sent when its window has passed since its first fetch, or as soon as it holds the maximum number of
+ * fetches. Fetches of every grant (no permissions) and scoped fetches are sent as two separate fetches of the batch.
+ * Grants are handed out by {@link DATPermission#getPrincipalIdentity()}; when the wrapped fetcher returns a grant that
+ * can not be attributed to an identity, the fetches of that batch are repeated one by one.
+ * <p/>
+ * Batches are fetched on the executor's threads, so they do not take part in the callers' transactions.
+ *
+ * @author Dustin Sweigart <dustin@swigg.net>
+ */
+public class BatchingPermissionFetcher implements PermissionFetcher {
+    static private final Logger LOGGER = LoggerFactory.getLogger(BatchingPermissionFetcher.class);
+
+    private final PermissionFetcher permissionFetcher;
+
+    private final ScheduledExecutorService executor;
+
+    private final long windowNanos;
+
+    private final int maxBatchSize;
+
+    private final Object lock = new Object();
+
+    /**
+     * fetches of the batch that is being collected
+     */
+    private List<Request> pending = Lists.newArrayList();
+
+    private final AtomicLong batches = new AtomicLong();
+
+    private final AtomicLong requests = new AtomicLong();
+
+    /**
+     * Batches fetches for up to half a millisecond or 64 fetches, whichever comes first, and fetches them on as many
+     * daemon threads as there are processors.
+     *
+     * @param permissionFetcher
+     */
+    public BatchingPermissionFetcher(PermissionFetcher permissionFetcher) {
+        this(permissionFetcher, 500, TimeUnit.MICROSECONDS, 64, Executors.newScheduledThreadPool(
+                Runtime.getRuntime().availableProcessors(),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("permission-batch-%d").build()));
+    }
+
+    public BatchingPermissionFetcher(PermissionFetcher permissionFetcher, long window, TimeUnit unit, int maxBatchSize, ScheduledExecutorService executor) {
+        checkArgument(window >= 0, "Window can not be negative.");
+        checkArgument(maxBatchSize > 0, "Maximum batch size must be positive.");
+
+        this.permissionFetcher = checkNotNull(permissionFetcher);
+        this.executor = checkNotNull(executor);
+        this.windowNanos = unit.toNanos(window);
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    @Override
+    public Set<? extends Permission> fetchPermissions(Collection<PrincipalIdentity> identities, Permission... permissions) {
+        if (identities.isEmpty()) {
+            return Collections.emptySet();
+        }
+
+        Request request = new Request(identities, permissions);
+        requests.incrementAndGet();
+
+        List<Request> full = null;
+        final List<Request> started;
+        synchronized (lock) {
+            pending.add(request);
+            started = pending.size() == 1 ? pending : null;
+            if (pending.size() >= maxBatchSize) {
+                full = pending;
+                pending = Lists.newArrayList();
+            }
+        }
+
+        if (full != null) {
+            Batch batch = new Batch(full);
+            try {
+                executor.execute(batch);
+            } catch (RejectedExecutionException e) {
+                batch.run();
+            }
+        } else if (started != null) {
+            Runnable flush = new Runnable() {
+                @Override
+                public void run() {
+                    List<Request> batch = null;
+                    synchronized (lock) {
+                        // the batch may already have been sent because it was full
+                        if (pending == started) {
+                            batch = pending;
+                            pending = Lists.newArrayList();
+                        }
+                    }
+
+                    if (batch != null) {
+                        new Batch(batch).run();
+                    }
+                }
+            };
+
+            try {
+                executor.schedule(flush, windowNanos, TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                flush.run();
+            }
+        }
+
+        try {
+            return Uninterruptibles.getUninterruptibly(request.future);
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * @return the number of batches fetched
+     */
+    public long getBatches() {
+        return batches.get();
+    }
+
+    /**
+     * @return the number of fetches received
+     */
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public PermissionFetcher getPermissionFetcher() {
+        return permissionFetcher;
+    }
+
+    /**
+     * Stops the executor; batches that have already been scheduled are still fetched.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private static final class Request {
+        final Collection<PrincipalIdentity> identities;
+
+        final Permission[] permissions;
+
+        final SettableFuture<Set<Permission>> future = SettableFuture.create();
+
+        Request(Collection<PrincipalIdentity> identities, Permission[] permissions) {
+            this.identities = identities;
+            this.permissions = permissions;
+        }
+    }
+
+    private final class Batch implements Runnable {
+        private final List<Request> members;
+
+        Batch(List<Request> members) {
+            this.members = members;
+        }
+
+        @Override
+        public void run() {
+            batches.incrementAndGet();
+
+            List<Request> fetchAll = Lists.newArrayList();
+            List<Request> scoped = Lists.newArrayList();
+            for (Request request : members) {
+                (request.permissions.length == 0 ? fetchAll : scoped).add(request);
+            }
+
+            fetch(fetchAll);
+            fetch(scoped);
+        }
+
+        private void fetch(List<Request> requests) {
+            if (requests.isEmpty()) {
+                return;
+            }
+
+            Map<String, PrincipalIdentity> identities = Maps.newLinkedHashMap();
+            Set<Permission> permissions = Sets.newLinkedHashSet();
+            for (Request request : requests) {
+                for (PrincipalIdentity identity : request.identities) {
+                    if (!identities.containsKey(identity.getPrincipalIdentity())) {
+                        identities.put(identity.getPrincipalIdentity(), identity);
+                    }
+                }
+                permissions.addAll(Arrays.asList(request.permissions));
+            }
+
+            Set<? extends Permission> grants;
+            try {
+                grants = permissionFetcher.fetchPermissions(identities.values(), permissions.toArray(new Permission[permissions.size()]));
+            } catch (Throwable e) {
+                for (Request request : requests) {
+                    request.future.setException(e);
+                }
+                return;
+            }
+
+            ListMultimap<String, Permission> byIdentity = ArrayListMultimap.create();
+            for (Permission grant : grants) {
+                String principalIdentity = DATPermission.class.isInstance(grant) ? DATPermission.class.cast(grant).getPrincipalIdentity() : null;
+                if (principalIdentity == null) {
+                    LOGGER.debug("Can not attribute {} to a principal identity, fetching {} requests one by one", grant, requests.size());
+                    fetchIndividually(requests);
+                    return;
+                }
+                byIdentity.put(principalIdentity, grant);
+            }
+
+            for (Request request : requests) {
+                ImmutableSet.Builder<Permission> slice = ImmutableSet.builder();
+                for (PrincipalIdentity identity : request.identities) {
+                    slice.addAll(byIdentity.get(identity.getPrincipalIdentity()));
+                }
+                request.future.set(slice.build());
+            }
+        }
+
+        private void fetchIndividually(List<Request> requests) {
+            for (Request request : requests) {
+                try {
+                    request.future.set(ImmutableSet.<Permission>copyOf(permissionFetcher.fetchPermissions(request.identities, request.permissions)));
+                } catch (Throwable e) {
+                    request.future.setException(e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.apache.shiro.authz.Permission;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * {@link PermissionFetcher} that answers from a {@link CountingBloomFilter} of the (principal identity, domain) pairs
+ * that have grants before asking another fetcher. Identities that can not have a grant in the domain of any requested
+ * permission, nor in the wildcard domain, are left out of the query, and when no identity is left the query is not
+ * made at all. The filter itself has no false negatives, so it only hides a grant it has not learned about.
+ * <p/>
+ * The filter is built from the permissions read by {@link SnapshotPermissionFetcher#load()} (register this as a
+ * {@link PermissionSnapshotListener}) and kept current by the committed changes of {@link PermissionChangePublisher}
+ * (register this as a {@link PermissionChangeListener}). Until the first load every query is passed on.
+ * {@link PermissionChangePublisher} only sees changes committed in this JVM: a grant added on another node, or written
+ * without going through JPA, is hidden until the next load. With several nodes writing grants, reload on a schedule
+ * that bounds how long a new grant may be denied, or do not use this fetcher.
+ *
+ * @author Dustin Sweigart <dustin@swigg.net>
+ */
+public class BloomFilterPermissionFetcher implements PermissionFetcher, PermissionChangeListener, PermissionSnapshotListener {
+    static private final Logger LOGGER = LoggerFactory.getLogger(BloomFilterPermissionFetcher.class);
+
+    private static final char SEPARATOR = '\u0000';
+
+    private final PermissionFetcher permissionFetcher;
+
+    private int expectedInsertions = 10000;
+
+    private double falsePositiveProbability = 0.01;
+
+    private final Object lock = new Object();
+
+    /**
+     * current filter, null until the first load
+     */
+    private volatile Generation generation;
+
+    /**
+     * changes delivered while a load is in progress, null otherwise
+     */
+    private List<PermissionChange> pending;
+
+    private final AtomicLong skipped = new AtomicLong();
+
+    public BloomFilterPermissionFetcher(PermissionFetcher permissionFetcher) {
+        this.permissionFetcher = checkNotNull(permissionFetcher);
+    }
+
+    @Override
+    public Set<? extends Permission> fetchPermissions(Collection<PrincipalIdentity> identities, Permission... permissions) {
+        Generation current = generation;
+        Set<String> domains = domains(permissions);
+        if (current == null || domains == null) {
+            return permissionFetcher.fetchPermissions(identities, permissions);
+        }
+
+        List<PrincipalIdentity> candidates = Lists.newArrayListWithCapacity(identities.size());
+        for (PrincipalIdentity identity : identities) {
+            if (current.mightHaveGrants(identity.getPrincipalIdentity(), domains)) {
+                candidates.add(identity);
+            }
+        }
+
+        if (candidates.isEmpty()) {
+            skipped.incrementAndGet();
+            return Collections.emptySet();
+        }
+
+        return permissionFetcher.fetchPermissions(candidates, permissions);
+    }
+
+    @Override
+    public void permissionsChanged(Collection<PermissionChange> changes) {
+        synchronized (lock) {
+            if (generation != null) {
+                generation.apply(changes);
+            }
+            if (pending != null) {
+                pending.addAll(changes);
+            }
+        }
+    }
+
+    @Override
+    public void beforeSnapshotLoad() {
+        synchronized (lock) {
+            pending = Lists.newArrayList();
+        }
+    }
+
+    @Override
+    public void snapshotLoaded(Collection<DATPermission> permissions) {
+        // removals created before this point may already be missing from the permissions that were read
+        long loadedAt = PermissionChange.currentSequence();
+
+        Set<String> keys = Sets.newHashSet();
+        for (DATPermission permission : permissions) {
+            if (permission.getPrincipalIdentity() != null && permission.getDomain() != null) {
+                keys.add(key(permission.getPrincipalIdentity(), permission.getDomain()));
+            }
+        }
+
+        CountingBloomFilter filter = new CountingBloomFilter(Math.max(expectedInsertions, 2 * keys.size()), falsePositiveProbability);
+        for (DATPermission permission : permissions) {
+            if (permission.getPrincipalIdentity() != null && permission.getDomain() != null) {
+                filter.add(key(permission.getPrincipalIdentity(), permission.getDomain()));
+            }
+        }
+
+        synchronized (lock) {
+            Generation rebuilt = new Generation(filter, loadedAt);
+            if (pending != null) {
+                rebuilt.apply(pending);
+                pending = null;
+            }
+            generation = rebuilt;
+        }
+
+        LOGGER.info("Built bloom filter of {} counters for {} principal identity and domain pairs", filter.size(), keys.size());
+    }
+
+    /**
+     * @return the number of queries that were answered without asking the other fetcher
+     */
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    public PermissionFetcher getPermissionFetcher() {
+        return permissionFetcher;
+    }
+
+    public int getExpectedInsertions() {
+        return expectedInsertions;
+    }
+
+    /**
+     * @param expectedInsertions minimum number of (principal identity, domain) pairs the filter is sized for
+     */
+    public void setExpectedInsertions(int expectedInsertions) {
+        this.expectedInsertions = expectedInsertions;
+    }
+
+    public double getFalsePositiveProbability() {
+        return falsePositiveProbability;
+    }
+
+    public void setFalsePositiveProbability(double falsePositiveProbability) {
+        this.falsePositiveProbability = falsePositiveProbability;
+    }
+
+    /**
+     * @param permissions
+     * @return the domains of the permissions, or null if a domain is not known and the filter can not be used
+     */
+    private static Set<String> domains(Permission... permissions) {
+        if (permissions.length == 0) {
+            return null;
+        }
+
+        Set<String> domains = Sets.newHashSetWithExpectedSize(permissions.length + 1);
+        domains.add(WildcardPermission.WILDCARD);
+        for (Permission permission : permissions) {
+            if (!DATPermission.class.isInstance(permission) || DATPermission.class.cast(permission).getDomain() == null) {
+                return null;
+            }
+            domains.add(DATPermission.class.cast(permission).getDomain());
+        }
+
+        return domains;
+    }
+
+    private static String key(String principalIdentity, String domain) {
+        return principalIdentity + SEPARATOR + domain;
+    }
+
+    /**
+     * A filter together with the sequence of the last {@link PermissionChange} that may already be part of it.
+     */
+    private static final class Generation {
+        final CountingBloomFilter filter;
+
+        final long loadedAt;
+
+        Generation(CountingBloomFilter filter, long loadedAt) {
+            this.filter = filter;
+            this.loadedAt = loadedAt;
+        }
+
+        boolean mightHaveGrants(String principalIdentity, Set<String> domains) {
+            for (String domain : domains) {
+                if (filter.mightContain(key(principalIdentity, domain))) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        void apply(Collection<PermissionChange> changes) {
+            for (PermissionChange change : changes) {
+                if (change.getPrincipalIdentity() == null || change.getDomain() == null) {
+                    continue;
+                }
+
+                String key = key(change.getPrincipalIdentity(), change.getDomain());
+                switch (change.getType()) {
+                    case PERSISTED:
+                        // counting a grant the load already saw only costs a false positive
+                        filter.add(key);
+                        break;
+                    case REMOVED:
+                        // a removal the load may have seen must not be subtracted again
+                        if (change.getSequence() > loadedAt) {
+                            filter.remove(key);
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+    }
+}
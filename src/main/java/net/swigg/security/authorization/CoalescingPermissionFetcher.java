@@ -0,0 +1,205 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Objects;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.util.concurrent.*;
+import org.apache.shiro.authz.Permission;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * {@link PermissionFetcher} that runs fetches on an executor and coalesces concurrent identical fetches into one
+ * ("single flight"): while a fetch for the same principal identities and permissions is in progress, later callers
+ * wait for its result instead of querying again. This keeps a burst of cache misses for the same role, e.g. right
+ * after a deploy or a cache flush, down to a single query.
+ * <p/>
+ * Fetches are identified by the principal identity strings, and by the domain, actions and targets of each
+ * {@link DATPermission}; other permissions only match themselves. Results are not cached: a fetch that starts after
+ * the previous one completed queries again.
+ * <p/>
+ * Since fetches run on the executor's threads they do not take part in the caller's transaction. Any executor can be
+ * used, including one that starts a virtual thread per task on a JDK that has them.
+ *
+ * @author Dustin Sweigart <dustin@swigg.net>
+ */
+public class CoalescingPermissionFetcher implements PermissionFetcher {
+    private final PermissionFetcher permissionFetcher;
+
+    private final ExecutorService executor;
+
+    private final ConcurrentMap<Key, ListenableFuture<Set<Permission>>> inFlight = new ConcurrentHashMap<Key, ListenableFuture<Set<Permission>>>();
+
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * Runs fetches on a pool of daemon threads, twice as many as there are processors.
+     *
+     * @param permissionFetcher
+     */
+    public CoalescingPermissionFetcher(PermissionFetcher permissionFetcher) {
+        this(permissionFetcher, Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() * 2,
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("permission-fetcher-%d").build()));
+    }
+
+    public CoalescingPermissionFetcher(PermissionFetcher permissionFetcher, ExecutorService executor) {
+        this.permissionFetcher = checkNotNull(permissionFetcher);
+        this.executor = checkNotNull(executor);
+    }
+
+    /**
+     * Blocks until {@link #fetchPermissionsAsync(Collection, Permission...)} completes, rethrowing what the fetch threw.
+     */
+    @Override
+    public Set<? extends Permission> fetchPermissions(Collection<PrincipalIdentity> identities, Permission... permissions) {
+        try {
+            return Uninterruptibles.getUninterruptibly(fetchPermissionsAsync(identities, permissions));
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * Starts a fetch, or joins the identical fetch that is already in progress. The returned future may be shared with
+     * other callers and must not be cancelled.
+     *
+     * @param identities
+     * @param permissions
+     * @return the permissions, as returned by the wrapped fetcher
+     */
+    public ListenableFuture<Set<Permission>> fetchPermissionsAsync(final Collection<PrincipalIdentity> identities, final Permission... permissions) {
+        final Key key = new Key(identities, permissions);
+
+        ListenableFuture<Set<Permission>> existing = inFlight.get(key);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            return existing;
+        }
+
+        final ListenableFutureTask<Set<Permission>> fetch = ListenableFutureTask.create(new Callable<Set<Permission>>() {
+            @Override
+            public Set<Permission> call() throws Exception {
+                try {
+                    return ImmutableSet.<Permission>copyOf(permissionFetcher.fetchPermissions(identities, permissions));
+                } finally {
+                    // removed before the result is published, so a caller that has seen it never joins this fetch;
+                    // no other fetch for the key can have been registered while this one was
+                    inFlight.remove(key);
+                }
+            }
+        });
+
+        existing = inFlight.putIfAbsent(key, fetch);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            return existing;
+        }
+
+        try {
+            executor.execute(fetch);
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(key, fetch);
+            throw e;
+        }
+
+        return fetch;
+    }
+
+    /**
+     * @return the number of fetches that joined one already in progress
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    /**
+     * @return the number of fetches currently in progress
+     */
+    public int getInFlight() {
+        return inFlight.size();
+    }
+
+    public PermissionFetcher getPermissionFetcher() {
+        return permissionFetcher;
+    }
+
+    /**
+     * Stops accepting fetches; fetches in progress are completed.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Normalized description of a fetch; independent of the order of the identities, permissions, actions and targets.
+     */
+    private static final class Key {
+        private static final Joiner JOINER = Joiner.on(WildcardPermission.SUBDIVIDER);
+
+        private final Set<String> identities;
+
+        private final Set<Object> permissions;
+
+        Key(Collection<PrincipalIdentity> identities, Permission... permissions) {
+            ImmutableSet.Builder<String> identityBuilder = ImmutableSet.builder();
+            for (PrincipalIdentity identity : identities) {
+                identityBuilder.add(identity.getPrincipalIdentity());
+            }
+            this.identities = identityBuilder.build();
+
+            ImmutableSet.Builder<Object> permissionBuilder = ImmutableSet.builder();
+            for (Permission permission : permissions) {
+                permissionBuilder.add(DATPermission.class.isInstance(permission) ? normalize(DATPermission.class.cast(permission)) : permission);
+            }
+            this.permissions = permissionBuilder.build();
+        }
+
+        private static String normalize(DATPermission permission) {
+            return permission.getDomain()
+                    + WildcardPermission.DIVIDER + JOINER.join(ImmutableSortedSet.copyOf(permission.getActions()))
+                    + WildcardPermission.DIVIDER + JOINER.join(ImmutableSortedSet.copyOf(permission.getTargets()));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+
+            Key that = (Key) o;
+            return identities.equals(that.identities) && permissions.equals(that.permissions);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(identities, permissions);
+        }
+    }
+}
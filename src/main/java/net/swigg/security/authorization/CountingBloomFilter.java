@@ -0,0 +1,114 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.primitives.Longs;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Bloom filter with a counter instead of a bit per slot, so keys can be removed as well as added. It may report a key
+ * that was never added (a false positive), but never misses a key that was added more often than it was removed.
+ * <p/>
+ * Slots are chosen by double hashing the 128 bit murmur3 hash of the key, as Guava's own {@link
+ * com.google.common.hash.BloomFilter} does. Counters are updated atomically, so the filter may be read and written
+ * concurrently.
+ *
+ * @author Dustin Sweigart <dustin@swigg.net>
+ */
+public final class CountingBloomFilter {
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    private final AtomicIntegerArray counters;
+
+    private final int hashFunctions;
+
+    /**
+     * @param expectedInsertions number of distinct keys the filter is sized for
+     * @param falsePositiveProbability false positive probability at the expected number of keys
+     */
+    public CountingBloomFilter(int expectedInsertions, double falsePositiveProbability) {
+        checkArgument(expectedInsertions > 0, "Expected insertions must be positive.");
+        checkArgument(falsePositiveProbability > 0 && falsePositiveProbability < 1, "False positive probability must be between 0 and 1.");
+
+        double slots = -expectedInsertions * Math.log(falsePositiveProbability) / (Math.log(2) * Math.log(2));
+        this.counters = new AtomicIntegerArray((int) Math.max(Long.SIZE, Math.min(Integer.MAX_VALUE - 8, Math.ceil(slots))));
+        this.hashFunctions = (int) Math.max(1, Math.round(slots / expectedInsertions * Math.log(2)));
+    }
+
+    public void add(String key) {
+        long[] hash = hash(key);
+        for (int x = 0; x < hashFunctions; x++) {
+            counters.incrementAndGet(slot(hash, x));
+        }
+    }
+
+    /**
+     * Removes one occurrence of a key. Must only be called for keys that have been added.
+     *
+     * @param key
+     */
+    public void remove(String key) {
+        long[] hash = hash(key);
+        for (int x = 0; x < hashFunctions; x++) {
+            int slot = slot(hash, x);
+            int count;
+            do {
+                count = counters.get(slot);
+            } while (count > 0 && !counters.compareAndSet(slot, count, count - 1));
+        }
+    }
+
+    public boolean mightContain(String key) {
+        long[] hash = hash(key);
+        for (int x = 0; x < hashFunctions; x++) {
+            if (counters.get(slot(hash, x)) == 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the number of counters
+     */
+    public int size() {
+        return counters.length();
+    }
+
+    private int slot(long[] hash, int x) {
+        long combined = hash[0] + x * hash[1];
+        return (int) ((combined & Long.MAX_VALUE) % counters.length());
+    }
+
+    private static long[] hash(String key) {
+        HashCode hashCode = HASH_FUNCTION.hashString(key, Charsets.UTF_8);
+        byte[] bytes = hashCode.asBytes();
+        return new long[]{
+                Longs.fromBytes(bytes[7], bytes[6], bytes[5], bytes[4], bytes[3], bytes[2], bytes[1], bytes[0]),
+                Longs.fromBytes(bytes[15], bytes[14], bytes[13], bytes[12], bytes[11], bytes[10], bytes[9], bytes[8])
+        };
+    }
+}
@@ -21,6 +21,8 @@ import com.google.common.base.Function;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import javax.annotation.Nullable;
 import javax.persistence.*;
@@ -32,37 +34,101 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
+ * Permissions built with the public constructors intern their values into the {@link SymbolTable}s, as grants must.
+ * Permissions that are only checked, e.g. built per request with per-account targets, are built as {@link #isQuery()
+ * queries} with {@link ImmutableDATPermission#forQuery} or, in subclasses, the protected query constructors; otherwise
+ * every distinct value stays in the tables for the life of the JVM.
+ * <p/>
+ * The entity and both of its collections are cacheable in the second-level cache regions named by {@link #CACHE_REGION},
+ * {@link #ACTIONS_CACHE_REGION} and {@link #TARGETS_CACHE_REGION}. They are only cached when a cache provider is
+ * configured, see the {@code permission-cache} profile.
+ *
  * @author Dustin Sweigart <dustin@swigg.net>
  */
 @Entity
+@Table(indexes = {
+        @Index(name = "datpermission_principal_key", columnList = "principalKey"),
+        @Index(name = "datpermission_principal_identity", columnList = "principalIdentity")})
+@EntityListeners(DATPermissionListener.class)
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = DATPermission.CACHE_REGION)
 public class DATPermission extends WildcardPermission {
     public static enum LEVEL {
         DOMAIN, ACTION, TARGET
     }
 
+    public static final String CACHE_REGION = "net.swigg.security.authorization.DATPermission";
+
+    public static final String ACTIONS_CACHE_REGION = CACHE_REGION + ".actions";
+
+    public static final String TARGETS_CACHE_REGION = CACHE_REGION + ".targets";
+
     @Id
     @GeneratedValue(strategy = GenerationType.AUTO)
     @Column(name = "id")
     private Long id;
 
+    /**
+     * incremented whenever the actions or targets are replaced; element collections do not make their owner dirty, so
+     * without it Hibernate would not run {@link javax.persistence.PostUpdate} listeners when only those changed. Null
+     * for rows written before the column existed.
+     */
+    @Column(name = "revision")
+    private Long revision;
+
     @Column(name = "principalIdentity")
     private String principalIdentity;
 
+    /**
+     * {@link IdentityType} key of the principal identity, or null if it is not typed
+     */
+    @Column(name = "principalKey")
+    private Long principalKey;
+
     @Column(name = "domain")
     private String domain;
 
     @ElementCollection(fetch = FetchType.EAGER)
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = ACTIONS_CACHE_REGION)
     @Column(name = "name")
     @CollectionTable(name = "permission_action", joinColumns = @JoinColumn(name = "permission_id"))
     private Set<String> actions;
 
     @ElementCollection(fetch = FetchType.EAGER)
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = TARGETS_CACHE_REGION)
     @JoinColumn(name = "name")
     @CollectionTable(name = "permission_target", joinColumns = @JoinColumn(name = "permission_id"))
     private Set<String> targets;
 
-    public DATPermission(String permission) {
+    /**
+     * principal identity as last read from or written to the database, see {@link DATPermissionListener}
+     */
+    @Transient
+    private String persistentPrincipalIdentity;
+
+    /**
+     * domain as last read from or written to the database, see {@link DATPermissionListener}
+     */
+    @Transient
+    private String persistentDomain;
+
+    /**
+     * no-argument constructor for JPA
+     */
+    protected DATPermission() {
         super();
+    }
+
+    public DATPermission(String permission) {
+        this(permission, false);
+    }
+
+    /**
+     * @param permission
+     * @param query whether the permission is only checked against grants, see {@link #isQuery()}
+     */
+    protected DATPermission(String permission, boolean query) {
+        super(query);
 
         String[] parts = permission.split(DIVIDER);
         checkArgument(parts.length > 0 && parts.length <= 3);
@@ -95,15 +161,35 @@ public class DATPermission extends WildcardPermission {
     }
 
     public DATPermission(String domain, Collection<String> actions, Collection<String> instances) {
-        super();
+        this(false, domain, actions, instances);
+    }
+
+    public DATPermission(String domain, Collection<String> actions, TargetIdentity... instances) {
+        this(false, domain, actions, instances);
+    }
+
+    /**
+     * @param query whether the permission is only checked against grants, see {@link #isQuery()}
+     * @param domain
+     * @param actions
+     * @param instances
+     */
+    protected DATPermission(boolean query, String domain, Collection<String> actions, Collection<String> instances) {
+        super(query);
 
         this.setDomain(domain);
         this.setActions(actions);
         this.setTargets(instances);
     }
 
-    public DATPermission(String domain, Collection<String> actions, TargetIdentity... instances) {
-        super();
+    /**
+     * @param query whether the permission is only checked against grants, see {@link #isQuery()}
+     * @param domain
+     * @param actions
+     * @param instances
+     */
+    protected DATPermission(boolean query, String domain, Collection<String> actions, TargetIdentity... instances) {
+        super(query);
 
         this.setDomain(domain);
         this.setActions(actions);
@@ -113,28 +199,83 @@ public class DATPermission extends WildcardPermission {
     public DATPermission(String principalIdentity, String permission) {
         this(permission);
         this.principalIdentity = checkNotNull(principalIdentity);
+        this.principalKey = keyOrNull(IdentityType.parse(principalIdentity));
     }
 
     public DATPermission(PrincipalIdentity principalIdentity, String permission) {
         this(principalIdentity.getPrincipalIdentity(), permission);
+        this.principalKey = keyOrNull(IdentityType.keyOf(principalIdentity));
     }
 
     public DATPermission(String principalIdentity, String domain, Collection<String> actions, Collection<String> instances) {
         this(domain, actions, instances);
         this.principalIdentity = checkNotNull(principalIdentity);
+        this.principalKey = keyOrNull(IdentityType.parse(principalIdentity));
     }
 
     public DATPermission(String principalIdentity, String domain, Collection<String> actions, TargetIdentity... instances) {
         this(domain, actions, instances);
         this.principalIdentity = checkNotNull(principalIdentity);
+        this.principalKey = keyOrNull(IdentityType.parse(principalIdentity));
     }
 
     public DATPermission(PrincipalIdentity principalIdentity, String domain, Collection<String> actions, Collection<String> instances) {
         this(principalIdentity.getPrincipalIdentity(), domain, actions, instances);
+        this.principalKey = keyOrNull(IdentityType.keyOf(principalIdentity));
     }
 
     public DATPermission(PrincipalIdentity principalIdentity, String domain, Collection<String> actions, TargetIdentity... instances) {
         this(principalIdentity.getPrincipalIdentity(), domain, actions, instances);
+        this.principalKey = keyOrNull(IdentityType.keyOf(principalIdentity));
+    }
+
+    private static Long keyOrNull(long key) {
+        return key != IdentityType.NO_KEY ? key : null;
+    }
+
+    /**
+     * Level hashes are not persisted, so they are rebuilt from the mapped columns after the entity has been loaded.
+     */
+    @PostLoad
+    protected void rebuildLevels() {
+        super.setLevel(0, this.domain);
+        if (this.actions != null) {
+            super.setLevel(1, this.actions);
+        }
+        if (this.targets != null) {
+            super.setLevel(2, this.targets);
+        }
+
+        markPersistentState();
+    }
+
+    /**
+     * Types may be registered after the permission was constructed, so the key is derived once more before it is
+     * written.
+     */
+    @PrePersist
+    @PreUpdate
+    protected void updatePrincipalKey() {
+        if (this.principalKey == null) {
+            this.principalKey = keyOrNull(IdentityType.parse(this.principalIdentity));
+        }
+    }
+
+    private void incrementRevision() {
+        this.revision = this.revision != null ? this.revision + 1 : 1L;
+    }
+
+    void markPersistentState() {
+        this.persistentPrincipalIdentity = this.principalIdentity;
+        this.persistentDomain = this.domain;
+    }
+
+    String getPersistentPrincipalIdentity() {
+        return persistentPrincipalIdentity;
+    }
+
+    String getPersistentDomain() {
+        return persistentDomain;
     }
 
     public Long getId() {
@@ -145,12 +286,24 @@ public class DATPermission extends WildcardPermission {
         this.id = id;
     }
 
+    public Long getRevision() {
+        return revision;
+    }
+
     public String getPrincipalIdentity() {
         return principalIdentity;
     }
 
+    /**
+     * @return the {@link IdentityType} key of the principal identity, or null if it is not typed
+     */
+    public Long getPrincipalKey() {
+        return principalKey;
+    }
+
     public void setPrincipalIdentity(String principalIdentity) {
         this.principalIdentity = principalIdentity;
+        this.principalKey = keyOrNull(IdentityType.parse(principalIdentity));
     }
 
     public String getDomain() {
@@ -159,38 +312,42 @@ public class DATPermission extends WildcardPermission {
 
     protected void setDomain(String domain) {
         this.domain = checkNotNull(domain);
-        super.levelHash(0, this.domain);
+        super.setLevel(0, this.domain);
     }
 
     public ImmutableSet<String> getActions() {
-        return ImmutableSet.copyOf(this.actions);
+        return this.actions != null ? ImmutableSet.copyOf(this.actions) : ImmutableSet.<String>of();
     }
 
     public DATPermission setActions(Collection<String> actions) {
         this.actions = actions != null ? Sets.newHashSet(actions) : Sets.newHashSet(WILDCARD);
-        super.levelHash(1, this.actions.toArray(new String[this.actions.size()]));
+        incrementRevision();
+        super.setLevel(1, this.actions.toArray(new String[this.actions.size()]));
         return this;
     }
 
     public DATPermission setActions(String... actions) {
         this.actions = Sets.newHashSet(actions);
-        super.levelHash(1, actions);
+        incrementRevision();
+        super.setLevel(1, actions);
         return this;
     }
 
     public ImmutableSet<String> getTargets() {
-        return ImmutableSet.copyOf(targets);
+        return this.targets != null ? ImmutableSet.copyOf(this.targets) : ImmutableSet.<String>of();
     }
 
     public DATPermission setTargets(Collection<String> targets) {
         this.targets = targets != null ? Sets.newHashSet(targets) : Sets.newHashSet(WILDCARD);
-        super.levelHash(2, this.targets.toArray(new String[this.targets.size()]));
+        incrementRevision();
+        super.setLevel(2, this.targets.toArray(new String[this.targets.size()]));
         return this;
     }
 
     public DATPermission setTargets(String... targets) {
         this.targets = Sets.newHashSet(targets);
-        super.levelHash(2, targets);
+        incrementRevision();
+        super.setLevel(2, targets);
         return this;
     }
 
@@ -19,75 +19,171 @@ package net.swigg.security.authorization;
 
 import com.google.common.collect.Sets;
 import com.mysema.query.jpa.impl.JPAQuery;
+import com.mysema.query.jpa.impl.JPAUpdateClause;
 import com.mysema.query.types.expr.BooleanExpression;
 import org.apache.shiro.authz.Permission;
+import org.hibernate.jpa.QueryHints;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 
 /**
- * JPA based implementation of {@link PermissionFetcher} that uses QueryDSL
+ * JPA based implementation of {@link PermissionFetcher} that uses QueryDSL. Identities of a registered {@link
+ * IdentityType} are looked up by their numeric key, other identities by their string form. Both columns are indexed.
+ * <p/>
+ * Rows written before the key column existed, inserted with plain SQL or written before their type was registered have
+ * no key, so by default typed identities are matched on their string form as well. This is transitional: once {@link
+ * #backfillPrincipalKeys()} has run after every type has been registered, {@link #setMatchTypedIdentityStrings(boolean)
+ * turn it off} so typed identities are looked up by key alone.
  *
  * @author Dustin Sweigart <dustin@swigg.net>
  */
 public class DATPermissionFetcher implements PermissionFetcher {
+    public static final String QUERY_CACHE_REGION = "net.swigg.security.authorization.DATPermissionFetcher";
+
     @PersistenceContext
     private final EntityManager entityManager;
 
+    private boolean cacheQueries = false;
+
+    private boolean matchTypedIdentityStrings = true;
+
     public DATPermissionFetcher(final EntityManager entityManager) {
         this.entityManager = entityManager;
     }
 
     @Transactional(readOnly = true)
     public Set<? extends Permission> fetchPermissions(Collection<PrincipalIdentity> identities, Permission... permissions) {
+        if (identities.isEmpty()) {
+            // without an identity predicate the query would return every permission
+            return Collections.emptySet();
+        }
+
         QDATPermission wcPerm = new QDATPermission("permission");
 
         // create the query
         JPAQuery query = new JPAQuery(getEntityManager());
         query.from(wcPerm);
+        if (cacheQueries) {
+            query.setHint(QueryHints.HINT_CACHEABLE, true);
+            query.setHint(QueryHints.HINT_CACHE_REGION, QUERY_CACHE_REGION);
+        }
 
-        BooleanExpression whereExpression = null;
-        // build predicate for each principalIdentity case
+        Set<Long> principalKeys = Sets.newHashSet();
+        Set<String> principalIdentities = Sets.newHashSet();
         for (PrincipalIdentity identity : identities) {
-            BooleanExpression pidExpression = wcPerm.principalIdentity.eq(identity.getPrincipalIdentity());
+            long key = IdentityType.keyOf(identity);
+            if (key != IdentityType.NO_KEY) {
+                principalKeys.add(key);
+                if (!matchTypedIdentityStrings) {
+                    continue;
+                }
+            }
+            principalIdentities.add(identity.getPrincipalIdentity());
+        }
 
-            BooleanExpression permScopeExpr = null;
-            for (Permission permission : permissions) {
-                if (DATPermission.class.isInstance(permission)) {
-                    DATPermission queryPermission = DATPermission.class.cast(permission);
-                    String domain = queryPermission.getDomain();
-                    Set<String> actions = Sets.newHashSet(queryPermission.getActions());
-                    Set<String> targets = Sets.newHashSet(queryPermission.getTargets());
+        // the permission scope is the same for every principalIdentity, so they share a single IN predicate
+        BooleanExpression permScopeExpr = null;
+        for (Permission permission : permissions) {
+            if (!DATPermission.class.isInstance(permission)) {
+                // the grants can not be narrowed down for other permissions, so every grant is read
+                permScopeExpr = null;
+                break;
+            }
 
-                    BooleanExpression permExpression = wcPerm.domain.in(domain, "*");
+            DATPermission queryPermission = DATPermission.class.cast(permission);
+            String domain = queryPermission.getDomain();
+            Set<String> actions = Sets.newHashSet(queryPermission.getActions());
+            Set<String> targets = Sets.newHashSet(queryPermission.getTargets());
 
-                    if (actions.size() > 0) {
-                        actions.add("*");
-                        permExpression = permExpression.and(wcPerm.actions.any().in(actions));
-                    }
+            BooleanExpression permExpression = wcPerm.domain.in(domain, "*");
 
-                    if (targets.size() > 0) {
-                        targets.add("*");
-                        permExpression = permExpression.and(wcPerm.targets.any().in(targets));
-                    }
+            if (actions.size() > 0) {
+                actions.add("*");
+                permExpression = permExpression.and(wcPerm.actions.any().in(actions));
+            }
 
-                    permScopeExpr = (permScopeExpr == null) ? permExpression : permScopeExpr.or(permExpression);
-                }
+            if (targets.size() > 0) {
+                targets.add("*");
+                permExpression = permExpression.and(wcPerm.targets.any().in(targets));
             }
 
-            pidExpression = pidExpression.and(permScopeExpr);
-            whereExpression = (whereExpression == null) ? pidExpression : whereExpression.or(pidExpression);
+            permScopeExpr = (permScopeExpr == null) ? permExpression : permScopeExpr.or(permExpression);
         }
 
+        BooleanExpression identityExpr = principalKeys.isEmpty() ? null : wcPerm.principalKey.in(principalKeys);
+        if (!principalIdentities.isEmpty()) {
+            BooleanExpression stringExpr = wcPerm.principalIdentity.in(principalIdentities);
+            identityExpr = identityExpr == null ? stringExpr : identityExpr.or(stringExpr);
+        }
+
+        BooleanExpression whereExpression = identityExpr.and(permScopeExpr);
+
         List<? extends Permission> queryPermissions = query.where(whereExpression).list(wcPerm);
         Set<Permission> permissionSet = Sets.newHashSet(queryPermissions);
         return permissionSet;
     }
 
+    /**
+     * Sets the principal key of every row that has none but whose principal identity is of a registered {@link
+     * IdentityType}. The key does not change what a grant implies, so no {@link PermissionChange} is published.
+     *
+     * @return the number of rows updated
+     */
+    @Transactional
+    public long backfillPrincipalKeys() {
+        QDATPermission wcPerm = new QDATPermission("permission");
+        List<String> principalIdentities = new JPAQuery(getEntityManager())
+                .from(wcPerm)
+                .where(wcPerm.principalKey.isNull(), wcPerm.principalIdentity.isNotNull())
+                .distinct()
+                .list(wcPerm.principalIdentity);
+
+        long updated = 0;
+        for (String principalIdentity : principalIdentities) {
+            long key = IdentityType.parse(principalIdentity);
+            if (key != IdentityType.NO_KEY) {
+                updated += new JPAUpdateClause(getEntityManager(), wcPerm)
+                        .where(wcPerm.principalIdentity.eq(principalIdentity), wcPerm.principalKey.isNull())
+                        .set(wcPerm.principalKey, key)
+                        .execute();
+            }
+        }
+
+        return updated;
+    }
+
+    public boolean isMatchTypedIdentityStrings() {
+        return matchTypedIdentityStrings;
+    }
+
+    /**
+     * @param matchTypedIdentityStrings whether typed identities are matched on their string form as well as their key;
+     *                                  only turn it off once every row has its key, see {@link #backfillPrincipalKeys()}
+     */
+    public void setMatchTypedIdentityStrings(boolean matchTypedIdentityStrings) {
+        this.matchTypedIdentityStrings = matchTypedIdentityStrings;
+    }
+
+    public boolean isCacheQueries() {
+        return cacheQueries;
+    }
+
+    /**
+     * Marks the fetch queries as cacheable in the {@link #QUERY_CACHE_REGION} region. Has no effect unless the
+     * Hibernate query cache is enabled.
+     *
+     * @param cacheQueries
+     */
+    public void setCacheQueries(boolean cacheQueries) {
+        this.cacheQueries = cacheQueries;
+    }
+
     public EntityManager getEntityManager() {
         return entityManager;
     }
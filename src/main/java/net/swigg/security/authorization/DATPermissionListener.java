@@ -0,0 +1,74 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import com.google.common.base.Objects;
+
+import javax.persistence.PostPersist;
+import javax.persistence.PostRemove;
+import javax.persistence.PostUpdate;
+
+/**
+ * JPA entity listener that publishes a {@link PermissionChange} through {@link PermissionChangePublisher} whenever a
+ * {@link DATPermission} is written.
+ * <p/>
+ * Exactly one change is published per written grant, so listeners can keep counts: {@link PermissionChange.TYPE#PERSISTED}
+ * adds a grant to an identity and domain, {@link PermissionChange.TYPE#REMOVED} takes one away, and
+ * {@link PermissionChange.TYPE#UPDATED} changes a grant without moving it.
+ *
+ * @author Dustin Sweigart <dustin@swigg.net>
+ */
+public class DATPermissionListener {
+    @PostPersist
+    public void postPersist(DATPermission permission) {
+        publish(PermissionChange.TYPE.PERSISTED, permission.getPrincipalIdentity(), permission.getDomain());
+        permission.markPersistentState();
+    }
+
+    @PostUpdate
+    public void postUpdate(DATPermission permission) {
+        String principalIdentity = permission.getPersistentPrincipalIdentity();
+        String domain = permission.getPersistentDomain();
+
+        // a grant that moved to another identity or domain is reported as removed from the old and persisted to the new
+        boolean known = principalIdentity != null || domain != null;
+        if (known && (!Objects.equal(principalIdentity, permission.getPrincipalIdentity()) || !Objects.equal(domain, permission.getDomain()))) {
+            publish(PermissionChange.TYPE.REMOVED, principalIdentity, domain);
+            publish(PermissionChange.TYPE.PERSISTED, permission.getPrincipalIdentity(), permission.getDomain());
+        } else {
+            publish(PermissionChange.TYPE.UPDATED, permission.getPrincipalIdentity(), permission.getDomain());
+        }
+
+        permission.markPersistentState();
+    }
+
+    @PostRemove
+    public void postRemove(DATPermission permission) {
+        // the stored row may differ from the entity if it was modified before being removed
+        boolean known = permission.getPersistentPrincipalIdentity() != null || permission.getPersistentDomain() != null;
+        if (known) {
+            publish(PermissionChange.TYPE.REMOVED, permission.getPersistentPrincipalIdentity(), permission.getPersistentDomain());
+        } else {
+            publish(PermissionChange.TYPE.REMOVED, permission.getPrincipalIdentity(), permission.getDomain());
+        }
+    }
+
+    private static void publish(PermissionChange.TYPE type, String principalIdentity, String domain) {
+        PermissionChangePublisher.publish(new PermissionChange(type, principalIdentity, domain));
+    }
+}
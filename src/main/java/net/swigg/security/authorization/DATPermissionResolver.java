@@ -0,0 +1,99 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.apache.shiro.authz.Permission;
+import org.apache.shiro.authz.permission.PermissionResolver;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * {@link PermissionResolver} that resolves permission strings to {@link ImmutableDATPermission}s, so that string based
+ * checks get the same domain/action/target filtering from {@link DATPermissionFetcher} as typed ones. Resolved
+ * permissions are kept in a bounded, concurrent LRU cache keyed by the permission string, so the handful of strings an
+ * application checks over and over again are only parsed once.
+ * <p/>
+ * Strings with more levels than a {@link DATPermission} supports are resolved to a plain {@link WildcardPermission}.
+ * Resolved permissions are {@link WildcardPermission#isQuery() queries}, so checking strings does not grow the {@link
+ * SymbolTable}s.
+ *
+ * @author Dustin Sweigart <dustin@swigg.net>
+ */
+public class DATPermissionResolver implements PermissionResolver {
+    public static final long DEFAULT_MAXIMUM_SIZE = 1000;
+
+    private final LoadingCache<String, Permission> cache;
+
+    public DATPermissionResolver() {
+        this(DEFAULT_MAXIMUM_SIZE);
+    }
+
+    public DATPermissionResolver(long maximumSize) {
+        checkArgument(maximumSize >= 0, "maximumSize can not be negative");
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .build(new CacheLoader<String, Permission>() {
+                    @Override
+                    public Permission load(String permissionString) throws Exception {
+                        return parse(permissionString);
+                    }
+                });
+    }
+
+    @Override
+    public Permission resolvePermission(String permissionString) {
+        try {
+            return cache.getUnchecked(permissionString);
+        } catch (UncheckedExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * Parses the string to a {@link WildcardPermission#isQuery() query} permission, so it does not intern its values.
+     *
+     * @param permissionString
+     * @return
+     */
+    protected Permission parse(String permissionString) {
+        if (permissionString.split(WildcardPermission.DIVIDER).length > DATPermission.LEVEL.values().length) {
+            return WildcardPermission.forQuery(permissionString);
+        }
+
+        return ImmutableDATPermission.forQuery(permissionString);
+    }
+
+    /**
+     * @return the number of cached permissions
+     */
+    public long size() {
+        return cache.size();
+    }
+
+    /**
+     * Discards all cached permissions.
+     */
+    public void clear() {
+        cache.invalidateAll();
+    }
+}
@@ -0,0 +1,393 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import net.swigg.security.metrics.StripedCounter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Asynchronous log of authorization decisions, see {@link AuthorizingRealm#setDecisionLog(DecisionLog)}.
+ * <p/>
+ * Every denial is logged and grants are sampled with {@link #getGrantSampleRate()}. Realms append {@link
+ * DecisionRecord}s to a lock-free {@link RingBuffer} and return immediately; when the buffer is full the record is
+ * dropped and counted in {@link #getDropped()}. A background thread drains the buffer in batches, renders them as
+ * lines (see {@link DecisionRecord#appendTo(StringBuilder, String)}) and writes each batch with a single {@link
+ * FileChannel} write to {@code <prefix>.log} in the directory. Once that file would exceed {@link #getMaxFileSize()}
+ * it is rotated to {@code <prefix>.1.log}, older files are shifted up and the oldest beyond {@link #getMaxFiles()} is
+ * deleted.
+ * <p/>
+ * Configure the log before {@link #start()}; {@link #close()} writes the remaining records and stops the writer. A
+ * record for which {@link #append(DecisionRecord)} returned true is always written or counted in {@link #getFailed()}.
+ *
+ * @author Dustin Sweigart <dustin@swigg.net>
+ */
+public class DecisionLog implements Closeable {
+    static private final Logger LOGGER = LoggerFactory.getLogger(DecisionLog.class);
+
+    private static final String SUFFIX = ".log";
+
+    private final File directory;
+
+    private String prefix = "decisions";
+
+    private int capacity = 8192;
+
+    private int batchSize = 512;
+
+    private long maxFileSize = 64L * 1024 * 1024;
+
+    private int maxFiles = 10;
+
+    private volatile double grantSampleRate = 0.01;
+
+    private long idleMillis = 10;
+
+    private final ThreadLocal<Random> random = new ThreadLocal<Random>() {
+        @Override
+        protected Random initialValue() {
+            return new Random();
+        }
+    };
+
+    private final StripedCounter dropped = new StripedCounter();
+
+    private final AtomicLong written = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private volatile RingBuffer<DecisionRecord> buffer;
+
+    private volatile boolean running;
+
+    private Thread writer;
+
+    private FileChannel channel;
+
+    private long fileSize;
+
+    /**
+     * only used by the writer thread
+     */
+    private final SimpleDateFormat timestampFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+
+    public DecisionLog(File directory) {
+        this.directory = checkNotNull(directory);
+        this.timestampFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    }
+
+    /**
+     * @param permitted
+     * @return true if a decision with this outcome is to be logged: always for denials, sampled for grants
+     */
+    public boolean isLogged(boolean permitted) {
+        if (!permitted) {
+            return true;
+        }
+
+        double rate = grantSampleRate;
+        return rate >= 1 || (rate > 0 && random.get().nextDouble() < rate);
+    }
+
+    /**
+     * Appends the record without blocking.
+     *
+     * @param record
+     * @return false if the record was dropped because the buffer is full or the log has not been started
+     */
+    public boolean append(DecisionRecord record) {
+        RingBuffer<DecisionRecord> current = buffer;
+        if (current == null || !current.offer(record)) {
+            dropped.increment();
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Opens the log file and starts the writer thread.
+     *
+     * @throws IOException
+     */
+    public synchronized void start() throws IOException {
+        checkState(writer == null, "decision log has already been started");
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+
+        open();
+        buffer = new RingBuffer<DecisionRecord>(capacity);
+        running = true;
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                write();
+            }
+        }, "decision-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Stops accepting records, waits until the writer has written every record appended so far, and closes the log
+     * file.
+     *
+     * @throws IOException
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (writer == null) {
+            return;
+        }
+
+        running = false;
+        buffer.close();
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        writer = null;
+        buffer = null;
+        if (channel != null) {
+            channel.force(false);
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private void write() {
+        RingBuffer<DecisionRecord> buffer = this.buffer;
+        List<DecisionRecord> batch = Lists.newArrayListWithCapacity(batchSize);
+        StringBuilder lines = new StringBuilder();
+
+        while (true) {
+            if (buffer.drainTo(batch, batchSize) == 0) {
+                if (buffer.isClosed()) {
+                    if (buffer.isEmpty()) {
+                        return;
+                    }
+
+                    // a producer has claimed a slot but not published its record yet
+                    Thread.yield();
+                    continue;
+                }
+
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(idleMillis));
+                continue;
+            }
+
+            try {
+                lines.setLength(0);
+                for (DecisionRecord record : batch) {
+                    record.appendTo(lines, timestampFormat.format(new Date(record.getTimestamp())));
+                }
+
+                write(ByteBuffer.wrap(lines.toString().getBytes(Charsets.UTF_8)));
+                written.addAndGet(batch.size());
+            } catch (IOException e) {
+                failed.addAndGet(batch.size());
+                LOGGER.error("Failed to write {} authorization decisions", batch.size(), e);
+            } catch (RuntimeException e) {
+                // keep the writer alive, otherwise the buffer fills up and every later record is dropped unnoticed
+                failed.addAndGet(batch.size());
+                LOGGER.error("Failed to write {} authorization decisions", batch.size(), e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void write(ByteBuffer bytes) throws IOException {
+        if (channel == null) {
+            open();
+        } else if (fileSize > 0 && fileSize + bytes.remaining() > maxFileSize) {
+            rotate();
+        }
+
+        while (bytes.hasRemaining()) {
+            fileSize += channel.write(bytes);
+        }
+    }
+
+    private void open() throws IOException {
+        File file = file(0);
+        channel = new FileOutputStream(file, true).getChannel();
+        fileSize = channel.size();
+    }
+
+    private void rotate() throws IOException {
+        channel.force(false);
+        channel.close();
+        channel = null;
+
+        File oldest = file(maxFiles);
+        if (oldest.exists() && !oldest.delete()) {
+            LOGGER.warn("Could not delete {}", oldest);
+        }
+        for (int index = maxFiles - 1; index >= 0; index--) {
+            File file = file(index);
+            if (file.exists() && !file.renameTo(file(index + 1))) {
+                LOGGER.warn("Could not rotate {}", file);
+            }
+        }
+
+        open();
+    }
+
+    /**
+     * @param index
+     * @return the current log file for 0, otherwise the rotated file with that index
+     */
+    File file(int index) {
+        return new File(directory, index == 0 ? prefix + SUFFIX : prefix + "." + index + SUFFIX);
+    }
+
+    /**
+     * @return records dropped because the buffer was full or the log was not running
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public long getWritten() {
+        return written.get();
+    }
+
+    /**
+     * @return records that could not be written to the file
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * @return records waiting to be written
+     */
+    public int getPending() {
+        RingBuffer<DecisionRecord> current = buffer;
+        return current != null ? current.size() : 0;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public void setPrefix(String prefix) {
+        this.prefix = checkNotNull(prefix);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @param capacity of the buffer, rounded up to a power of two
+     */
+    public void setCapacity(int capacity) {
+        checkArgument(capacity > 0);
+        this.capacity = capacity;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        checkArgument(batchSize > 0);
+        this.batchSize = batchSize;
+    }
+
+    public long getMaxFileSize() {
+        return maxFileSize;
+    }
+
+    public void setMaxFileSize(long maxFileSize) {
+        checkArgument(maxFileSize > 0);
+        this.maxFileSize = maxFileSize;
+    }
+
+    public int getMaxFiles() {
+        return maxFiles;
+    }
+
+    /**
+     * @param maxFiles number of rotated files that are kept
+     */
+    public void setMaxFiles(int maxFiles) {
+        checkArgument(maxFiles > 0);
+        this.maxFiles = maxFiles;
+    }
+
+    public double getGrantSampleRate() {
+        return grantSampleRate;
+    }
+
+    /**
+     * @param grantSampleRate fraction of grants that are logged, from 0 (none) to 1 (all)
+     */
+    public void setGrantSampleRate(double grantSampleRate) {
+        checkArgument(grantSampleRate >= 0 && grantSampleRate <= 1);
+        this.grantSampleRate = grantSampleRate;
+    }
+
+    public long getIdleMillis() {
+        return idleMillis;
+    }
+
+    /**
+     * @param idleMillis how long the writer waits before it looks at an empty buffer again
+     */
+    public void setIdleMillis(long idleMillis) {
+        checkArgument(idleMillis > 0);
+        this.idleMillis = idleMillis;
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Ordering;
+import org.apache.shiro.authz.Permission;
+
+import java.util.Collection;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * One authorization decision of an {@link AuthorizingRealm}, as appended to the {@link DecisionLog}. The permission and
+ * the grant that implied it are kept as they are and only rendered by the writer thread.
+ *
+ * @author Dustin Sweigart <dustin@swigg.net>
+ */
+public final class DecisionRecord {
+    private static final Joiner COMMA = Joiner.on(',');
+
+    private final long timestamp;
+
+    private final String realm;
+
+    private final String operation;
+
+    private final Collection<String> identities;
+
+    private final Permission permission;
+
+    private final boolean permitted;
+
+    private final Permission grant;
+
+    /**
+     * @param timestamp milliseconds since the epoch
+     * @param realm name of the realm that decided
+     * @param operation e.g. {@code checkPermission}
+     * @param identities principal identities of the subject
+     * @param permission the checked permission
+     * @param permitted
+     * @param grant the grant that implied the permission, or null if it was denied or is unknown
+     */
+    public DecisionRecord(long timestamp, String realm, String operation, Collection<String> identities,
+                          Permission permission, boolean permitted, Permission grant) {
+        this.timestamp = timestamp;
+        this.realm = realm;
+        this.operation = checkNotNull(operation);
+        this.identities = ImmutableSet.copyOf(identities);
+        this.permission = checkNotNull(permission);
+        this.permitted = permitted;
+        this.grant = grant;
+    }
+
+    /**
+     * Appends the record as a line of tab-separated fields: timestamp, {@code GRANTED} or {@code DENIED}, realm,
+     * operation, identities, permission and the matched grant as {@code <identity> <permission> #<id>}, with {@code
+     * -} for empty fields.
+     *
+     * @param line
+     * @param timestamp the formatted {@link #getTimestamp()}
+     * @return
+     */
+    public StringBuilder appendTo(StringBuilder line, String timestamp) {
+        line.append(timestamp).append('\t');
+        line.append(permitted ? "GRANTED" : "DENIED").append('\t');
+        field(line, realm).append('\t');
+        field(line, operation).append('\t');
+        field(line, COMMA.join(identities)).append('\t');
+        field(line, describe(permission)).append('\t');
+
+        if (DATPermission.class.isInstance(grant)) {
+            DATPermission datPermission = DATPermission.class.cast(grant);
+            field(line, datPermission.getPrincipalIdentity()).append(' ').append(describe(grant));
+            if (datPermission.getId() != null) {
+                line.append(" #").append(datPermission.getId());
+            }
+        } else {
+            field(line, grant != null ? describe(grant) : null);
+        }
+
+        return line.append('\n');
+    }
+
+    private static StringBuilder field(StringBuilder line, String value) {
+        if (value == null || value.isEmpty()) {
+            return line.append('-');
+        }
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            line.append(c == '\t' || c == '\n' || c == '\r' ? ' ' : c);
+        }
+
+        return line;
+    }
+
+    /**
+     * @param permission
+     * @return the wildcard string of a {@link DATPermission}, otherwise {@link Object#toString()}
+     */
+    static String describe(Permission permission) {
+        if (!DATPermission.class.isInstance(permission)) {
+            return String.valueOf(permission);
+        }
+
+        DATPermission datPermission = DATPermission.class.cast(permission);
+        StringBuilder result = new StringBuilder(datPermission.getDomain());
+        if (!datPermission.getActions().isEmpty()) {
+            result.append(WildcardPermission.DIVIDER);
+            COMMA.appendTo(result, Ordering.natural().sortedCopy(datPermission.getActions()));
+        }
+        if (!datPermission.getTargets().isEmpty()) {
+            result.append(WildcardPermission.DIVIDER);
+            COMMA.appendTo(result, Ordering.natural().sortedCopy(datPermission.getTargets()));
+        }
+
+        return result.toString();
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getRealm() {
+        return realm;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public Collection<String> getIdentities() {
+        return identities;
+    }
+
+    public Permission getPermission() {
+        return permission;
+    }
+
+    public boolean isPermitted() {
+        return permitted;
+    }
+
+    public Permission getGrant() {
+        return grant;
+    }
+}
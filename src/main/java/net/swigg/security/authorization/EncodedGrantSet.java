@@ -0,0 +1,408 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import org.apache.shiro.authz.Permission;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+import static net.swigg.security.authorization.GrantSetCodec.readString;
+import static net.swigg.security.authorization.GrantSetCodec.readVarint;
+
+/**
+ * The grants of a principal identity in their {@link GrantSetCodec} version 2 form. {@link #implies(Permission)} and
+ * {@link #findImplying(Permission...)} evaluate {@link DATPermission}s straight on the encoded bytes: the strings of the
+ * permission are matched against the symbols of the set once, after which every grant is checked with integer
+ * comparisons; only grants that are returned are decoded.
+ * <p/>
+ * Wrapping a buffer does not copy it. Java serialization writes nothing but the encoded bytes, which makes this the
+ * compact form to put grant sets in sessions and external caches.
+ *
+ * @author Dustin Sweigart <dustin@swigg.net>
+ */
+public final class EncodedGrantSet implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private transient ByteBuffer buffer;
+
+    private EncodedGrantSet(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    public static EncodedGrantSet of(String principalIdentity, Collection<? extends DATPermission> grants) {
+        return new EncodedGrantSet(ByteBuffer.wrap(GrantSetCodec.encode(principalIdentity, grants, GrantSetCodec.VERSION_2)));
+    }
+
+    /**
+     * Wraps the grant set that starts at the buffer's position, without copying it. Older versions are converted.
+     *
+     * @param buffer
+     * @return
+     */
+    public static EncodedGrantSet wrap(ByteBuffer buffer) {
+        ByteBuffer set = buffer.slice();
+        if (set.get(0) != GrantSetCodec.VERSION_2) {
+            ByteBuffer header = set.duplicate();
+            header.position(5);
+            String principalIdentity = readString(header, set.getInt(1));
+            return of(principalIdentity, GrantSetCodec.decode(set));
+        }
+
+        // find the end of the set so the view does not extend past it
+        Reader reader = new Reader(set.duplicate());
+        for (int x = 0; x < reader.count; x++) {
+            readVarint(reader.in);
+            skipLevel(reader.in);
+            skipLevel(reader.in);
+        }
+        set.limit(reader.in.position());
+        return new EncodedGrantSet(set.slice());
+    }
+
+    public String getPrincipalIdentity() {
+        ByteBuffer in = buffer.duplicate();
+        in.position(1);
+        return readString(in, readVarint(in));
+    }
+
+    /**
+     * @return the number of grants
+     */
+    public int size() {
+        return new Reader(buffer.duplicate()).count;
+    }
+
+    /**
+     * @return the number of encoded bytes
+     */
+    public int getEncodedSize() {
+        return buffer.limit();
+    }
+
+    /**
+     * @return a read-only view of the encoded bytes
+     */
+    public ByteBuffer asByteBuffer() {
+        return buffer.asReadOnlyBuffer();
+    }
+
+    public boolean implies(Permission permission) {
+        if (!DATPermission.class.isInstance(permission)) {
+            for (DATPermission grant : getPermissions()) {
+                if (grant.implies(permission)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        Reader reader = new Reader(buffer.duplicate());
+        Query query = reader.resolve(DATPermission.class.cast(permission));
+        for (int x = 0; x < reader.count; x++) {
+            if (query.matches(reader.in)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns the grants that imply at least one of the permissions, or every grant if no permissions are given.
+     *
+     * @param permissions
+     * @return
+     */
+    public Set<DATPermission> findImplying(Permission... permissions) {
+        if (permissions.length == 0) {
+            return getPermissions();
+        }
+
+        for (Permission permission : permissions) {
+            if (!DATPermission.class.isInstance(permission)) {
+                // only DATPermissions can be resolved against the symbols, check anything else on decoded grants
+                ImmutableSet.Builder<DATPermission> grants = ImmutableSet.builder();
+                for (DATPermission grant : getPermissions()) {
+                    for (Permission candidate : permissions) {
+                        if (grant.implies(candidate)) {
+                            grants.add(grant);
+                            break;
+                        }
+                    }
+                }
+
+                return grants.build();
+            }
+        }
+
+        Reader reader = new Reader(buffer.duplicate());
+        Query[] queries = new Query[permissions.length];
+        for (int x = 0; x < permissions.length; x++) {
+            queries[x] = reader.resolve(DATPermission.class.cast(permissions[x]));
+        }
+
+        ImmutableSet.Builder<DATPermission> grants = ImmutableSet.builder();
+        String principalIdentity = null;
+        for (int x = 0; x < reader.count; x++) {
+            int start = reader.in.position();
+            for (Query query : queries) {
+                reader.in.position(start);
+                if (query.matches(reader.in)) {
+                    principalIdentity = principalIdentity != null ? principalIdentity : getPrincipalIdentity();
+                    grants.add(reader.decodeGrant(start, principalIdentity));
+                    break;
+                }
+            }
+
+            // position after the grant, whichever query looked at it last
+            reader.in.position(start);
+            readVarint(reader.in);
+            skipLevel(reader.in);
+            skipLevel(reader.in);
+        }
+
+        return grants.build();
+    }
+
+    /**
+     * @return every grant, decoded
+     */
+    public Set<DATPermission> getPermissions() {
+        return GrantSetCodec.decode(buffer.duplicate());
+    }
+
+    private static void skipLevel(ByteBuffer in) {
+        int header = readVarint(in);
+        int n = header >>> 1;
+        if ((header & 1) == GrantSetCodec.FORM_BITSET) {
+            in.position(in.position() + n * 8);
+        } else {
+            for (int x = 0; x < n; x++) {
+                readVarint(in);
+            }
+        }
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        byte[] bytes = new byte[buffer.limit()];
+        buffer.duplicate().get(bytes);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        this.buffer = ByteBuffer.wrap(bytes);
+    }
+
+    /**
+     * Reads the header and symbol table of a set and leaves the buffer at the first grant.
+     */
+    private static final class Reader {
+        final ByteBuffer in;
+
+        final int[] symbolOffsets;
+
+        final int count;
+
+        Reader(ByteBuffer in) {
+            this.in = in;
+            in.position(1);
+            int principalLength = readVarint(in);
+            in.position(in.position() + principalLength);
+
+            symbolOffsets = new int[readVarint(in)];
+            for (int x = 0; x < symbolOffsets.length; x++) {
+                symbolOffsets[x] = in.position();
+                int length = readVarint(in);
+                in.position(in.position() + length);
+            }
+
+            count = readVarint(in);
+        }
+
+        /**
+         * Maps the strings of a permission onto the symbol ids of the set, -1 for strings the set does not contain.
+         */
+        Query resolve(DATPermission permission) {
+            int wildcard = symbol(WildcardPermission.WILDCARD);
+            return new Query(wildcard, symbol(permission.getDomain()), symbols(permission.getActions()),
+                    permission.getActions().contains(WildcardPermission.WILDCARD), symbols(permission.getTargets()),
+                    permission.getTargets().contains(WildcardPermission.WILDCARD));
+        }
+
+        DATPermission decodeGrant(int position, String principalIdentity) {
+            ByteBuffer grant = in.duplicate();
+            grant.position(position);
+            String domain = symbol(readVarint(grant));
+            List<String> actions = level(grant);
+            List<String> targets = level(grant);
+            return new ImmutableDATPermission(principalIdentity, domain, actions, targets);
+        }
+
+        private List<String> level(ByteBuffer grant) {
+            int header = readVarint(grant);
+            int n = header >>> 1;
+            List<String> values = Lists.newArrayList();
+            if ((header & 1) == GrantSetCodec.FORM_BITSET) {
+                for (int word = 0; word < n; word++) {
+                    long bits = grant.getLong();
+                    while (bits != 0) {
+                        values.add(symbol(word * Long.SIZE + Long.numberOfTrailingZeros(bits)));
+                        bits &= bits - 1;
+                    }
+                }
+            } else {
+                int id = 0;
+                for (int x = 0; x < n; x++) {
+                    id += readVarint(grant);
+                    values.add(symbol(id));
+                }
+            }
+
+            return values;
+        }
+
+        private String symbol(int id) {
+            ByteBuffer symbol = in.duplicate();
+            symbol.position(symbolOffsets[id]);
+            return readString(symbol, readVarint(symbol));
+        }
+
+        private int[] symbols(Collection<String> values) {
+            int[] ids = new int[values.size()];
+            int x = 0;
+            for (String value : values) {
+                ids[x++] = symbol(value);
+            }
+            Arrays.sort(ids);
+
+            return ids;
+        }
+
+        private int symbol(String value) {
+            if (value == null) {
+                return -1;
+            }
+
+            byte[] bytes = value.getBytes(Charsets.UTF_8);
+            for (int id = 0; id < symbolOffsets.length; id++) {
+                if (GrantSetCodec.hasBytes(in, symbolOffsets[id], bytes)) {
+                    return id;
+                }
+            }
+
+            return -1;
+        }
+    }
+
+    /**
+     * A {@link DATPermission} resolved against the symbols of a set, see {@link WildcardPermission#implies(Permission)}
+     * for the rules it follows.
+     */
+    private static final class Query {
+        final int wildcard;
+
+        final int domain;
+
+        final int[] actions;
+
+        final boolean actionsWildcard;
+
+        final int[] targets;
+
+        final boolean targetsWildcard;
+
+        Query(int wildcard, int domain, int[] actions, boolean actionsWildcard, int[] targets, boolean targetsWildcard) {
+            this.wildcard = wildcard;
+            this.domain = domain;
+            this.actions = actions;
+            this.actionsWildcard = actionsWildcard;
+            this.targets = targets;
+            this.targetsWildcard = targetsWildcard;
+        }
+
+        /**
+         * Reads one grant and returns true if it implies the permission. Always leaves the buffer after the grant.
+         */
+        boolean matches(ByteBuffer in) {
+            int grantDomain = readVarint(in);
+            boolean domainImplied = grantDomain == wildcard || (domain != wildcard && grantDomain == domain);
+            boolean actionsImplied = levelImplied(in, actions, actionsWildcard);
+            boolean targetsImplied = levelImplied(in, targets, targetsWildcard);
+            return domainImplied && actionsImplied && targetsImplied;
+        }
+
+        private boolean levelImplied(ByteBuffer in, int[] query, boolean queryWildcard) {
+            int header = readVarint(in);
+            int n = header >>> 1;
+            boolean grantWildcard = false;
+            int matched = 0;
+
+            if ((header & 1) == GrantSetCodec.FORM_BITSET) {
+                int start = in.position();
+                in.position(start + n * 8);
+                grantWildcard = isSet(in, start, n, wildcard);
+                for (int id : query) {
+                    matched += isSet(in, start, n, id) ? 1 : 0;
+                }
+            } else {
+                if (n == 0) {
+                    // an undefined level of the grant implies anything
+                    return true;
+                }
+
+                int id = 0;
+                int next = 0;
+                for (int x = 0; x < n; x++) {
+                    id += readVarint(in);
+                    grantWildcard = grantWildcard || id == wildcard;
+                    while (next < query.length && query[next] < id) {
+                        next++;
+                    }
+                    if (next < query.length && query[next] == id) {
+                        matched++;
+                        next++;
+                    }
+                }
+            }
+
+            // a level the grant restricts is only implied by a defined, non-wildcard level of contained values
+            return grantWildcard || (query.length > 0 && !queryWildcard && matched == query.length);
+        }
+
+        private static boolean isSet(ByteBuffer in, int start, int words, int id) {
+            return id >= 0 && id / Long.SIZE < words && (in.getLong(start + (id / Long.SIZE) * 8) & (1L << (id % Long.SIZE))) != 0;
+        }
+    }
+}
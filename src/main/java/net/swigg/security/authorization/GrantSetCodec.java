@@ -0,0 +1,374 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Binary form of the grants of a single principal identity, as kept by {@link OffHeapGrantStore}, in permission
+ * snapshot files and in {@link EncodedGrantSet}s. The first byte is the format version; {@link #decode(ByteBuffer)}
+ * reads every version, {@link #encode(String, Collection)} writes the current one.
+ * <p/>
+ * Version 1 layout, all integers big endian:
+ * <pre>
+ * byte    version (1)
+ * string  principal identity
+ * int     number of grants
+ * grant*  string domain, int number of actions, string action*, int number of targets, string target*
+ * </pre>
+ * where a string is an int byte length followed by its UTF-8 bytes.
+ * <p/>
+ * Version 2 layout, with unsigned LEB128 varints:
+ * <pre>
+ * byte    version (2)
+ * varint  principal identity byte length, UTF-8 bytes
+ * varint  number of symbols
+ * symbol* varint byte length, UTF-8 bytes
+ * varint  number of grants
+ * grant*  varint domain symbol, level actions, level targets
+ * </pre>
+ * Every distinct string of the set is a symbol and stored once; actions come first so their ids stay small. A level
+ * starts with a varint {@code n << 1 | form}. Form 0 is followed by {@code n} ascending symbol ids, each stored as the
+ * difference to the previous one, and {@code n == 0} marks an undefined level. Form 1 is followed by {@code n} longs of
+ * a bitset over the symbol ids; it is used when it is the smaller of the two.
+ *
+ * @author Dustin Sweigart <dustin@swigg.net>
+ */
+public final class GrantSetCodec {
+    public static final byte VERSION_1 = 1;
+
+    public static final byte VERSION_2 = 2;
+
+    /**
+     * version written by {@link #encode(String, Collection)}
+     */
+    public static final byte VERSION = VERSION_2;
+
+    static final int FORM_IDS = 0;
+
+    static final int FORM_BITSET = 1;
+
+    private GrantSetCodec() {
+    }
+
+    /**
+     * @param principalIdentity
+     * @param grants grants of the principal identity
+     * @return
+     */
+    public static byte[] encode(String principalIdentity, Collection<? extends DATPermission> grants) {
+        return encode(principalIdentity, grants, VERSION);
+    }
+
+    /**
+     * @param principalIdentity
+     * @param grants grants of the principal identity
+     * @param version {@link #VERSION_1} or {@link #VERSION_2}
+     * @return
+     */
+    public static byte[] encode(String principalIdentity, Collection<? extends DATPermission> grants, byte version) {
+        checkArgument(version == VERSION_1 || version == VERSION_2, "Unsupported grant set version %s.", version);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + 16 * grants.size());
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(version);
+            if (version == VERSION_1) {
+                encodeV1(out, principalIdentity, grants);
+            } else {
+                encodeV2(out, principalIdentity, grants);
+            }
+        } catch (IOException e) {
+            // a ByteArrayOutputStream does not throw
+            throw new IllegalStateException(e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes a grant set starting at the buffer's position. The buffer's position is advanced past the grant set.
+     *
+     * @param buffer
+     * @return immutable grants
+     */
+    public static Set<DATPermission> decode(ByteBuffer buffer) {
+        byte version = buffer.get();
+        if (version == VERSION_1) {
+            return decodeV1(buffer);
+        }
+
+        checkArgument(version == VERSION_2, "Unsupported grant set version %s.", version);
+        String principalIdentity = readString(buffer, readVarint(buffer));
+        String[] symbols = new String[readVarint(buffer)];
+        for (int x = 0; x < symbols.length; x++) {
+            symbols[x] = readString(buffer, readVarint(buffer));
+        }
+
+        int count = readVarint(buffer);
+        ImmutableSet.Builder<DATPermission> grants = ImmutableSet.builder();
+        for (int x = 0; x < count; x++) {
+            String domain = symbols[readVarint(buffer)];
+            List<String> actions = readLevel(buffer, symbols);
+            List<String> targets = readLevel(buffer, symbols);
+            grants.add(new ImmutableDATPermission(principalIdentity, domain, actions, targets));
+        }
+
+        return grants.build();
+    }
+
+    /**
+     * Compares the principal identity of an encoded grant set without decoding it.
+     *
+     * @param buffer
+     * @param offset start of the grant set
+     * @param principalIdentity UTF-8 bytes of the principal identity
+     * @return
+     */
+    public static boolean hasPrincipalIdentity(ByteBuffer buffer, int offset, byte[] principalIdentity) {
+        if (buffer.get(offset) != VERSION_1) {
+            return hasBytes(buffer, offset + 1, principalIdentity);
+        }
+
+        if (buffer.getInt(offset + 1) != principalIdentity.length) {
+            return false;
+        }
+
+        return equalBytes(buffer, offset + 5, principalIdentity);
+    }
+
+    /**
+     * @param buffer
+     * @param offset start of a varint length prefixed string
+     * @param bytes
+     * @return true if the string has exactly the bytes
+     */
+    static boolean hasBytes(ByteBuffer buffer, int offset, byte[] bytes) {
+        ByteBuffer in = buffer.duplicate();
+        in.position(offset);
+        return readVarint(in) == bytes.length && equalBytes(buffer, in.position(), bytes);
+    }
+
+    private static boolean equalBytes(ByteBuffer buffer, int position, byte[] bytes) {
+        for (int x = 0; x < bytes.length; x++) {
+            if (buffer.get(position + x) != bytes[x]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static void encodeV1(DataOutputStream out, String principalIdentity, Collection<? extends DATPermission> grants) throws IOException {
+        writeString(out, principalIdentity);
+        out.writeInt(grants.size());
+        for (DATPermission grant : grants) {
+            writeString(out, grant.getDomain());
+            out.writeInt(grant.getActions().size());
+            for (String action : grant.getActions()) {
+                writeString(out, action);
+            }
+            out.writeInt(grant.getTargets().size());
+            for (String target : grant.getTargets()) {
+                writeString(out, target);
+            }
+        }
+    }
+
+    private static void encodeV2(DataOutputStream out, String principalIdentity, Collection<? extends DATPermission> grants) throws IOException {
+        // actions first, they are the levels that are most likely to be written as bitsets
+        Map<String, Integer> symbols = Maps.newLinkedHashMap();
+        for (DATPermission grant : grants) {
+            intern(symbols, grant.getActions());
+        }
+        for (DATPermission grant : grants) {
+            intern(symbols, ImmutableSet.of(grant.getDomain()));
+        }
+        for (DATPermission grant : grants) {
+            intern(symbols, grant.getTargets());
+        }
+
+        writeVarintString(out, principalIdentity);
+        writeVarint(out, symbols.size());
+        for (String symbol : symbols.keySet()) {
+            writeVarintString(out, symbol);
+        }
+
+        writeVarint(out, grants.size());
+        for (DATPermission grant : grants) {
+            writeVarint(out, symbols.get(grant.getDomain()));
+            writeLevel(out, symbols, grant.getActions());
+            writeLevel(out, symbols, grant.getTargets());
+        }
+    }
+
+    private static void intern(Map<String, Integer> symbols, Collection<String> values) {
+        for (String value : values) {
+            if (!symbols.containsKey(value)) {
+                symbols.put(value, symbols.size());
+            }
+        }
+    }
+
+    private static void writeLevel(DataOutputStream out, Map<String, Integer> symbols, Collection<String> values) throws IOException {
+        int[] ids = new int[values.size()];
+        int x = 0;
+        for (String value : values) {
+            ids[x++] = symbols.get(value);
+        }
+        Arrays.sort(ids);
+
+        int idBytes = 0;
+        int previous = 0;
+        for (int id : ids) {
+            idBytes += varintSize(id - previous);
+            previous = id;
+        }
+
+        int words = ids.length > 0 ? ids[ids.length - 1] / Long.SIZE + 1 : 0;
+        if (ids.length > 0 && words * 8 < idBytes) {
+            long[] bits = new long[words];
+            for (int id : ids) {
+                bits[id / Long.SIZE] |= 1L << (id % Long.SIZE);
+            }
+
+            writeVarint(out, words << 1 | FORM_BITSET);
+            for (long word : bits) {
+                out.writeLong(word);
+            }
+        } else {
+            writeVarint(out, ids.length << 1 | FORM_IDS);
+            previous = 0;
+            for (int id : ids) {
+                writeVarint(out, id - previous);
+                previous = id;
+            }
+        }
+    }
+
+    private static List<String> readLevel(ByteBuffer buffer, String[] symbols) {
+        int header = readVarint(buffer);
+        int n = header >>> 1;
+        List<String> values = Lists.newArrayList();
+        if ((header & 1) == FORM_BITSET) {
+            for (int word = 0; word < n; word++) {
+                long bits = buffer.getLong();
+                while (bits != 0) {
+                    values.add(symbols[word * Long.SIZE + Long.numberOfTrailingZeros(bits)]);
+                    bits &= bits - 1;
+                }
+            }
+        } else {
+            int id = 0;
+            for (int x = 0; x < n; x++) {
+                id += readVarint(buffer);
+                values.add(symbols[id]);
+            }
+        }
+
+        return values;
+    }
+
+    private static Set<DATPermission> decodeV1(ByteBuffer buffer) {
+        String principalIdentity = readString(buffer, buffer.getInt());
+        int count = buffer.getInt();
+        ImmutableSet.Builder<DATPermission> grants = ImmutableSet.builder();
+        for (int x = 0; x < count; x++) {
+            String domain = readString(buffer, buffer.getInt());
+            List<String> actions = readStrings(buffer);
+            List<String> targets = readStrings(buffer);
+            grants.add(new ImmutableDATPermission(principalIdentity, domain, actions, targets));
+        }
+
+        return grants.build();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(Charsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeVarintString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(Charsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static List<String> readStrings(ByteBuffer buffer) {
+        int count = buffer.getInt();
+        List<String> values = Lists.newArrayListWithCapacity(count);
+        for (int x = 0; x < count; x++) {
+            values.add(readString(buffer, buffer.getInt()));
+        }
+
+        return values;
+    }
+
+    static String readString(ByteBuffer buffer, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, Charsets.UTF_8);
+    }
+
+    static void writeVarint(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarint(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < Integer.SIZE; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+
+        throw new IllegalArgumentException("Malformed varint.");
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+
+        return size;
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.SetMultimap;
+import com.google.common.collect.Sets;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Immutable closure index of identities that inherit other identities, e.g. a role that inherits the grants of another
+ * role or a group nested in a group. The transitive closure is computed once when the hierarchy is built, so expanding
+ * the identities of a subject is a single map lookup per identity no matter how deep the hierarchy is.
+ * <p/>
+ * Cycles are allowed; every identity in a cycle inherits every other identity in it. To change the hierarchy build a
+ * new one and hand it to {@link AuthorizingRealm#setIdentityHierarchy(IdentityHierarchy)}.
+ *
+ * @author Dustin Sweigart <dustin@swigg.net>
+ */
+public final class IdentityHierarchy {
+    public static final IdentityHierarchy EMPTY = new IdentityHierarchy(ImmutableMap.<String, ImmutableSet<String>>of());
+
+    /**
+     * every identity that inherits something, mapped to the identities it inherits directly or indirectly
+     */
+    private final ImmutableMap<String, ImmutableSet<String>> closure;
+
+    private IdentityHierarchy(ImmutableMap<String, ImmutableSet<String>> closure) {
+        this.closure = closure;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @param identity
+     * @return the identities inherited by the identity, not including the identity itself
+     */
+    public ImmutableSet<String> inheritedBy(String identity) {
+        ImmutableSet<String> inherited = closure.get(identity);
+        return inherited != null ? inherited : ImmutableSet.<String>of();
+    }
+
+    /**
+     * Returns the identities together with every identity they inherit. The given identities are kept as they are,
+     * inherited identities are added as {@link SimplePrincipalIdentity}s.
+     *
+     * @param identities
+     * @return
+     */
+    public Collection<PrincipalIdentity> expand(Collection<PrincipalIdentity> identities) {
+        if (closure.isEmpty()) {
+            return identities;
+        }
+
+        Map<String, PrincipalIdentity> expanded = Maps.newLinkedHashMap();
+        for (PrincipalIdentity identity : identities) {
+            expanded.put(identity.getPrincipalIdentity(), identity);
+        }
+
+        for (PrincipalIdentity identity : identities) {
+            for (String inherited : inheritedBy(identity.getPrincipalIdentity())) {
+                if (!expanded.containsKey(inherited)) {
+                    expanded.put(inherited, new SimplePrincipalIdentity(inherited));
+                }
+            }
+        }
+
+        return expanded.size() == identities.size() ? identities : Lists.newArrayList(expanded.values());
+    }
+
+    /**
+     * @return the number of identities that inherit at least one other identity
+     */
+    public int size() {
+        return closure.size();
+    }
+
+    public static final class Builder {
+        private final SetMultimap<String, String> parents = HashMultimap.create();
+
+        private Builder() {
+        }
+
+        /**
+         * Records that an identity directly inherits the given identities.
+         *
+         * @param identity
+         * @param inherited
+         * @return
+         */
+        public Builder inherit(String identity, String... inherited) {
+            checkNotNull(identity);
+            for (String parent : inherited) {
+                if (!identity.equals(checkNotNull(parent))) {
+                    parents.put(identity, parent);
+                }
+            }
+
+            return this;
+        }
+
+        public Builder inherit(PrincipalIdentity identity, PrincipalIdentity... inherited) {
+            for (PrincipalIdentity parent : inherited) {
+                inherit(identity.getPrincipalIdentity(), parent.getPrincipalIdentity());
+            }
+
+            return this;
+        }
+
+        public IdentityHierarchy build() {
+            Map<String, ImmutableSet<String>> closure = Maps.newHashMap();
+            for (String identity : parents.keySet()) {
+                closure.put(identity, close(identity, closure));
+            }
+
+            return new IdentityHierarchy(ImmutableMap.copyOf(closure));
+        }
+
+        /**
+         * Walks the inherited identities breadth first. Identities whose closure is already known contribute that
+         * closure without being walked again; identities in a cycle are never complete when they are reached, so
+         * they are walked and the visited set ends the cycle.
+         */
+        private ImmutableSet<String> close(String identity, Map<String, ImmutableSet<String>> closure) {
+            Set<String> reached = Sets.newLinkedHashSet();
+            Deque<String> queue = new ArrayDeque<String>(parents.get(identity));
+            while (!queue.isEmpty()) {
+                String next = queue.poll();
+                if (!reached.add(next)) {
+                    continue;
+                }
+
+                ImmutableSet<String> known = closure.get(next);
+                if (known != null) {
+                    reached.addAll(known);
+                } else {
+                    queue.addAll(parents.get(next));
+                }
+            }
+
+            reached.remove(identity);
+            return ImmutableSet.copyOf(reached);
+        }
+    }
+}
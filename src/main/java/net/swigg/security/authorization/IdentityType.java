@@ -0,0 +1,187 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.Maps;
+
+import java.util.concurrent.ConcurrentMap;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A type of numeric principal identity, e.g. accounts identified as {@code "account:<id>"}. A type code and an id are
+ * packed into a single {@code long} key: the code in the upper 16 bits and the id in the lower 48, so keys are
+ * positive, never {@link #NO_KEY} and order by type first.
+ * <p/>
+ * Types are registered once per JVM with a code that must stay the same across releases, since keys are persisted.
+ * Register them before grants of the type are stored or fetched (e.g. from a static initializer of the identity
+ * class), otherwise their string forms can not be recognised.
+ *
+ * @author Dustin Sweigart <dustin@swigg.net>
+ */
+public final class IdentityType {
+    /**
+     * key of identities that are not typed
+     */
+    public static final long NO_KEY = 0L;
+
+    public static final int MAX_CODE = (1 << 15) - 1;
+
+    public static final long MAX_ID = (1L << 48) - 1;
+
+    private static final ConcurrentMap<Integer, IdentityType> BY_CODE = Maps.newConcurrentMap();
+
+    private static final ConcurrentMap<String, IdentityType> BY_PREFIX = Maps.newConcurrentMap();
+
+    private final int code;
+
+    private final String prefix;
+
+    private IdentityType(int code, String prefix) {
+        this.code = code;
+        this.prefix = prefix;
+    }
+
+    /**
+     * Registers a type, or returns the registered one if the same code and prefix were registered before.
+     *
+     * @param code between 1 and {@link #MAX_CODE}
+     * @param prefix the string form of an identity of this type without its id, e.g. {@code "account:"}
+     * @return
+     */
+    public static synchronized IdentityType register(int code, String prefix) {
+        checkArgument(code > 0 && code <= MAX_CODE, "Code must be between 1 and %s.", MAX_CODE);
+        checkArgument(!checkNotNull(prefix).isEmpty() && !isDigit(prefix.charAt(prefix.length() - 1)),
+                "Prefix must not be empty or end with a digit.");
+
+        IdentityType existing = BY_CODE.get(code);
+        if (existing != null || BY_PREFIX.containsKey(prefix)) {
+            checkArgument(existing != null && existing.prefix.equals(prefix),
+                    "Code %s or prefix '%s' is already registered to another type.", code, prefix);
+            return existing;
+        }
+
+        IdentityType type = new IdentityType(code, prefix);
+        BY_CODE.put(code, type);
+        BY_PREFIX.put(prefix, type);
+        return type;
+    }
+
+    /**
+     * @param code
+     * @return the registered type, or null
+     */
+    public static IdentityType forCode(int code) {
+        return BY_CODE.get(code);
+    }
+
+    public static long key(int code, long id) {
+        checkArgument(code > 0 && code <= MAX_CODE, "Code must be between 1 and %s.", MAX_CODE);
+        checkArgument(id >= 0 && id <= MAX_ID, "Id must be between 0 and %s.", MAX_ID);
+        return ((long) code << 48) | id;
+    }
+
+    public static int codeOf(long key) {
+        return (int) (key >>> 48);
+    }
+
+    public static long idOf(long key) {
+        return key & MAX_ID;
+    }
+
+    /**
+     * Returns the key of an identity: {@link TypedIdentity}s are packed directly, others are parsed from their string
+     * form. Unlike {@link #key(int, long)} this never throws, it is used on the check path.
+     *
+     * @param identity
+     * @return the key, or {@link #NO_KEY} if the identity is not of a registered type or its code or id can not be
+     * packed (e.g. an entity that has no id yet)
+     */
+    public static long keyOf(PrincipalIdentity identity) {
+        if (TypedIdentity.class.isInstance(identity)) {
+            TypedIdentity typed = TypedIdentity.class.cast(identity);
+            int code = typed.getIdentityType();
+            long id = typed.getIdentityId();
+            return code > 0 && code <= MAX_CODE && id >= 0 && id <= MAX_ID ? key(code, id) : NO_KEY;
+        }
+
+        return parse(identity.getPrincipalIdentity());
+    }
+
+    /**
+     * Parses the string form of an identity. Only the canonical form is recognised, ids with leading zeros are not,
+     * so every key has exactly one string form.
+     *
+     * @param principalIdentity
+     * @return the key, or {@link #NO_KEY} if the identity is not of a registered type
+     */
+    public static long parse(String principalIdentity) {
+        if (principalIdentity == null || BY_PREFIX.isEmpty()) {
+            return NO_KEY;
+        }
+
+        int start = principalIdentity.length();
+        while (start > 0 && isDigit(principalIdentity.charAt(start - 1))) {
+            start--;
+        }
+
+        int digits = principalIdentity.length() - start;
+        if (digits == 0 || digits > 15 || (digits > 1 && principalIdentity.charAt(start) == '0')) {
+            return NO_KEY;
+        }
+
+        IdentityType type = BY_PREFIX.get(principalIdentity.substring(0, start));
+        long id = Long.parseLong(principalIdentity.substring(start));
+        return type != null && id <= MAX_ID ? key(type.code, id) : NO_KEY;
+    }
+
+    /**
+     * @param key
+     * @return the string form of a key, or null if its type is not registered
+     */
+    public static String identityOf(long key) {
+        IdentityType type = BY_CODE.get(codeOf(key));
+        return type != null ? type.format(idOf(key)) : null;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    public String format(long id) {
+        return prefix + id;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("code", code)
+                .add("prefix", prefix)
+                .toString();
+    }
+}
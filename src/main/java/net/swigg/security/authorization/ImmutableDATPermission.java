@@ -0,0 +1,135 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import java.util.Collection;
+
+/**
+ * {@link DATPermission} that can not be modified once it has been constructed. Instances are safe to share between
+ * threads and are what {@link DATPermissionResolver} hands out from its cache. They are not persistable; use a regular
+ * {@link DATPermission} to store grants.
+ *
+ * @author Dustin Sweigart <dustin@swigg.net>
+ */
+public final class ImmutableDATPermission extends DATPermission {
+    /**
+     * set once the constructor has finished, the superclass constructors are still allowed to call the setters
+     */
+    private final boolean constructed;
+
+    public ImmutableDATPermission(String permission) {
+        super(permission);
+        this.constructed = true;
+    }
+
+    private ImmutableDATPermission(String permission, boolean query) {
+        super(permission, query);
+        this.constructed = true;
+    }
+
+    /**
+     * Creates a permission that is only checked against grants, see {@link #isQuery()}.
+     *
+     * @param permission
+     * @return
+     */
+    public static ImmutableDATPermission forQuery(String permission) {
+        return new ImmutableDATPermission(permission, true);
+    }
+
+    public ImmutableDATPermission(String domain, Collection<String> actions, Collection<String> targets) {
+        super(domain, actions, targets);
+        this.constructed = true;
+    }
+
+    private ImmutableDATPermission(String domain, Collection<String> actions, Collection<String> targets, boolean query) {
+        super(query, domain, actions, targets);
+        this.constructed = true;
+    }
+
+    /**
+     * Creates a permission that is only checked against grants, see {@link #isQuery()}.
+     *
+     * @param domain
+     * @param actions
+     * @param targets
+     * @return
+     */
+    public static ImmutableDATPermission forQuery(String domain, Collection<String> actions, Collection<String> targets) {
+        return new ImmutableDATPermission(domain, actions, targets, true);
+    }
+
+    public ImmutableDATPermission(String principalIdentity, String domain, Collection<String> actions, Collection<String> targets) {
+        super(principalIdentity, domain, actions, targets);
+        this.constructed = true;
+    }
+
+    @Override
+    public void setId(Long id) {
+        checkMutable();
+        super.setId(id);
+    }
+
+    @Override
+    public void setPrincipalIdentity(String principalIdentity) {
+        checkMutable();
+        super.setPrincipalIdentity(principalIdentity);
+    }
+
+    @Override
+    protected void setDomain(String domain) {
+        checkMutable();
+        super.setDomain(domain);
+    }
+
+    @Override
+    public DATPermission setActions(Collection<String> actions) {
+        checkMutable();
+        return super.setActions(actions);
+    }
+
+    @Override
+    public DATPermission setActions(String... actions) {
+        checkMutable();
+        return super.setActions(actions);
+    }
+
+    @Override
+    public DATPermission setTargets(Collection<String> targets) {
+        checkMutable();
+        return super.setTargets(targets);
+    }
+
+    @Override
+    public DATPermission setTargets(String... targets) {
+        checkMutable();
+        return super.setTargets(targets);
+    }
+
+    @Override
+    public DATPermission setTargets(TargetIdentity... targets) {
+        checkMutable();
+        return super.setTargets(targets);
+    }
+
+    private void checkMutable() {
+        if (constructed) {
+            throw new UnsupportedOperationException("ImmutableDATPermission can not be modified.");
+        }
+    }
+}
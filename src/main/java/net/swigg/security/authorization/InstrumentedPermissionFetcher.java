@@ -0,0 +1,58 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import org.apache.shiro.authz.Permission;
+
+import java.util.Collection;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * {@link PermissionFetcher} that records the count, returned rows and latency of every fetch of another fetcher in
+ * {@link AuthorizationMetrics}. Wrap the fetcher closest to the database to see what actually reaches it.
+ *
+ * @author Dustin Sweigart <dustin@swigg.net>
+ */
+public class InstrumentedPermissionFetcher implements PermissionFetcher {
+    private final PermissionFetcher permissionFetcher;
+
+    private final AuthorizationMetrics metrics;
+
+    public InstrumentedPermissionFetcher(PermissionFetcher permissionFetcher, AuthorizationMetrics metrics) {
+        this.permissionFetcher = checkNotNull(permissionFetcher);
+        this.metrics = checkNotNull(metrics);
+    }
+
+    @Override
+    public Set<? extends Permission> fetchPermissions(Collection<PrincipalIdentity> identities, Permission... permissions) {
+        long start = System.nanoTime();
+        Set<? extends Permission> result = permissionFetcher.fetchPermissions(identities, permissions);
+        metrics.recordFetch(result.size(), System.nanoTime() - start);
+        return result;
+    }
+
+    public PermissionFetcher getPermissionFetcher() {
+        return permissionFetcher;
+    }
+
+    public AuthorizationMetrics getMetrics() {
+        return metrics;
+    }
+}
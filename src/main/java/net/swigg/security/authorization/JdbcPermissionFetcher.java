@@ -0,0 +1,182 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.apache.shiro.authz.Permission;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.sql.DataSource;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * {@link PermissionFetcher} that reads the {@link DATPermission} tables with plain JDBC and projects the rows straight
+ * into {@link ImmutableDATPermission}s. Nothing is loaded into, or dirty checked by, a persistence context.
+ * <p/>
+ * A fetch takes two queries: one selecting the matching permission rows, and one selecting their actions and targets
+ * as a union, so rows are not multiplied out as actions times targets. The queries use the table and column names
+ * that the {@link DATPermission} mapping produces. Since they bypass the {@link javax.persistence.EntityManager},
+ * changes that have not been flushed yet are not seen.
+ *
+ * @author Dustin Sweigart <dustin@swigg.net>
+ */
+public class JdbcPermissionFetcher implements PermissionFetcher {
+    /**
+     * maximum number of permission ids bound to a single IN list
+     */
+    static final int BATCH_SIZE = 500;
+
+    private static final String SELECT_PERMISSIONS = "select p.id, p.principal_identity, p.domain from datpermission p"
+            + " where p.principal_identity in (:identities)";
+
+    private static final String SELECT_VALUES = "select a.permission_id, 'A', a.name from permission_action a"
+            + " where a.permission_id in (:ids)"
+            + " union all"
+            + " select t.permission_id, 'T', t.targets from permission_target t"
+            + " where t.permission_id in (:ids)";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    public JdbcPermissionFetcher(final DataSource dataSource) {
+        this.jdbcTemplate = new NamedParameterJdbcTemplate(dataSource);
+    }
+
+    @Transactional(readOnly = true)
+    public Set<? extends Permission> fetchPermissions(Collection<PrincipalIdentity> identities, Permission... permissions) {
+        if (identities.isEmpty()) {
+            // without an identity predicate the query would return every permission
+            return Collections.emptySet();
+        }
+
+        Set<String> principalIdentities = Sets.newHashSet();
+        for (PrincipalIdentity identity : identities) {
+            principalIdentities.add(identity.getPrincipalIdentity());
+        }
+
+        MapSqlParameterSource parameters = new MapSqlParameterSource("identities", principalIdentities);
+        String sql = SELECT_PERMISSIONS + scope(parameters, permissions);
+
+        final Map<Long, Row> rows = Maps.newLinkedHashMap();
+        jdbcTemplate.query(sql, parameters, new RowCallbackHandler() {
+            @Override
+            public void processRow(ResultSet rs) throws SQLException {
+                rows.put(rs.getLong(1), new Row(rs.getString(2), rs.getString(3)));
+            }
+        });
+
+        for (List<Long> ids : Iterables.partition(rows.keySet(), BATCH_SIZE)) {
+            jdbcTemplate.query(SELECT_VALUES, new MapSqlParameterSource("ids", ids), new RowCallbackHandler() {
+                @Override
+                public void processRow(ResultSet rs) throws SQLException {
+                    Row row = rows.get(rs.getLong(1));
+                    if ("A".equals(rs.getString(2))) {
+                        row.actions.add(rs.getString(3));
+                    } else {
+                        row.targets.add(rs.getString(3));
+                    }
+                }
+            });
+        }
+
+        Set<Permission> permissionSet = Sets.newHashSetWithExpectedSize(rows.size());
+        for (Row row : rows.values()) {
+            permissionSet.add(new ImmutableDATPermission(row.principalIdentity, row.domain, row.actions, row.targets));
+        }
+
+        return permissionSet;
+    }
+
+    /**
+     * Builds the predicate limiting the permission rows to those that may imply one of the permissions. A grant without
+     * actions or targets has a wildcard for that level and is always included.
+     *
+     * @param parameters receives the parameters of the predicate
+     * @param permissions
+     * @return
+     */
+    private static String scope(MapSqlParameterSource parameters, Permission... permissions) {
+        List<String> permScopeExpr = Lists.newArrayList();
+        for (Permission permission : permissions) {
+            if (!DATPermission.class.isInstance(permission)) {
+                // other permissions can not be narrowed down, so every permission of the identities is read
+                return "";
+            }
+
+            DATPermission queryPermission = DATPermission.class.cast(permission);
+            int x = permScopeExpr.size();
+            StringBuilder permExpression = new StringBuilder("p.domain in (:domain").append(x).append(", '*')");
+            parameters.addValue("domain" + x, queryPermission.getDomain());
+
+            if (!queryPermission.getActions().isEmpty()) {
+                permExpression.append(" and (not exists (select 1 from permission_action a where a.permission_id = p.id)")
+                        .append(" or exists (select 1 from permission_action a where a.permission_id = p.id")
+                        .append(" and a.name in (:actions").append(x).append(")))");
+                parameters.addValue("actions" + x, withWildcard(queryPermission.getActions()));
+            }
+
+            if (!queryPermission.getTargets().isEmpty()) {
+                permExpression.append(" and (not exists (select 1 from permission_target t where t.permission_id = p.id)")
+                        .append(" or exists (select 1 from permission_target t where t.permission_id = p.id")
+                        .append(" and t.targets in (:targets").append(x).append(")))");
+                parameters.addValue("targets" + x, withWildcard(queryPermission.getTargets()));
+            }
+
+            permScopeExpr.add(permExpression.toString());
+        }
+
+        if (permScopeExpr.isEmpty()) {
+            return "";
+        }
+
+        StringBuilder where = new StringBuilder(" and (");
+        for (int x = 0; x < permScopeExpr.size(); x++) {
+            where.append(x > 0 ? " or (" : "(").append(permScopeExpr.get(x)).append(")");
+        }
+
+        return where.append(")").toString();
+    }
+
+    private static Set<String> withWildcard(Set<String> values) {
+        Set<String> result = Sets.newHashSet(values);
+        result.add(WildcardPermission.WILDCARD);
+        return result;
+    }
+
+    private static final class Row {
+        final String principalIdentity;
+
+        final String domain;
+
+        final Set<String> actions = Sets.newHashSet();
+
+        final Set<String> targets = Sets.newHashSet();
+
+        Row(String principalIdentity, String domain) {
+            this.principalIdentity = principalIdentity;
+            this.domain = domain;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Sets;
+import com.google.common.io.Closeables;
+import org.apache.shiro.authz.Permission;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * {@link PermissionFetcher} that answers from a snapshot file written by {@link PermissionSnapshotExporter}. The file is
+ * mapped read-only, so its pages are shared by every JVM on the host that maps it. Grant sets are evaluated in place as
+ * {@link EncodedGrantSet}s and only the grants that are returned are copied onto the heap.
+ * <p/>
+ * Identities are found by a binary search over the sorted hash index of the file. Call {@link #reload()} after a new
+ * snapshot has been exported to map the new file; readers of the old mapping are not disturbed.
+ *
+ * @author Dustin Sweigart <dustin@swigg.net>
+ */
+public class MappedPermissionFetcher implements PermissionFetcher {
+    static private final Logger LOGGER = LoggerFactory.getLogger(MappedPermissionFetcher.class);
+
+    private final File file;
+
+    private final AtomicReference<ByteBuffer> mapping = new AtomicReference<ByteBuffer>();
+
+    /**
+     * Maps the snapshot file.
+     *
+     * @param file
+     * @throws IOException if the file can not be read or is not a snapshot file
+     */
+    public MappedPermissionFetcher(File file) throws IOException {
+        this.file = checkNotNull(file);
+        reload();
+    }
+
+    @Override
+    public Set<? extends Permission> fetchPermissions(Collection<PrincipalIdentity> identities, Permission... permissions) {
+        ByteBuffer buffer = mapping.get();
+        int count = buffer.getInt(8);
+
+        Set<Permission> result = Sets.newHashSet();
+        for (PrincipalIdentity identity : identities) {
+            int offset = find(buffer, count, identity.getPrincipalIdentity());
+            if (offset >= 0) {
+                ByteBuffer set = buffer.duplicate();
+                set.position(offset + 4);
+                result.addAll(EncodedGrantSet.wrap(set).findImplying(permissions));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Maps the file again, e.g. after a new snapshot has been exported.
+     *
+     * @throws IOException if the file can not be read or is not a snapshot file
+     */
+    public synchronized void reload() throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot " + file + " is larger than 2GB.");
+            }
+
+            // the mapping stays valid after the channel has been closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.limit() < PermissionSnapshotExporter.HEADER_SIZE || buffer.getInt(0) != PermissionSnapshotExporter.MAGIC) {
+                throw new IOException(file + " is not a permission snapshot.");
+            }
+            if (buffer.getInt(4) != PermissionSnapshotExporter.VERSION) {
+                throw new IOException("Unsupported permission snapshot version " + buffer.getInt(4) + " in " + file + ".");
+            }
+
+            mapping.set(buffer);
+            LOGGER.info("Mapped permission snapshot {} with {} principal identities", file, buffer.getInt(8));
+        } finally {
+            Closeables.close(randomAccessFile, true);
+        }
+    }
+
+    /**
+     * @return the number of principal identities in the mapped snapshot
+     */
+    public int size() {
+        return mapping.get().getInt(8);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the offset of the grant set of the principal identity, or -1 if the snapshot does not contain it
+     */
+    private static int find(ByteBuffer buffer, int count, String principalIdentity) {
+        long hash = PermissionSnapshotExporter.hash(principalIdentity);
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long candidate = buffer.getLong(entry(middle));
+            if (candidate < hash) {
+                low = middle + 1;
+            } else if (candidate > hash) {
+                high = middle - 1;
+            } else {
+                // walk back to the first entry with this hash, then check every entry that shares it
+                while (middle > 0 && buffer.getLong(entry(middle - 1)) == hash) {
+                    middle--;
+                }
+                byte[] identity = principalIdentity.getBytes(Charsets.UTF_8);
+                for (; middle < count && buffer.getLong(entry(middle)) == hash; middle++) {
+                    int offset = (int) buffer.getLong(entry(middle) + 8);
+                    if (GrantSetCodec.hasPrincipalIdentity(buffer, offset + 4, identity)) {
+                        return offset;
+                    }
+                }
+
+                return -1;
+            }
+        }
+
+        return -1;
+    }
+
+    private static int entry(int index) {
+        return PermissionSnapshotExporter.HEADER_SIZE + index * PermissionSnapshotExporter.INDEX_ENTRY_SIZE;
+    }
+}
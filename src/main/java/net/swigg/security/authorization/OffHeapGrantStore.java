@@ -0,0 +1,345 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import com.google.common.collect.Lists;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Maps {@link IdentityType} keys to the grants of their principal identity, encoded with {@link GrantSetCodec} in
+ * direct (off-heap) {@link ByteBuffer}s, so millions of grant sets cost the garbage collector a few arrays instead of
+ * millions of objects.
+ * <p/>
+ * The keys are kept in an open addressing table of primitive {@code long}s with linear probing; {@link
+ * IdentityType#NO_KEY} marks a free slot and removals shift the following entries back instead of leaving tombstones.
+ * Encoded grant sets are appended to fixed-size slabs. Replaced and removed sets leave garbage behind, which is
+ * reclaimed by copying the live sets into new slabs once there is more garbage than live data.
+ * <p/>
+ * Readers share a read lock, writers take the write lock. Decoded grants are {@link ImmutableDATPermission}s.
+ *
+ * @author Dustin Sweigart <dustin@swigg.net>
+ */
+public class OffHeapGrantStore {
+    static private final Logger LOGGER = LoggerFactory.getLogger(OffHeapGrantStore.class);
+
+    private static final int LENGTH_PREFIX = 4;
+
+    private final int slabSize;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private long[] keys;
+
+    /**
+     * slab index in the upper and offset in the lower 32 bits, per slot of {@link #keys}
+     */
+    private long[] refs;
+
+    private int size;
+
+    private List<ByteBuffer> slabs = Lists.newArrayList();
+
+    private long liveBytes;
+
+    private long garbageBytes;
+
+    public OffHeapGrantStore() {
+        this(1024, 16 << 20);
+    }
+
+    /**
+     * @param expectedPrincipals number of grant sets the table is sized for before it has to grow
+     * @param slabSize size in bytes of each off-heap slab
+     */
+    public OffHeapGrantStore(int expectedPrincipals, int slabSize) {
+        checkArgument(expectedPrincipals > 0, "Expected principals must be positive.");
+        checkArgument(slabSize > LENGTH_PREFIX, "Slab size must be larger than %s.", LENGTH_PREFIX);
+
+        int capacity = Integer.highestOneBit(Math.max(expectedPrincipals * 2 - 1, 1)) << 1;
+        this.keys = new long[capacity];
+        this.refs = new long[capacity];
+        this.slabSize = slabSize;
+    }
+
+    /**
+     * @param key
+     * @return the grants stored for the key, or null if nothing is stored
+     */
+    public Set<DATPermission> get(long key) {
+        EncodedGrantSet grants = getEncoded(key);
+        return grants != null ? grants.getPermissions() : null;
+    }
+
+    /**
+     * Returns the grants stored for the key without decoding them. The view stays valid after the key has been
+     * replaced or removed, slabs are never overwritten.
+     *
+     * @param key
+     * @return the encoded grants, or null if nothing is stored
+     */
+    public EncodedGrantSet getEncoded(long key) {
+        lock.readLock().lock();
+        try {
+            int slot = find(key);
+            if (slot < 0) {
+                return null;
+            }
+
+            ByteBuffer buffer = slabs.get((int) (refs[slot] >>> 32)).duplicate();
+            buffer.position((int) refs[slot] + LENGTH_PREFIX);
+            return EncodedGrantSet.wrap(buffer);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Stores the grants of a principal identity, replacing what was stored for its key before. An empty collection is
+     * stored as well, so identities without grants are remembered.
+     *
+     * @param key
+     * @param principalIdentity
+     * @param grants
+     */
+    public void put(long key, String principalIdentity, Collection<? extends DATPermission> grants) {
+        checkArgument(key != IdentityType.NO_KEY, "Key must not be NO_KEY.");
+        byte[] encoded = GrantSetCodec.encode(principalIdentity, grants);
+
+        lock.writeLock().lock();
+        try {
+            int slot = find(key);
+            if (slot >= 0) {
+                release(refs[slot]);
+            } else {
+                if ((size + 1) * 2 > keys.length) {
+                    resize(keys.length * 2);
+                    slot = find(key);
+                }
+                slot = -slot - 1;
+                keys[slot] = key;
+                size++;
+            }
+
+            refs[slot] = append(encoded);
+            liveBytes += LENGTH_PREFIX + encoded.length;
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param key
+     * @return true if something was stored for the key
+     */
+    public boolean remove(long key) {
+        lock.writeLock().lock();
+        try {
+            int slot = find(key);
+            if (slot < 0) {
+                return false;
+            }
+
+            release(refs[slot]);
+            size--;
+            shiftBack(slot);
+            compactIfNeeded();
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            keys = new long[keys.length];
+            refs = new long[refs.length];
+            size = 0;
+            slabs = Lists.newArrayList();
+            liveBytes = 0;
+            garbageBytes = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of stored grant sets
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of off-heap bytes used by stored grant sets
+     */
+    public long getLiveBytes() {
+        lock.readLock().lock();
+        try {
+            return liveBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of off-heap bytes allocated for slabs
+     */
+    public long getAllocatedBytes() {
+        lock.readLock().lock();
+        try {
+            long allocated = 0;
+            for (ByteBuffer slab : slabs) {
+                allocated += slab.capacity();
+            }
+
+            return allocated;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param key
+     * @return the slot of the key, or -(insertion slot) - 1 if the key is not in the table
+     */
+    private int find(long key) {
+        int mask = keys.length - 1;
+        int slot = home(key, mask);
+        while (keys[slot] != IdentityType.NO_KEY) {
+            if (keys[slot] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        return -slot - 1;
+    }
+
+    private static int home(long key, int mask) {
+        // murmur3 finalizer, packed identity keys differ mostly in their low bits
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key & mask;
+    }
+
+    /**
+     * Frees a slot and moves back following entries that would otherwise no longer be reachable from their home slot.
+     */
+    private void shiftBack(int free) {
+        int mask = keys.length - 1;
+        int slot = free;
+        while (true) {
+            slot = (slot + 1) & mask;
+            if (keys[slot] == IdentityType.NO_KEY) {
+                break;
+            }
+
+            int home = home(keys[slot], mask);
+            boolean reachable = free <= slot ? (free < home && home <= slot) : (free < home || home <= slot);
+            if (!reachable) {
+                keys[free] = keys[slot];
+                refs[free] = refs[slot];
+                free = slot;
+            }
+        }
+
+        keys[free] = IdentityType.NO_KEY;
+        refs[free] = 0;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        long[] oldRefs = refs;
+        keys = new long[capacity];
+        refs = new long[capacity];
+        for (int x = 0; x < oldKeys.length; x++) {
+            if (oldKeys[x] != IdentityType.NO_KEY) {
+                int slot = -find(oldKeys[x]) - 1;
+                keys[slot] = oldKeys[x];
+                refs[slot] = oldRefs[x];
+            }
+        }
+    }
+
+    private long append(byte[] encoded) {
+        int length = LENGTH_PREFIX + encoded.length;
+        ByteBuffer slab = slabs.isEmpty() ? null : slabs.get(slabs.size() - 1);
+        if (slab == null || slab.remaining() < length) {
+            // grant sets never span slabs, an oversized set gets a slab of its own
+            slab = ByteBuffer.allocateDirect(Math.max(slabSize, length));
+            slabs.add(slab);
+        }
+
+        int offset = slab.position();
+        slab.putInt(encoded.length);
+        slab.put(encoded);
+        return ((long) (slabs.size() - 1) << 32) | offset;
+    }
+
+    private void release(long ref) {
+        int length = LENGTH_PREFIX + slabs.get((int) (ref >>> 32)).getInt((int) ref);
+        liveBytes -= length;
+        garbageBytes += length;
+    }
+
+    /**
+     * Copies the live grant sets into new slabs once the garbage outweighs them. The old slabs are freed when they are
+     * garbage collected.
+     */
+    private void compactIfNeeded() {
+        if (garbageBytes <= Math.max(liveBytes, slabSize)) {
+            return;
+        }
+
+        List<ByteBuffer> oldSlabs = slabs;
+        slabs = Lists.newArrayList();
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != IdentityType.NO_KEY) {
+                ByteBuffer source = oldSlabs.get((int) (refs[slot] >>> 32)).duplicate();
+                int offset = (int) refs[slot];
+                byte[] encoded = new byte[source.getInt(offset)];
+                source.position(offset + LENGTH_PREFIX);
+                source.get(encoded);
+                refs[slot] = append(encoded);
+            }
+        }
+
+        LOGGER.debug("Compacted {} grant sets, reclaimed {} bytes", size, garbageBytes);
+        garbageBytes = 0;
+    }
+}
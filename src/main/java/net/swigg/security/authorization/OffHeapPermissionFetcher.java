@@ -0,0 +1,185 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.apache.shiro.authz.Permission;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * {@link PermissionFetcher} that keeps the grants of typed principal identities (see {@link IdentityType}) in an
+ * {@link OffHeapGrantStore} in front of another fetcher. Every grant of an identity is fetched from the delegate the
+ * first time the identity is seen; identities that are not typed, or whose grants are not {@link DATPermission}s, are
+ * passed through to the delegate.
+ * <p/>
+ * Register the fetcher with {@link PermissionChangePublisher} so the grant sets of changed identities are removed from
+ * the store.
+ *
+ * @author Dustin Sweigart <dustin@swigg.net>
+ */
+public class OffHeapPermissionFetcher implements PermissionFetcher, PermissionChangeListener {
+    private final PermissionFetcher delegate;
+
+    private final OffHeapGrantStore store;
+
+    /**
+     * incremented for every change, so a fetch that overlapped a change does not store what it fetched
+     */
+    private final AtomicLong changes = new AtomicLong();
+
+    public OffHeapPermissionFetcher(PermissionFetcher delegate) {
+        this(delegate, new OffHeapGrantStore());
+    }
+
+    public OffHeapPermissionFetcher(PermissionFetcher delegate, OffHeapGrantStore store) {
+        this.delegate = checkNotNull(delegate);
+        this.store = checkNotNull(store);
+    }
+
+    @Override
+    public Set<? extends Permission> fetchPermissions(Collection<PrincipalIdentity> identities, Permission... permissions) {
+        Set<Permission> result = Sets.newHashSet();
+        List<PrincipalIdentity> untyped = Lists.newArrayList();
+        List<PrincipalIdentity> misses = Lists.newArrayList();
+        List<Long> missKeys = Lists.newArrayList();
+
+        for (PrincipalIdentity identity : identities) {
+            long key = IdentityType.keyOf(identity);
+            if (key == IdentityType.NO_KEY) {
+                untyped.add(identity);
+                continue;
+            }
+
+            EncodedGrantSet grants = store.getEncoded(key);
+            if (grants != null) {
+                result.addAll(grants.findImplying(permissions));
+            } else {
+                misses.add(identity);
+                missKeys.add(key);
+            }
+        }
+
+        if (!misses.isEmpty()) {
+            long sequence = changes.get();
+            ListMultimap<String, DATPermission> fetched = fetchAll(misses);
+            if (fetched == null) {
+                untyped.addAll(misses);
+            } else {
+                for (int x = 0; x < misses.size(); x++) {
+                    String principalIdentity = misses.get(x).getPrincipalIdentity();
+                    List<DATPermission> grants = fetched.get(principalIdentity);
+                    store(missKeys.get(x), principalIdentity, grants, sequence);
+                    addCandidates(result, grants, permissions);
+                }
+            }
+        }
+
+        if (!untyped.isEmpty()) {
+            result.addAll(delegate.fetchPermissions(untyped, permissions));
+        }
+
+        return result;
+    }
+
+    /**
+     * Stores grants fetched at the given change sequence unless a change has been delivered since. The sequence is
+     * checked again after the put, since a change may have removed the key between the first check and the put; the
+     * entry is then removed again.
+     */
+    private void store(long key, String principalIdentity, List<DATPermission> grants, long sequence) {
+        if (changes.get() != sequence) {
+            return;
+        }
+
+        store.put(key, principalIdentity, grants);
+        if (changes.get() != sequence) {
+            store.remove(key);
+        }
+    }
+
+    @Override
+    public void permissionsChanged(Collection<PermissionChange> changes) {
+        // invalidate fetches in progress before removing, see store
+        this.changes.incrementAndGet();
+        for (PermissionChange change : changes) {
+            long key = IdentityType.parse(change.getPrincipalIdentity());
+            if (key != IdentityType.NO_KEY) {
+                store.remove(key);
+            }
+        }
+    }
+
+    public OffHeapGrantStore getStore() {
+        return store;
+    }
+
+    /**
+     * Fetches every grant of the identities with a single call, grouped by principal identity.
+     *
+     * @param identities
+     * @return the grants, or null if the delegate returned grants that are not {@link DATPermission}s of one of the
+     * identities and so can not be stored
+     */
+    private ListMultimap<String, DATPermission> fetchAll(List<PrincipalIdentity> identities) {
+        Set<String> principalIdentities = Sets.newHashSet();
+        for (PrincipalIdentity identity : identities) {
+            principalIdentities.add(identity.getPrincipalIdentity());
+        }
+
+        ListMultimap<String, DATPermission> grants = ArrayListMultimap.create();
+        for (Permission permission : delegate.fetchPermissions(identities)) {
+            if (!DATPermission.class.isInstance(permission)
+                    || !principalIdentities.contains(DATPermission.class.cast(permission).getPrincipalIdentity())) {
+                return null;
+            }
+
+            DATPermission grant = DATPermission.class.cast(permission);
+            grants.put(grant.getPrincipalIdentity(), grant);
+        }
+
+        return grants;
+    }
+
+    /**
+     * Adds the grants that imply at least one of the permissions, or all grants if no permissions are given.
+     */
+    static void addCandidates(Set<Permission> result, Collection<DATPermission> grants, Permission... permissions) {
+        if (permissions.length == 0) {
+            result.addAll(grants);
+            return;
+        }
+
+        for (DATPermission grant : grants) {
+            for (Permission permission : permissions) {
+                if (grant.implies(permission)) {
+                    result.add(grant);
+                    break;
+                }
+            }
+        }
+    }
+}
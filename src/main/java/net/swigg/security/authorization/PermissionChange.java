@@ -0,0 +1,109 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Objects;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Describes a change to the stored grants of a principal identity within a domain.
+ * <p/>
+ * Every change carries a sequence number taken when it is created, which for changes published by
+ * {@link DATPermissionListener} is after the row was written but before the transaction commits. Listeners can compare
+ * it with {@link #currentSequence()} to tell whether a change may already be reflected in data they read. The sequence
+ * is not part of {@link #equals(Object)}.
+ *
+ * @author Dustin Sweigart <dustin@swigg.net>
+ */
+public final class PermissionChange {
+    public static enum TYPE {
+        PERSISTED, UPDATED, REMOVED
+    }
+
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    private final long sequence = SEQUENCE.incrementAndGet();
+
+    private final TYPE type;
+
+    private final String principalIdentity;
+
+    private final String domain;
+
+    public PermissionChange(TYPE type, String principalIdentity, String domain) {
+        this.type = checkNotNull(type);
+        this.principalIdentity = principalIdentity;
+        this.domain = domain;
+    }
+
+    /**
+     * @return the sequence number of the most recently created change
+     */
+    public static long currentSequence() {
+        return SEQUENCE.get();
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public TYPE getType() {
+        return type;
+    }
+
+    public String getPrincipalIdentity() {
+        return principalIdentity;
+    }
+
+    public String getDomain() {
+        return domain;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        PermissionChange that = (PermissionChange) o;
+        return type == that.type
+                && Objects.equal(principalIdentity, that.principalIdentity)
+                && Objects.equal(domain, that.domain);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(type, principalIdentity, domain);
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("type", type)
+                .add("principalIdentity", principalIdentity)
+                .add("domain", domain)
+                .toString();
+    }
+}
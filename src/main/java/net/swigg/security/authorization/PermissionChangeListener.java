@@ -0,0 +1,36 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import java.util.Collection;
+
+/**
+ * Interface for anything that holds derived state of the stored grants, e.g. a cache, and has to be told when they
+ * change. Listeners are registered with {@link PermissionChangePublisher}.
+ *
+ * @author Dustin Sweigart <dustin@swigg.net>
+ */
+public interface PermissionChangeListener {
+    /**
+     * Called once the changes are visible to other transactions, i.e. after the transaction that made them has been
+     * committed.
+     *
+     * @param changes
+     */
+    void permissionsChanged(Collection<PermissionChange> changes);
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.DestructionAwareBeanPostProcessor;
+
+/**
+ * Registers every {@link PermissionChangeListener} bean with {@link PermissionChangePublisher} once it has been
+ * initialized, and unregisters it again when it is destroyed.
+ *
+ * @author Dustin Sweigart <dustin@swigg.net>
+ */
+public class PermissionChangeListenerRegistrar implements DestructionAwareBeanPostProcessor {
+    @Override
+    public Object postProcessBeforeInitialization(Object bean, String beanName) throws BeansException {
+        return bean;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
+        if (PermissionChangeListener.class.isInstance(bean)) {
+            PermissionChangePublisher.register(PermissionChangeListener.class.cast(bean));
+        }
+
+        return bean;
+    }
+
+    @Override
+    public void postProcessBeforeDestruction(Object bean, String beanName) throws BeansException {
+        if (PermissionChangeListener.class.isInstance(bean)) {
+            PermissionChangePublisher.unregister(PermissionChangeListener.class.cast(bean));
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Publishes {@link PermissionChange}s to the registered {@link PermissionChangeListener}s.
+ * <p/>
+ * Changes published inside a Spring managed transaction are collected and only delivered after the transaction has
+ * been committed, so listeners never see (and never reload) uncommitted grants, and nothing is published for a rollback.
+ * Changes published outside of a transaction are delivered immediately.
+ * <p/>
+ * The registry is static because {@link DATPermissionListener} is instantiated by the JPA provider and can not be
+ * injected.
+ *
+ * @author Dustin Sweigart <dustin@swigg.net>
+ */
+public final class PermissionChangePublisher {
+    static private final Logger LOGGER = LoggerFactory.getLogger(PermissionChangePublisher.class);
+
+    private static final List<PermissionChangeListener> LISTENERS = new CopyOnWriteArrayList<PermissionChangeListener>();
+
+    private PermissionChangePublisher() {
+    }
+
+    public static void register(PermissionChangeListener listener) {
+        LISTENERS.add(checkNotNull(listener));
+    }
+
+    public static void unregister(PermissionChangeListener listener) {
+        LISTENERS.remove(listener);
+    }
+
+    public static void publish(PermissionChange change) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            PendingChanges pending = (PendingChanges) TransactionSynchronizationManager.getResource(PendingChanges.class);
+            if (pending == null) {
+                pending = new PendingChanges();
+                TransactionSynchronizationManager.bindResource(PendingChanges.class, pending);
+                TransactionSynchronizationManager.registerSynchronization(pending);
+            }
+            pending.changes.add(change);
+        } else {
+            deliver(ImmutableList.of(change));
+        }
+    }
+
+    static void deliver(Collection<PermissionChange> changes) {
+        for (PermissionChangeListener listener : LISTENERS) {
+            try {
+                listener.permissionsChanged(changes);
+            } catch (RuntimeException e) {
+                // one failing listener must not keep the others from evicting stale grants
+                LOGGER.error("PermissionChangeListener [" + listener + "] failed", e);
+            }
+        }
+    }
+
+    /**
+     * Changes of the current transaction in the order they were published, delivered after commit. They are not
+     * de-duplicated, since two identical changes stand for two written grants.
+     */
+    private static final class PendingChanges extends TransactionSynchronizationAdapter {
+        final List<PermissionChange> changes = Lists.newArrayList();
+
+        @Override
+        public void afterCommit() {
+            deliver(ImmutableList.copyOf(changes));
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResourceIfPossible(PendingChanges.class);
+        }
+    }
+}
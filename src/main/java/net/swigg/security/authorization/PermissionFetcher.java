@@ -27,7 +27,9 @@ import java.util.Set;
  */
 public interface PermissionFetcher {
     /**
-     * Returns {@link Permission}s that are owned by one of the {@link PrincipalIdentity}s.
+     * Returns {@link Permission}s that are owned by one of the {@link PrincipalIdentity}s. The permissions are used to
+     * narrow the result down to candidates that may imply one of them; when no permissions are given every permission
+     * owned by the identities is returned.
      *
      * @param identities
      * @param permissions
@@ -0,0 +1,142 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import javax.persistence.*;
+import java.util.List;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * One (principal identity, domain, action, target) tuple of a {@link DATPermission}, stored flat in a single table.
+ * <p/>
+ * A {@link DATPermission} expands to one row per combination of its actions and targets, with a wildcard for levels
+ * it does not define, and all rows of the same permission share its id as {@link #getGrantId()}. The composite index
+ * starts with the columns every query filters on and ends with the grant id, so {@link PermissionGrantFetcher} is
+ * answered from the index alone without joining the element collection tables of {@link DATPermission}.
+ *
+ * @author Dustin Sweigart <dustin@swigg.net>
+ */
+@Entity
+@Table(name = "permission_grant", indexes = {
+        @Index(name = "permission_grant_lookup", columnList = "principalIdentity,domain,action,target,grantId"),
+        @Index(name = "permission_grant_grant", columnList = "grantId")
+})
+public class PermissionGrant {
+    @Id
+    @GeneratedValue(strategy = GenerationType.AUTO)
+    @Column(name = "id")
+    private Long id;
+
+    @Column(name = "grantId", nullable = false)
+    private Long grantId;
+
+    @Column(name = "principalIdentity", nullable = false)
+    private String principalIdentity;
+
+    @Column(name = "domain", nullable = false)
+    private String domain;
+
+    @Column(name = "action", nullable = false)
+    private String action;
+
+    @Column(name = "target", nullable = false)
+    private String target;
+
+    /**
+     * no-argument constructor for JPA
+     */
+    protected PermissionGrant() {
+    }
+
+    public PermissionGrant(Long grantId, String principalIdentity, String domain, String action, String target) {
+        this.grantId = checkNotNull(grantId);
+        this.principalIdentity = checkNotNull(principalIdentity);
+        this.domain = checkNotNull(domain);
+        this.action = checkNotNull(action);
+        this.target = checkNotNull(target);
+    }
+
+    /**
+     * Expands a stored permission into its tuples.
+     *
+     * @param permission a permission that has been persisted and has a principal identity
+     * @return
+     */
+    public static List<PermissionGrant> expand(DATPermission permission) {
+        checkArgument(permission.getId() != null, "Only stored permissions can be expanded.");
+        checkArgument(permission.getPrincipalIdentity() != null, "Only permissions of a principal identity can be expanded.");
+
+        Set<String> actions = orWildcard(permission.getActions());
+        Set<String> targets = orWildcard(permission.getTargets());
+
+        ImmutableList.Builder<PermissionGrant> builder = ImmutableList.builder();
+        for (String action : actions) {
+            for (String target : targets) {
+                builder.add(new PermissionGrant(permission.getId(), permission.getPrincipalIdentity(), permission.getDomain(), action, target));
+            }
+        }
+
+        return builder.build();
+    }
+
+    private static Set<String> orWildcard(Set<String> values) {
+        return values.isEmpty() ? ImmutableSet.of(WildcardPermission.WILDCARD) : values;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public Long getGrantId() {
+        return grantId;
+    }
+
+    public String getPrincipalIdentity() {
+        return principalIdentity;
+    }
+
+    public String getDomain() {
+        return domain;
+    }
+
+    public String getAction() {
+        return action;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("grantId", grantId)
+                .add("principalIdentity", principalIdentity)
+                .add("domain", domain)
+                .add("action", action)
+                .add("target", target)
+                .toString();
+    }
+}
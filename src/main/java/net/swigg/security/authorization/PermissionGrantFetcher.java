@@ -0,0 +1,190 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.mysema.query.Tuple;
+import com.mysema.query.jpa.impl.JPADeleteClause;
+import com.mysema.query.jpa.impl.JPAQuery;
+import com.mysema.query.types.expr.BooleanExpression;
+import org.apache.shiro.authz.Permission;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.*;
+
+/**
+ * {@link PermissionFetcher} that reads the flattened {@link PermissionGrant} tuples instead of {@link DATPermission}s.
+ * <p/>
+ * Only indexed columns are selected, so a fetch is a range scan of the covering index. The matching tuples are grouped
+ * back into one {@link ImmutableDATPermission} per grant. When permissions are given only the tuples that can take
+ * part in implying them are read, so the returned grants are restricted to the actions and targets relevant to the
+ * query; without permissions every grant is returned whole. Since a grant's tuples are the full product of its actions
+ * and targets, the matching tuples are too, and a restricted grant implies a permission exactly when the stored grant
+ * does.
+ * <p/>
+ * Tuples are kept in step with the stored {@link DATPermission}s with {@link #store(DATPermission)} and
+ * {@link #delete(DATPermission)}. Both publish a {@link PermissionChange.TYPE#UPDATED} change for every identity and
+ * domain whose tuples they write or delete, so caches of fetched grants are evicted once the tuples are committed,
+ * even when that happens in a later transaction than the change of the {@link DATPermission} itself.
+ *
+ * @author Dustin Sweigart <dustin@swigg.net>
+ */
+public class PermissionGrantFetcher implements PermissionFetcher {
+    @PersistenceContext
+    private final EntityManager entityManager;
+
+    public PermissionGrantFetcher(final EntityManager entityManager) {
+        this.entityManager = entityManager;
+    }
+
+    @Transactional(readOnly = true)
+    public Set<? extends Permission> fetchPermissions(Collection<PrincipalIdentity> identities, Permission... permissions) {
+        if (identities.isEmpty()) {
+            // without an identity predicate the query would return every grant
+            return Collections.emptySet();
+        }
+
+        Set<String> principalIdentities = Sets.newHashSet();
+        for (PrincipalIdentity identity : identities) {
+            principalIdentities.add(identity.getPrincipalIdentity());
+        }
+
+        QPermissionGrant grant = new QPermissionGrant("grant");
+        BooleanExpression whereExpression = grant.principalIdentity.in(principalIdentities);
+
+        BooleanExpression permScopeExpr = null;
+        for (Permission permission : permissions) {
+            if (!DATPermission.class.isInstance(permission)) {
+                // the tuples can not be narrowed down for other permissions, so every grant is read
+                permScopeExpr = null;
+                break;
+            }
+
+            DATPermission queryPermission = DATPermission.class.cast(permission);
+            BooleanExpression permExpression = grant.domain.in(queryPermission.getDomain(), WildcardPermission.WILDCARD)
+                    .and(grant.action.in(withWildcard(queryPermission.getActions())))
+                    .and(grant.target.in(withWildcard(queryPermission.getTargets())));
+
+            permScopeExpr = (permScopeExpr == null) ? permExpression : permScopeExpr.or(permExpression);
+        }
+
+        List<Tuple> rows = new JPAQuery(getEntityManager())
+                .from(grant)
+                .where(whereExpression.and(permScopeExpr))
+                .list(grant.grantId, grant.principalIdentity, grant.domain, grant.action, grant.target);
+
+        Map<Long, Group> groups = Maps.newLinkedHashMap();
+        for (Tuple row : rows) {
+            Long grantId = row.get(grant.grantId);
+            Group group = groups.get(grantId);
+            if (group == null) {
+                group = new Group(row.get(grant.principalIdentity), row.get(grant.domain));
+                groups.put(grantId, group);
+            }
+            group.actions.add(row.get(grant.action));
+            group.targets.add(row.get(grant.target));
+        }
+
+        Set<Permission> permissionSet = Sets.newHashSetWithExpectedSize(groups.size());
+        for (Group group : groups.values()) {
+            permissionSet.add(new ImmutableDATPermission(group.principalIdentity, group.domain, group.actions, group.targets));
+        }
+
+        return permissionSet;
+    }
+
+    /**
+     * Replaces the tuples of a stored permission with its current expansion.
+     *
+     * @param permission
+     */
+    @Transactional
+    public void store(DATPermission permission) {
+        deleteTuples(permission);
+        for (PermissionGrant grant : PermissionGrant.expand(permission)) {
+            getEntityManager().persist(grant);
+        }
+
+        PermissionChangePublisher.publish(new PermissionChange(PermissionChange.TYPE.UPDATED,
+                permission.getPrincipalIdentity(), permission.getDomain()));
+    }
+
+    /**
+     * Deletes the tuples of a stored permission.
+     *
+     * @param permission
+     */
+    @Transactional
+    public void delete(DATPermission permission) {
+        deleteTuples(permission);
+    }
+
+    /**
+     * Deletes the tuples of a stored permission and publishes a change for the identities and domains they were stored
+     * under, which differ from those of the permission when it has been moved.
+     *
+     * @param permission
+     */
+    private void deleteTuples(DATPermission permission) {
+        QPermissionGrant grant = new QPermissionGrant("grant");
+        List<Tuple> stored = new JPAQuery(getEntityManager())
+                .from(grant)
+                .where(grant.grantId.eq(permission.getId()))
+                .distinct()
+                .list(grant.principalIdentity, grant.domain);
+
+        new JPADeleteClause(getEntityManager(), grant).where(grant.grantId.eq(permission.getId())).execute();
+
+        for (Tuple row : stored) {
+            PermissionChangePublisher.publish(new PermissionChange(PermissionChange.TYPE.UPDATED,
+                    row.get(grant.principalIdentity), row.get(grant.domain)));
+        }
+    }
+
+    public EntityManager getEntityManager() {
+        return entityManager;
+    }
+
+    /**
+     * @param values
+     * @return the values and the wildcard, or only the wildcard for an undefined level
+     */
+    private static Set<String> withWildcard(Set<String> values) {
+        Set<String> result = Sets.newHashSet(values);
+        result.add(WildcardPermission.WILDCARD);
+        return result;
+    }
+
+    private static final class Group {
+        final String principalIdentity;
+
+        final String domain;
+
+        final Set<String> actions = Sets.newHashSet();
+
+        final Set<String> targets = Sets.newHashSet();
+
+        Group(String principalIdentity, String domain) {
+            this.principalIdentity = principalIdentity;
+            this.domain = domain;
+        }
+    }
+}
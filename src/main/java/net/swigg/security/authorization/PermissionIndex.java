@@ -0,0 +1,252 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.shiro.authz.Permission;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable index over the grants of a principal that answers "does any grant imply this permission?" without scanning
+ * every grant.
+ * <p/>
+ * {@link WildcardPermission} grants are stored in a trie with one level per permission level (domain, then action, then
+ * target for a {@link DATPermission}). Each node has an edge per {@link SymbolTable} symbol plus a wildcard edge that is
+ * also used for levels a grant does not define. A grant is inserted under every symbol of its levels, up to
+ * {@link #MAX_PATHS} paths, and stored at the node of its last non-wildcard level. A lookup follows at most one symbol
+ * edge and the wildcard edge per level, so its cost depends on the number of levels rather than on the number of
+ * grants. Grants that are not {@link WildcardPermission}s are scanned linearly.
+ * <p/>
+ * Small grant sets are scanned linearly as well, since building the trie would cost more than it saves.
+ *
+ * @author Dustin Sweigart <dustin@swigg.net>
+ */
+public final class PermissionIndex {
+    /**
+     * grant sets smaller than this are not indexed
+     */
+    static final int INDEX_THRESHOLD = 8;
+
+    /**
+     * maximum number of trie paths a single grant is inserted under; grants with more symbols stop at a shallower node
+     */
+    static final int MAX_PATHS = 16;
+
+    private static final PermissionIndex EMPTY = new PermissionIndex(ImmutableSet.<Permission>of(), null, ImmutableList.<Permission>of());
+
+    private final ImmutableSet<Permission> permissions;
+
+    private final Node root;
+
+    private final List<Permission> unindexed;
+
+    private PermissionIndex(ImmutableSet<Permission> permissions, Node root, List<Permission> unindexed) {
+        this.permissions = permissions;
+        this.root = root;
+        this.unindexed = unindexed;
+    }
+
+    public static PermissionIndex empty() {
+        return EMPTY;
+    }
+
+    public static PermissionIndex build(Collection<? extends Permission> grants) {
+        if (grants.isEmpty()) {
+            return EMPTY;
+        }
+
+        ImmutableSet<Permission> permissions = ImmutableSet.copyOf(grants);
+        if (permissions.size() < INDEX_THRESHOLD) {
+            return new PermissionIndex(permissions, null, permissions.asList());
+        }
+
+        Node root = new Node();
+        List<Permission> unindexed = Lists.newArrayList();
+        for (Permission grant : permissions) {
+            if (WildcardPermission.class.isInstance(grant)) {
+                root.insert(WildcardPermission.class.cast(grant));
+            } else {
+                unindexed.add(grant);
+            }
+        }
+
+        return new PermissionIndex(permissions, root, ImmutableList.copyOf(unindexed));
+    }
+
+    /**
+     * Wraps grants that are only checked a few times, e.g. those fetched for a single uncached check, without building
+     * the trie. They are always scanned linearly.
+     *
+     * @param grants
+     * @return
+     */
+    public static PermissionIndex unindexed(Collection<? extends Permission> grants) {
+        if (grants.isEmpty()) {
+            return EMPTY;
+        }
+
+        ImmutableSet<Permission> permissions = ImmutableSet.copyOf(grants);
+        return new PermissionIndex(permissions, null, permissions.asList());
+    }
+
+    /**
+     * Returns a grant that implies the permission, or null if there is none.
+     *
+     * @param permission
+     * @return
+     */
+    public Permission findImplying(Permission permission) {
+        if (root != null) {
+            if (WildcardPermission.class.isInstance(permission)) {
+                Permission grant = root.find(WildcardPermission.class.cast(permission).resolve(), 0);
+                if (grant != null) {
+                    return grant;
+                }
+            } else {
+                return scan(permissions, permission);
+            }
+        }
+
+        return scan(unindexed, permission);
+    }
+
+    public boolean implies(Permission permission) {
+        return findImplying(permission) != null;
+    }
+
+    /**
+     * @return every grant in this index
+     */
+    public Set<Permission> getPermissions() {
+        return permissions;
+    }
+
+    public int size() {
+        return permissions.size();
+    }
+
+    public boolean isEmpty() {
+        return permissions.isEmpty();
+    }
+
+    private static Permission scan(Collection<Permission> grants, Permission permission) {
+        for (Permission grant : grants) {
+            if (grant.implies(permission)) {
+                return grant;
+            }
+        }
+
+        return null;
+    }
+
+    private static final class Node {
+        private List<WildcardPermission> grants;
+
+        private Node wildcard;
+
+        private Map<Integer, Node> children;
+
+        void insert(WildcardPermission grant) {
+            insert(grant, 0, grant.definedLevels() & ~grant.wildcardLevels(), 1);
+        }
+
+        private void insert(WildcardPermission grant, int level, long required, int paths) {
+            if (required == 0) {
+                add(grant);
+                return;
+            }
+
+            long bit = 1L << level;
+            if ((required & bit) == 0) {
+                wildcard().insert(grant, level + 1, required, paths);
+                return;
+            }
+
+            int[] symbols = grant.symbolsOfLevel(level);
+            if (paths * symbols.length > MAX_PATHS) {
+                // every lookup the grant could satisfy passes through this node, where it is verified by implies
+                add(grant);
+                return;
+            }
+
+            for (int symbol : symbols) {
+                child(symbol).insert(grant, level + 1, required & ~bit, paths * symbols.length);
+            }
+        }
+
+        WildcardPermission find(WildcardPermission permission, int level) {
+            if (grants != null) {
+                for (WildcardPermission grant : grants) {
+                    if (grant.implies(permission)) {
+                        return grant;
+                    }
+                }
+            }
+
+            // a grant implying the permission contains all of its symbols, so following any one of them is enough
+            long bit = 1L << level;
+            if (children != null && (permission.definedLevels() & ~permission.wildcardLevels() & bit) != 0) {
+                Node child = children.get(permission.symbolsOfLevel(level)[0]);
+                if (child != null) {
+                    WildcardPermission grant = child.find(permission, level + 1);
+                    if (grant != null) {
+                        return grant;
+                    }
+                }
+            }
+
+            return wildcard != null ? wildcard.find(permission, level + 1) : null;
+        }
+
+        private void add(WildcardPermission grant) {
+            if (grants == null) {
+                grants = Lists.newArrayListWithCapacity(1);
+            }
+            grants.add(grant);
+        }
+
+        private Node child(int symbol) {
+            if (children == null) {
+                children = Maps.newHashMap();
+            }
+
+            Node child = children.get(symbol);
+            if (child == null) {
+                child = new Node();
+                children.put(symbol, child);
+            }
+
+            return child;
+        }
+
+        private Node wildcard() {
+            if (wildcard == null) {
+                wildcard = new Node();
+            }
+
+            return wildcard;
+        }
+    }
+}
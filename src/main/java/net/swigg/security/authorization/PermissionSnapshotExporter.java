@@ -0,0 +1,303 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Closeables;
+import com.google.common.io.Files;
+import com.google.common.primitives.Longs;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.io.*;
+import java.util.*;
+
+/**
+ * Writes every {@link DATPermission} to a read-only snapshot file that {@link MappedPermissionFetcher}s in any number of
+ * JVMs can map and share through the page cache.
+ * <p/>
+ * File layout, all integers big endian:
+ * <pre>
+ * int     magic ({@link #MAGIC})
+ * int     format version ({@link #VERSION})
+ * int     number of principal identities
+ * int     reserved
+ * entry*  long hash of the principal identity, long offset of its grant set; sorted by hash
+ * set*    int length, followed by the grant set of one principal identity encoded with {@link GrantSetCodec}
+ * </pre>
+ * The file is written to a uniquely named temporary file next to the target and renamed over it once complete, so
+ * readers never see a partial file and JVMs that still map the previous file keep reading it until they
+ * {@link MappedPermissionFetcher#reload() reload}.
+ *
+ * @author Dustin Sweigart <dustin@swigg.net>
+ */
+public class PermissionSnapshotExporter {
+    static private final Logger LOGGER = LoggerFactory.getLogger(PermissionSnapshotExporter.class);
+
+    public static final int MAGIC = 0x53575053;
+
+    public static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 16;
+
+    static final int INDEX_ENTRY_SIZE = 16;
+
+    static final int FETCH_SIZE = 1000;
+
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    /**
+     * one row per permission, action and target, grouped by principal identity so each grant set is complete when the
+     * next identity starts
+     */
+    private static final String SELECT_GRANTS = "select p.id, p.principalIdentity, p.domain, a, t from DATPermission p"
+            + " left join p.actions a left join p.targets t"
+            + " where p.principalIdentity is not null"
+            + " order by p.principalIdentity, p.id";
+
+    @PersistenceContext
+    private final EntityManager entityManager;
+
+    public PermissionSnapshotExporter(final EntityManager entityManager) {
+        this.entityManager = entityManager;
+    }
+
+    /**
+     * Exports every permission to the file. The rows are streamed as a projection, so only the grant set of one
+     * principal identity and the index are held in memory, and no entities are loaded into the persistence context.
+     *
+     * @param file
+     * @throws IOException
+     */
+    @Transactional(readOnly = true)
+    public void export(File file) throws IOException {
+        long start = System.currentTimeMillis();
+        ScrollableResults results = getEntityManager().unwrap(Session.class)
+                .createQuery(SELECT_GRANTS)
+                .setReadOnly(true)
+                .setFetchSize(FETCH_SIZE)
+                .scroll(ScrollMode.FORWARD_ONLY);
+
+        SnapshotWriter writer = new SnapshotWriter(file);
+        int count = 0;
+        try {
+            String principalIdentity = null;
+            Map<Long, Row> rows = Maps.newLinkedHashMap();
+            while (results.next()) {
+                if (!results.getString(1).equals(principalIdentity)) {
+                    count += add(writer, principalIdentity, rows);
+                    principalIdentity = results.getString(1);
+                    rows.clear();
+                }
+
+                Long id = results.getLong(0);
+                Row row = rows.get(id);
+                if (row == null) {
+                    row = new Row(results.getString(2));
+                    rows.put(id, row);
+                }
+                if (results.getString(3) != null) {
+                    row.actions.add(results.getString(3));
+                }
+                if (results.getString(4) != null) {
+                    row.targets.add(results.getString(4));
+                }
+            }
+            count += add(writer, principalIdentity, rows);
+
+            writer.finish();
+        } finally {
+            results.close();
+            writer.close();
+        }
+
+        LOGGER.info("Exported {} permissions to {} in {}ms", count, file, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Writes a snapshot file of the permissions. Permissions without a principal identity are skipped.
+     *
+     * @param file
+     * @param permissions
+     * @throws IOException
+     */
+    public static void write(File file, Collection<? extends DATPermission> permissions) throws IOException {
+        ListMultimap<String, DATPermission> byIdentity = ArrayListMultimap.create();
+        for (DATPermission permission : permissions) {
+            if (permission.getPrincipalIdentity() != null) {
+                byIdentity.put(permission.getPrincipalIdentity(), permission);
+            }
+        }
+
+        SnapshotWriter writer = new SnapshotWriter(file);
+        try {
+            for (Map.Entry<String, Collection<DATPermission>> entry : byIdentity.asMap().entrySet()) {
+                writer.add(entry.getKey(), entry.getValue());
+            }
+            writer.finish();
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * @param writer
+     * @param principalIdentity
+     * @param rows the permissions of the principal identity
+     * @return the number of permissions added
+     * @throws IOException
+     */
+    private static int add(SnapshotWriter writer, String principalIdentity, Map<Long, Row> rows) throws IOException {
+        if (principalIdentity == null) {
+            return 0;
+        }
+
+        List<DATPermission> grants = Lists.newArrayListWithCapacity(rows.size());
+        for (Row row : rows.values()) {
+            grants.add(new ImmutableDATPermission(principalIdentity, row.domain, row.actions, row.targets));
+        }
+        writer.add(principalIdentity, grants);
+
+        return grants.size();
+    }
+
+    /**
+     * @param principalIdentity
+     * @return the hash the index of a snapshot file is sorted by
+     */
+    static long hash(String principalIdentity) {
+        return HASH_FUNCTION.hashString(principalIdentity, Charsets.UTF_8).asLong();
+    }
+
+    public EntityManager getEntityManager() {
+        return entityManager;
+    }
+
+    /**
+     * Writes a snapshot file one grant set at a time. The grant sets are spooled to a temporary data file, since the
+     * index in front of them is only known once all of them have been added; only the index is kept in memory.
+     */
+    private static final class SnapshotWriter implements Closeable {
+        final File file;
+
+        final File directory;
+
+        final File data;
+
+        final DataOutputStream out;
+
+        final List<long[]> index = Lists.newArrayList();
+
+        long offset = 0;
+
+        SnapshotWriter(File file) throws IOException {
+            this.file = file;
+            this.directory = file.getAbsoluteFile().getParentFile();
+            this.data = File.createTempFile(file.getName(), ".data", directory);
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(data)));
+        }
+
+        void add(String principalIdentity, Collection<DATPermission> grants) throws IOException {
+            byte[] encoded = GrantSetCodec.encode(principalIdentity, grants);
+            index.add(new long[]{hash(principalIdentity), offset});
+            out.writeInt(encoded.length);
+            out.write(encoded);
+            offset += 4 + encoded.length;
+        }
+
+        /**
+         * Writes the header, the index and the grant sets to a temporary file and renames it over the target.
+         *
+         * @throws IOException
+         */
+        void finish() throws IOException {
+            out.close();
+
+            Collections.sort(index, new Comparator<long[]>() {
+                @Override
+                public int compare(long[] left, long[] right) {
+                    return Longs.compare(left[0], right[0]);
+                }
+            });
+
+            File temp = File.createTempFile(file.getName(), ".tmp", directory);
+            DataOutputStream snapshot = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            boolean written = false;
+            try {
+                snapshot.writeInt(MAGIC);
+                snapshot.writeInt(VERSION);
+                snapshot.writeInt(index.size());
+                snapshot.writeInt(0);
+                long base = HEADER_SIZE + (long) index.size() * INDEX_ENTRY_SIZE;
+                for (long[] entry : index) {
+                    snapshot.writeLong(entry[0]);
+                    snapshot.writeLong(base + entry[1]);
+                }
+                snapshot.flush();
+                Files.copy(data, snapshot);
+                written = true;
+            } finally {
+                Closeables.close(snapshot, !written);
+                if (!written) {
+                    temp.delete();
+                }
+            }
+
+            if (!temp.renameTo(file)) {
+                temp.delete();
+                throw new IOException("Could not rename " + temp + " to " + file);
+            }
+        }
+
+        /**
+         * Deletes the temporary data file.
+         *
+         * @throws IOException
+         */
+        @Override
+        public void close() throws IOException {
+            Closeables.close(out, true);
+            data.delete();
+        }
+    }
+
+    private static final class Row {
+        final String domain;
+
+        final Set<String> actions = Sets.newHashSet();
+
+        final Set<String> targets = Sets.newHashSet();
+
+        Row(String domain) {
+            this.domain = domain;
+        }
+    }
+}
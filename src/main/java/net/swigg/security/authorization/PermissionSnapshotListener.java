@@ -0,0 +1,40 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import java.util.Collection;
+
+/**
+ * Notified by {@link SnapshotPermissionFetcher} when it loads all permissions, so other structures can be rebuilt from
+ * the same read.
+ *
+ * @author Dustin Sweigart <dustin@swigg.net>
+ */
+public interface PermissionSnapshotListener {
+    /**
+     * Called before the permissions are read.
+     */
+    void beforeSnapshotLoad();
+
+    /**
+     * Called after the permissions have been read.
+     *
+     * @param permissions every stored permission
+     */
+    void snapshotLoaded(Collection<DATPermission> permissions);
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mysema.query.jpa.impl.JPAQuery;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Preloads the permissions of the busiest principal identities and of every role before a node takes traffic, so the
+ * first requests after a deploy do not all hit {@link DATPermissionFetcher} cold.
+ * <p/>
+ * The warm-up loads the {@link #getTopIdentities()} identities with the most grants, every identity starting with
+ * {@link #getRolePrefix()} and any {@link #setIdentities(Collection) additional identities}, e.g. taken from the
+ * application's own access statistics. They are loaded in batches of {@link #getBatchSize()} on {@link #getThreads()}
+ * threads, through the {@link AuthorizingRealm}s of the application context so their permission caches are filled, or through
+ * the {@link PermissionFetcher} if there are none.
+ * <p/>
+ * It starts in the background when the application context has been refreshed. Until it has finished {@link
+ * #isReady()} is false, which a health check can use to keep the node out of the load balancer. A failed batch is
+ * logged and skipped; the node still becomes ready, only with a colder cache. A disabled warm-up is always ready.
+ *
+ * @author Dustin Sweigart <dustin@swigg.net>
+ */
+public class PermissionWarmup implements ApplicationListener<ContextRefreshedEvent> {
+    static private final Logger LOGGER = LoggerFactory.getLogger(PermissionWarmup.class);
+
+    @PersistenceContext
+    private final EntityManager entityManager;
+
+    private final PermissionFetcher permissionFetcher;
+
+    private Collection<AuthorizingRealm> realms = Collections.emptyList();
+
+    private Collection<String> identities = Collections.emptyList();
+
+    private boolean enabled = true;
+
+    private int topIdentities = 1000;
+
+    private String rolePrefix = "role:";
+
+    private int batchSize = 100;
+
+    private int threads = 4;
+
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    private final CountDownLatch ready = new CountDownLatch(1);
+
+    private final AtomicInteger total = new AtomicInteger();
+
+    private final AtomicInteger loaded = new AtomicInteger();
+
+    private volatile long duration = -1;
+
+    public PermissionWarmup(EntityManager entityManager, PermissionFetcher permissionFetcher) {
+        this.entityManager = checkNotNull(entityManager);
+        this.permissionFetcher = checkNotNull(permissionFetcher);
+    }
+
+    @Override
+    public void onApplicationEvent(ContextRefreshedEvent event) {
+        if (enabled && realms.isEmpty()) {
+            setRealms(event.getApplicationContext().getBeansOfType(AuthorizingRealm.class).values());
+        }
+
+        start();
+    }
+
+    /**
+     * Starts the warm-up in the background unless it already has been started.
+     */
+    public void start() {
+        if (!enabled) {
+            ready.countDown();
+            return;
+        }
+
+        if (started.compareAndSet(false, true)) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    warmUp();
+                }
+            }, "permission-warmup");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Runs the warm-up on the calling thread and marks this node ready.
+     */
+    public void warmUp() {
+        started.set(true);
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        ExecutorService executor = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("permission-warmup-%d").build());
+
+        try {
+            List<String> selected = selectIdentities();
+            total.set(selected.size());
+            LOGGER.info("Warming up permissions of {} principal identities", selected.size());
+
+            List<Future<?>> batches = Lists.newArrayList();
+            for (List<String> batch : Lists.partition(selected, batchSize)) {
+                batches.add(executor.submit(new Batch(batch)));
+            }
+
+            for (Future<?> batch : batches) {
+                try {
+                    batch.get();
+                } catch (ExecutionException e) {
+                    LOGGER.warn("Failed to warm up a batch of permissions", e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.warn("Permission warm-up was interrupted");
+        } catch (RuntimeException e) {
+            LOGGER.warn("Permission warm-up failed", e);
+        } finally {
+            executor.shutdownNow();
+            duration = stopwatch.elapsed(TimeUnit.MILLISECONDS);
+            ready.countDown();
+        }
+
+        LOGGER.info("Warmed up permissions of {} of {} principal identities in {}ms", loaded.get(), total.get(), duration);
+    }
+
+    /**
+     * @return the identities with the most grants, every role and the additional identities, without duplicates
+     */
+    protected List<String> selectIdentities() {
+        Set<String> selected = Sets.newLinkedHashSet();
+
+        QDATPermission wcPerm = new QDATPermission("permission");
+        if (topIdentities > 0) {
+            selected.addAll(new JPAQuery(getEntityManager())
+                    .from(wcPerm)
+                    .where(wcPerm.principalIdentity.isNotNull())
+                    .groupBy(wcPerm.principalIdentity)
+                    .orderBy(wcPerm.id.count().desc())
+                    .limit(topIdentities)
+                    .list(wcPerm.principalIdentity));
+        }
+
+        if (rolePrefix != null && !rolePrefix.isEmpty()) {
+            selected.addAll(new JPAQuery(getEntityManager())
+                    .from(wcPerm)
+                    .where(wcPerm.principalIdentity.startsWith(rolePrefix))
+                    .distinct()
+                    .list(wcPerm.principalIdentity));
+        }
+
+        selected.addAll(identities);
+
+        return ImmutableList.copyOf(selected);
+    }
+
+    private void load(List<String> batch) {
+        List<PrincipalIdentity> principalIdentities = Lists.newArrayListWithCapacity(batch.size());
+        for (String identity : batch) {
+            principalIdentities.add(new SimplePrincipalIdentity(identity));
+        }
+
+        if (realms.isEmpty()) {
+            permissionFetcher.fetchPermissions(principalIdentities);
+        } else {
+            for (AuthorizingRealm realm : realms) {
+                realm.preloadPermissions(principalIdentities);
+            }
+        }
+
+        int done = loaded.addAndGet(batch.size());
+        LOGGER.info("Warmed up permissions of {}/{} principal identities", done, total.get());
+    }
+
+    /**
+     * @return true once the warm-up has finished or if it is disabled
+     */
+    public boolean isReady() {
+        return ready.getCount() == 0;
+    }
+
+    /**
+     * Waits until the warm-up has finished.
+     *
+     * @param timeout
+     * @param unit
+     * @return true if this node is ready, false if the timeout elapsed first
+     * @throws InterruptedException
+     */
+    public boolean awaitReady(long timeout, TimeUnit unit) throws InterruptedException {
+        return ready.await(timeout, unit);
+    }
+
+    /**
+     * @return the number of principal identities selected for the warm-up
+     */
+    public int getTotal() {
+        return total.get();
+    }
+
+    /**
+     * @return the number of principal identities that have been loaded so far
+     */
+    public int getLoaded() {
+        return loaded.get();
+    }
+
+    /**
+     * @return how long the warm-up took in milliseconds, or -1 if it has not finished
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    protected EntityManager getEntityManager() {
+        return entityManager;
+    }
+
+    public Collection<AuthorizingRealm> getRealms() {
+        return realms;
+    }
+
+    public void setRealms(Collection<AuthorizingRealm> realms) {
+        this.realms = ImmutableList.copyOf(realms);
+    }
+
+    public Collection<String> getIdentities() {
+        return identities;
+    }
+
+    public void setIdentities(Collection<String> identities) {
+        this.identities = ImmutableList.copyOf(identities);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getTopIdentities() {
+        return topIdentities;
+    }
+
+    public void setTopIdentities(int topIdentities) {
+        checkArgument(topIdentities >= 0);
+        this.topIdentities = topIdentities;
+    }
+
+    public String getRolePrefix() {
+        return rolePrefix;
+    }
+
+    public void setRolePrefix(String rolePrefix) {
+        this.rolePrefix = rolePrefix;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        checkArgument(batchSize > 0);
+        this.batchSize = batchSize;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        checkArgument(threads > 0);
+        this.threads = threads;
+    }
+
+    private class Batch implements Runnable {
+        private final List<String> identities;
+
+        Batch(List<String> identities) {
+            this.identities = identities;
+        }
+
+        @Override
+        public void run() {
+            load(identities);
+        }
+    }
+}
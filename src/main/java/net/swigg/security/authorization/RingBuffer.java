@@ -0,0 +1,177 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Bounded, lock-free queue for many producers and a single consumer.
+ * <p/>
+ * Every slot carries a sequence number. A producer claims the next position with a compare-and-set and publishes its
+ * element by advancing the sequence of the slot; the consumer takes an element once that sequence has been published
+ * and frees the slot for the producers one lap later. {@link #offer(Object)} never blocks: it fails when the buffer is
+ * full or {@link #close() closed}.
+ *
+ * @author Dustin Sweigart <dustin@swigg.net>
+ */
+public class RingBuffer<E> {
+    /**
+     * set in {@link #tail} once the buffer is closed, so no further position can be claimed
+     */
+    private static final long CLOSED = Long.MIN_VALUE;
+
+    private final AtomicReferenceArray<E> elements;
+
+    private final AtomicLongArray sequences;
+
+    private final int mask;
+
+    /**
+     * next position to be claimed by a producer
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * next position to be taken by the consumer; only written by the consumer
+     */
+    private volatile long head;
+
+    /**
+     * @param capacity rounded up to a power of two
+     */
+    public RingBuffer(int capacity) {
+        checkArgument(capacity > 0 && capacity <= 1 << 30);
+
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1) << 1);
+        this.elements = new AtomicReferenceArray<E>(size);
+        this.sequences = new AtomicLongArray(size);
+        this.mask = size - 1;
+
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * @param element
+     * @return false if the buffer is full or closed
+     */
+    public boolean offer(E element) {
+        checkNotNull(element);
+
+        long position = tail.get();
+        while (true) {
+            if ((position & CLOSED) != 0) {
+                return false;
+            }
+
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - position;
+
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    elements.set(index, element);
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+            } else if (difference < 0) {
+                // the slot still holds the element of the previous lap
+                return false;
+            }
+
+            position = tail.get();
+        }
+    }
+
+    /**
+     * Must only be called by the consumer thread.
+     *
+     * @return the oldest element, or null if no element has been published yet
+     */
+    public E poll() {
+        long position = head;
+        int index = (int) position & mask;
+        if (sequences.get(index) != position + 1) {
+            return null;
+        }
+
+        E element = elements.get(index);
+        elements.set(index, null);
+        sequences.set(index, position + mask + 1);
+        head = position + 1;
+        return element;
+    }
+
+    /**
+     * Must only be called by the consumer thread.
+     *
+     * @param target
+     * @param max
+     * @return the number of elements moved to the target
+     */
+    public int drainTo(Collection<? super E> target, int max) {
+        int count = 0;
+        E element;
+        while (count < max && (element = poll()) != null) {
+            target.add(element);
+            count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * Stops producers from claiming further slots. Elements offered successfully before are still taken by the
+     * consumer; once {@link #isEmpty()} returns true after closing, every one of them has been taken.
+     */
+    public void close() {
+        long position = tail.get();
+        while ((position & CLOSED) == 0 && !tail.compareAndSet(position, position | CLOSED)) {
+            position = tail.get();
+        }
+    }
+
+    public boolean isClosed() {
+        return (tail.get() & CLOSED) != 0;
+    }
+
+    /**
+     * @return true if every claimed slot has been taken; a slot claimed by a producer that has not published its element
+     * yet counts as not taken
+     */
+    public boolean isEmpty() {
+        return head == (tail.get() & ~CLOSED);
+    }
+
+    /**
+     * @return the number of claimed slots; an estimate while producers or the consumer are active
+     */
+    public int size() {
+        return (int) Math.max(0, Math.min((tail.get() & ~CLOSED) - head, capacity()));
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import com.google.common.base.MoreObjects;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * {@link PrincipalIdentity} that is nothing but its identity string, used for identities that are only known by name,
+ * such as those inherited through an {@link IdentityHierarchy}.
+ *
+ * @author Dustin Sweigart <dustin@swigg.net>
+ */
+public final class SimplePrincipalIdentity implements PrincipalIdentity {
+    private final String principalIdentity;
+
+    public SimplePrincipalIdentity(String principalIdentity) {
+        this.principalIdentity = checkNotNull(principalIdentity);
+    }
+
+    @Override
+    public String getPrincipalIdentity() {
+        return principalIdentity;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        return principalIdentity.equals(((SimplePrincipalIdentity) o).principalIdentity);
+    }
+
+    @Override
+    public int hashCode() {
+        return principalIdentity.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("principalIdentity", principalIdentity)
+                .toString();
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.mysema.query.Tuple;
+import com.mysema.query.jpa.impl.JPAQuery;
+import com.mysema.query.types.Predicate;
+import com.mysema.query.types.path.StringPath;
+import org.apache.shiro.authz.Permission;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * {@link PermissionFetcher} that keeps every {@link DATPermission} in an in-memory snapshot, indexed per principal
+ * identity with a {@link PermissionIndex}.
+ * <p/>
+ * Rows are read as a projection straight into {@link ImmutableDATPermission}s, so no entities are loaded into, or kept
+ * managed by, the persistence context. Readers never lock. {@link #load()} builds a new snapshot and swaps it in,
+ * {@link #refresh(Collection)} only reloads the rows of the given principal identities and replaces their entries one
+ * by one. Until {@link #load()} has been called the snapshot is empty. When registered with
+ * {@link PermissionChangePublisher} the identities of committed grant changes are refreshed automatically, in a new
+ * read-only transaction if a {@link #setTransactionManager(PlatformTransactionManager) transaction manager} is set.
+ * {@link PermissionSnapshotListener}s are notified around every {@link #load()}.
+ *
+ * @author Dustin Sweigart <dustin@swigg.net>
+ */
+public class SnapshotPermissionFetcher implements PermissionFetcher, PermissionChangeListener {
+    static private final Logger LOGGER = LoggerFactory.getLogger(SnapshotPermissionFetcher.class);
+
+    @PersistenceContext
+    private final EntityManager entityManager;
+
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<Snapshot>(new Snapshot());
+
+    private final List<PermissionSnapshotListener> snapshotListeners = new CopyOnWriteArrayList<PermissionSnapshotListener>();
+
+    private TransactionTemplate transactionTemplate;
+
+    public SnapshotPermissionFetcher(final EntityManager entityManager) {
+        this.entityManager = entityManager;
+    }
+
+    @Override
+    public Set<? extends Permission> fetchPermissions(Collection<PrincipalIdentity> identities, Permission... permissions) {
+        Snapshot current = snapshot.get();
+
+        Set<Permission> result = Sets.newHashSet();
+        for (PrincipalIdentity identity : identities) {
+            PermissionIndex index = current.get(identity.getPrincipalIdentity());
+            if (index == null) {
+                continue;
+            }
+
+            if (permissions.length == 0) {
+                result.addAll(index.getPermissions());
+            } else {
+                for (Permission permission : permissions) {
+                    Permission grant = index.findImplying(permission);
+                    if (grant != null) {
+                        result.add(grant);
+                    }
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Loads every permission and replaces the current snapshot.
+     */
+    @Transactional(readOnly = true)
+    public synchronized void load() {
+        for (PermissionSnapshotListener listener : snapshotListeners) {
+            listener.beforeSnapshotLoad();
+        }
+
+        long start = System.currentTimeMillis();
+        List<DATPermission> permissions = select(null);
+
+        Snapshot loaded = new Snapshot();
+        for (Map.Entry<String, PermissionIndex> entry : index(permissions).entrySet()) {
+            loaded.put(entry.getKey(), entry.getValue());
+        }
+        snapshot.set(loaded);
+
+        for (PermissionSnapshotListener listener : snapshotListeners) {
+            listener.snapshotLoaded(Collections.unmodifiableList(permissions));
+        }
+
+        LOGGER.info("Loaded {} permissions for {} principal identities in {}ms",
+                permissions.size(), loaded.indexes.size(), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Reloads the permissions of the principal identities and replaces only their entries in the current snapshot.
+     *
+     * @param principalIdentities
+     */
+    @Transactional(readOnly = true)
+    public synchronized void refresh(Collection<String> principalIdentities) {
+        if (principalIdentities.isEmpty()) {
+            return;
+        }
+
+        QDATPermission wcPerm = new QDATPermission("permission");
+        Map<String, PermissionIndex> refreshed = index(select(wcPerm.principalIdentity.in(principalIdentities)));
+
+        Snapshot current = snapshot.get();
+        for (String principalIdentity : principalIdentities) {
+            current.put(principalIdentity, refreshed.get(principalIdentity));
+        }
+
+        LOGGER.debug("Refreshed permissions of {}", principalIdentities);
+    }
+
+    @Override
+    public void permissionsChanged(Collection<PermissionChange> changes) {
+        final Set<String> principalIdentities = Sets.newHashSet();
+        for (PermissionChange change : changes) {
+            if (change.getPrincipalIdentity() != null) {
+                principalIdentities.add(change.getPrincipalIdentity());
+            }
+        }
+
+        if (transactionTemplate == null) {
+            refresh(principalIdentities);
+            return;
+        }
+
+        // @Transactional does not apply to this self-invocation
+        transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                refresh(principalIdentities);
+            }
+        });
+    }
+
+    /**
+     * Sets the transaction manager used to refresh the snapshot on {@link #permissionsChanged(Collection)}. Changes are
+     * published after the changing transaction has committed, so the refresh runs in a new read-only transaction.
+     * Without one every query of a refresh runs on its own.
+     *
+     * @param transactionManager
+     */
+    public void setTransactionManager(PlatformTransactionManager transactionManager) {
+        TransactionTemplate template = new TransactionTemplate(transactionManager);
+        template.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        template.setReadOnly(true);
+        this.transactionTemplate = template;
+    }
+
+    public void addSnapshotListener(PermissionSnapshotListener listener) {
+        snapshotListeners.add(checkNotNull(listener));
+    }
+
+    public void removeSnapshotListener(PermissionSnapshotListener listener) {
+        snapshotListeners.remove(listener);
+    }
+
+    /**
+     * @return the number of permissions in the current snapshot
+     */
+    public int size() {
+        return snapshot.get().size.get();
+    }
+
+    public EntityManager getEntityManager() {
+        return entityManager;
+    }
+
+    /**
+     * Selects the matching permissions with three projections: the permission rows, their actions and their targets.
+     * Joining the collections separately keeps rows from being multiplied out as actions times targets.
+     *
+     * @param where restricts the permission rows, or null for every row
+     * @return
+     */
+    private List<DATPermission> select(Predicate where) {
+        QDATPermission wcPerm = new QDATPermission("permission");
+        StringPath value = new StringPath("value");
+
+        Map<Long, Row> rows = Maps.newLinkedHashMap();
+        for (Tuple tuple : new JPAQuery(getEntityManager()).from(wcPerm).where(where)
+                .list(wcPerm.id, wcPerm.principalIdentity, wcPerm.domain)) {
+            rows.put(tuple.get(wcPerm.id), new Row(tuple.get(wcPerm.principalIdentity), tuple.get(wcPerm.domain)));
+        }
+
+        // permissions committed after the first query show up in the joins only; they are picked up by their change
+        for (Tuple tuple : new JPAQuery(getEntityManager()).from(wcPerm).innerJoin(wcPerm.actions, value).where(where)
+                .list(wcPerm.id, value)) {
+            Row row = rows.get(tuple.get(wcPerm.id));
+            if (row != null) {
+                row.actions.add(tuple.get(value));
+            }
+        }
+
+        for (Tuple tuple : new JPAQuery(getEntityManager()).from(wcPerm).innerJoin(wcPerm.targets, value).where(where)
+                .list(wcPerm.id, value)) {
+            Row row = rows.get(tuple.get(wcPerm.id));
+            if (row != null) {
+                row.targets.add(tuple.get(value));
+            }
+        }
+
+        List<DATPermission> permissions = new ArrayList<DATPermission>(rows.size());
+        for (Row row : rows.values()) {
+            permissions.add(new ImmutableDATPermission(row.principalIdentity, row.domain, row.actions, row.targets));
+        }
+
+        return permissions;
+    }
+
+    private static Map<String, PermissionIndex> index(List<DATPermission> permissions) {
+        ListMultimap<String, DATPermission> byIdentity = ArrayListMultimap.create();
+        for (DATPermission permission : permissions) {
+            if (permission.getPrincipalIdentity() != null) {
+                byIdentity.put(permission.getPrincipalIdentity(), permission);
+            }
+        }
+
+        Map<String, PermissionIndex> indexes = new HashMap<String, PermissionIndex>(byIdentity.keySet().size());
+        for (String principalIdentity : byIdentity.keySet()) {
+            indexes.put(principalIdentity, PermissionIndex.build(byIdentity.get(principalIdentity)));
+        }
+
+        return indexes;
+    }
+
+    /**
+     * All permissions, indexed per principal identity. Entries are replaced whole, so a reader sees either the previous
+     * or the refreshed permissions of an identity.
+     */
+    private static final class Snapshot {
+        final ConcurrentMap<String, PermissionIndex> indexes = new ConcurrentHashMap<String, PermissionIndex>();
+
+        final AtomicInteger size = new AtomicInteger();
+
+        PermissionIndex get(String principalIdentity) {
+            return principalIdentity != null ? indexes.get(principalIdentity) : null;
+        }
+
+        /**
+         * @param principalIdentity
+         * @param index the new entry, or null to remove it
+         */
+        void put(String principalIdentity, PermissionIndex index) {
+            PermissionIndex previous = index != null ? indexes.put(principalIdentity, index) : indexes.remove(principalIdentity);
+            size.addAndGet((index != null ? index.size() : 0) - (previous != null ? previous.size() : 0));
+        }
+    }
+
+    private static final class Row {
+        final String principalIdentity;
+
+        final String domain;
+
+        final Set<String> actions = Sets.newHashSet();
+
+        final Set<String> targets = Sets.newHashSet();
+
+        Row(String principalIdentity, String domain) {
+            this.principalIdentity = principalIdentity;
+            this.domain = domain;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import com.google.common.collect.Maps;
+
+import java.util.concurrent.ConcurrentMap;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Interns the values of a permission level to small, dense integer ids so {@link WildcardPermission} can compare levels
+ * as sorted id arrays and bitmasks instead of strings.
+ * <p/>
+ * There is one table per level rather than per domain, so the ids of a level are comparable across domains and a grant
+ * with a wildcard domain can still be matched on its actions. Ids are assigned in order of first use and are never
+ * reclaimed; as long as a level has no more than {@value Long#SIZE} distinct values (which is normal for actions) every
+ * id fits in a single {@code long} bitmask.
+ *
+ * @author Dustin Sweigart <dustin@swigg.net>
+ */
+public final class SymbolTable {
+    /**
+     * id {@link #lookup(String)} returns for a value that has not been interned
+     */
+    public static final int UNKNOWN = -1;
+
+    private static final SymbolTable[] LEVELS = new SymbolTable[WildcardPermission.MAX_LEVELS];
+
+    static {
+        for (int x = 0; x < LEVELS.length; x++) {
+            LEVELS[x] = new SymbolTable();
+        }
+    }
+
+    private final ConcurrentMap<String, Integer> ids = Maps.newConcurrentMap();
+
+    private SymbolTable() {
+    }
+
+    /**
+     * @param level
+     * @return the symbol table of a permission level
+     */
+    public static SymbolTable forLevel(int level) {
+        checkArgument(level >= 0 && level < LEVELS.length, "Level must be between 0 and %s.", LEVELS.length - 1);
+        return LEVELS[level];
+    }
+
+    /**
+     * Returns the id of a value without interning it. Only grants intern their values, so an unknown value can not be
+     * matched by any grant other than a wildcard and does not need an id.
+     *
+     * @param value
+     * @return the id, or {@link #UNKNOWN}
+     */
+    public int lookup(String value) {
+        Integer id = ids.get(checkNotNull(value));
+        return id != null ? id : UNKNOWN;
+    }
+
+    /**
+     * Returns the id of a value, assigning the next free id if the value has not been seen before. Ids are never
+     * reclaimed, so only values of grants are interned; permissions that are checked use {@link #lookup(String)}.
+     *
+     * @param value
+     * @return
+     */
+    public int intern(String value) {
+        Integer id = ids.get(checkNotNull(value));
+        if (id != null) {
+            return id;
+        }
+
+        synchronized (this) {
+            id = ids.get(value);
+            if (id == null) {
+                id = ids.size();
+                ids.put(value, id);
+            }
+
+            return id;
+        }
+    }
+
+    /**
+     * @return the number of interned values
+     */
+    public int size() {
+        return ids.size();
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+/**
+ * Optional interface for {@link PrincipalIdentity}s that are a numeric id of a registered {@link IdentityType}. Grants
+ * of typed identities are stored with their fixed-width {@link IdentityType#key(int, long) key} next to their string
+ * form and looked up by either.
+ * <p/>
+ * The string form must still be available and must be the one the type formats, e.g. an account with type code 1
+ * registered as {@code "account:"} and id 4 must return {@code "account:4"} from {@link
+ * PrincipalIdentity#getPrincipalIdentity()}.
+ *
+ * @author Dustin Sweigart <dustin@swigg.net>
+ */
+public interface TypedIdentity {
+    /**
+     * @return the code of the {@link IdentityType}
+     */
+    int getIdentityType();
+
+    /**
+     * @return the numeric id within the type, or a negative value if the identity has none yet (e.g. an unsaved
+     * entity); such identities have no key and are only matched on their string form
+     */
+    long getIdentityId();
+}
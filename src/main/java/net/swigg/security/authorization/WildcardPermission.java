@@ -18,15 +18,23 @@
 package net.swigg.security.authorization;
 
 import com.google.common.base.MoreObjects;
-import com.google.common.collect.Maps;
+import com.google.common.collect.ImmutableMap;
 import org.apache.shiro.authz.Permission;
-import org.apache.shiro.util.CollectionUtils;
 
-import java.util.*;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
 
 /**
- * Permission based on the premise of {@link org.apache.shiro.authz.permission.WildcardPermission}, but using precomputed
- * value hashes when running {@link #implies(Permission)}.
+ * Permission based on the premise of {@link org.apache.shiro.authz.permission.WildcardPermission}, but with every level
+ * interned into a {@link SymbolTable} ahead of {@link #implies(Permission)}. Each level is kept as a sorted array of
+ * symbol ids plus a bitmask of those ids, so a level of this permission implies the same level of another permission
+ * when it is a wildcard or a superset of it: {@code account:read,write} implies {@code account:read}. The subset test
+ * is a single bitwise operation while the level has no more than {@value Long#SIZE} distinct values, and falls back to
+ * a merge of the sorted ids after a bitmask prefilter otherwise.
  *
  * @author Dustin Sweigart <dustin@swigg.net>
  */
@@ -35,22 +43,82 @@ public class WildcardPermission implements Permission {
     protected static final String DIVIDER = ":";
     protected static final String SUBDIVIDER = ",";
 
-    private final Map<Integer, Integer> levelHash;
+    /**
+     * The maximum number of levels a permission may have; limited by the width of the level bitmasks.
+     */
+    protected static final int MAX_LEVELS = Long.SIZE;
+
+    private static final int[] NO_SYMBOLS = new int[0];
+
+    private static final int[][] EMPTY = new int[0][];
+
+    /**
+     * sorted symbol ids of each level, indexed by level; empty for wildcard levels
+     */
+    private int[][] levelSymbols;
+
+    /**
+     * bitmask of the symbol ids of each level, indexed by level; exact for the levels in {@link #levelExact}
+     */
+    private long[] levelBits;
+
+    /**
+     * bitmask of the levels that have been assigned a value
+     */
+    private long levelDefined;
+
+    /**
+     * bitmask of the levels that contain a wildcard
+     */
+    private long levelWildcard;
+
+    /**
+     * bitmask of the levels whose symbol ids all fit in {@link #levelBits}
+     */
+    private long levelExact;
+
+    /**
+     * bitmask of the levels that contain a value no grant has, see {@link #isQuery()}
+     */
+    private long levelUnknown;
+
+    /**
+     * values of the levels in {@link #levelUnknown}, indexed by level, so they can be looked up again
+     */
+    private String[][] unknownValues;
+
+    /**
+     * this permission with every value known, once {@link #resolve()} has found them all
+     */
+    private volatile WildcardPermission resolved;
 
-    private final Map<Integer, Boolean> levelWildcard;
+    private final boolean query;
 
     /**
      * Designated constructor.
      */
     protected WildcardPermission() {
-        this.levelHash = Maps.newHashMap();
-        this.levelWildcard = Maps.newHashMap();
+        this(false);
+    }
+
+    /**
+     * @param query whether this permission is only checked against grants, see {@link #isQuery()}
+     */
+    protected WildcardPermission(boolean query) {
+        this.levelSymbols = EMPTY;
+        this.levelBits = new long[0];
+        this.query = query;
     }
 
     public WildcardPermission(String permission) {
-        this();
+        this(permission, false);
+    }
+
+    protected WildcardPermission(String permission, boolean query) {
+        this(query);
 
         String[] parts = permission.split(DIVIDER);
+        checkArgument(parts.length <= MAX_LEVELS, "Wildcard permissions can not have more than %s parts.", MAX_LEVELS);
 
         int x = 0;
         for (String part : parts) {
@@ -58,37 +126,147 @@ public class WildcardPermission implements Permission {
             if (trimmed.isEmpty()) {
                 throw new IllegalArgumentException("Wildcard parts can not be empty.");
             }
-            List<String> subdivisions = CollectionUtils.asList(trimmed.split(SUBDIVIDER));
-            levelHash(x, subdivisions.toArray(new String[subdivisions.size()]));
+            setLevel(x, trimmed.split(SUBDIVIDER));
             x++;
         }
     }
 
+    /**
+     * Creates a permission that is only checked against grants, see {@link #isQuery()}.
+     *
+     * @param permission
+     * @return
+     */
+    public static WildcardPermission forQuery(String permission) {
+        return new WildcardPermission(permission, true);
+    }
+
+    /**
+     * Query permissions are checked against grants but never granted themselves. Their values are looked up in the
+     * {@link SymbolTable}s without being interned, so checking arbitrary strings (e.g. targets taken from a request)
+     * does not grow the tables. A value no grant has been built with yet is kept as a string and looked up again when
+     * the permission is checked, since the grant that has it may only be loaded for that check.
+     *
+     * @return true if this permission is a query
+     */
+    public boolean isQuery() {
+        return query;
+    }
+
+    /**
+     * Returns this permission with the values that were unknown when it was built looked up again. Values that are still
+     * unknown get {@link SymbolTable#UNKNOWN}, which only a wildcard implies. Symbols are never reclaimed, so once every
+     * value is known the result is kept.
+     *
+     * @return this permission if every value was known when it was built, otherwise a resolved copy
+     */
+    WildcardPermission resolve() {
+        if (levelUnknown == 0) {
+            return this;
+        }
+
+        WildcardPermission current = resolved;
+        if (current != null) {
+            return current;
+        }
+
+        WildcardPermission copy = new WildcardPermission(true);
+        copy.levelSymbols = levelSymbols.clone();
+        copy.levelBits = levelBits.clone();
+        copy.levelDefined = levelDefined;
+        copy.levelWildcard = levelWildcard;
+        copy.levelExact = levelExact;
+        copy.levelUnknown = levelUnknown;
+        copy.unknownValues = unknownValues.clone();
+        for (long unknown = levelUnknown; unknown != 0; unknown &= unknown - 1) {
+            int level = Long.numberOfTrailingZeros(unknown);
+            copy.setLevel(level, unknownValues[level]);
+        }
+
+        if (copy.levelUnknown == 0) {
+            resolved = copy;
+        }
+
+        return copy;
+    }
+
+    /**
+     * Returns a hash of each defined level keyed by level. Intended for diagnostics; {@link #implies(Permission)} works
+     * directly against the symbol ids.
+     *
+     * @return
+     */
     public Map<Integer, Integer> getLevelHash() {
-        return levelHash;
+        ImmutableMap.Builder<Integer, Integer> builder = ImmutableMap.builder();
+        for (int x = 0; x < levelSymbols.length; x++) {
+            if (isSet(levelDefined, x)) {
+                builder.put(x, isSet(levelWildcard, x) ? WILDCARD.hashCode() : Arrays.hashCode(levelSymbols[x]));
+            }
+        }
+
+        return builder.build();
     }
 
-    protected int levelHash(Integer level, String... items) {
+    protected void setLevel(Integer level, String... items) {
+        checkArgument(level >= 0 && level < MAX_LEVELS, "Level must be between 0 and %s.", MAX_LEVELS - 1);
+
         if (items == null || items.length == 0) {
             items = new String[]{WILDCARD};
         }
 
-        Boolean isWildcard = false;
-        Arrays.sort(items);
-        int levelValue = Arrays.hashCode(items);
+        boolean isWildcard = false;
         for (String item : items) {
             isWildcard = isWildcard || WILDCARD.equals(item);
         }
 
-        this.levelHash.put(level, levelValue);
-        this.levelWildcard.put(level, isWildcard);
+        int[] symbols = NO_SYMBOLS;
+        long bits = 0;
+        boolean exact = true;
+        boolean unknown = false;
+        if (!isWildcard) {
+            SymbolTable symbolTable = SymbolTable.forLevel(level);
+            symbols = new int[items.length];
+            for (int x = 0; x < items.length; x++) {
+                symbols[x] = query ? symbolTable.lookup(items[x]) : symbolTable.intern(items[x]);
+                if (symbols[x] == SymbolTable.UNKNOWN) {
+                    // not in any bitmask, so the subset test falls back to the ids and fails on it
+                    unknown = true;
+                    exact = false;
+                } else {
+                    bits |= 1L << (symbols[x] & (Long.SIZE - 1));
+                    exact = exact && symbols[x] < Long.SIZE;
+                }
+            }
+            symbols = distinct(symbols);
+        }
 
-        return levelValue;
+        if (level >= this.levelSymbols.length) {
+            this.levelSymbols = Arrays.copyOf(this.levelSymbols, level + 1);
+            this.levelBits = Arrays.copyOf(this.levelBits, level + 1);
+        }
+
+        long bit = 1L << level;
+        this.levelSymbols[level] = symbols;
+        this.levelBits[level] = bits;
+        this.levelDefined |= bit;
+        this.levelWildcard = isWildcard ? (this.levelWildcard | bit) : (this.levelWildcard & ~bit);
+        this.levelExact = exact ? (this.levelExact | bit) : (this.levelExact & ~bit);
+        this.levelUnknown = unknown ? (this.levelUnknown | bit) : (this.levelUnknown & ~bit);
+        this.resolved = null;
+
+        if (unknown) {
+            if (this.unknownValues == null || level >= this.unknownValues.length) {
+                this.unknownValues = Arrays.copyOf(this.unknownValues != null ? this.unknownValues : new String[0][], level + 1);
+            }
+            this.unknownValues[level] = items.clone();
+        } else if (this.unknownValues != null && level < this.unknownValues.length) {
+            this.unknownValues[level] = null;
+        }
     }
 
-    protected int levelHash(Integer level, Collection<String> items) {
+    protected void setLevel(Integer level, Collection<String> items) {
         items = items != null ? items : Collections.<String>emptyList();
-        return levelHash(level, items.toArray(new String[items.size()]));
+        setLevel(level, items.toArray(new String[items.size()]));
     }
 
     @Override
@@ -97,16 +275,84 @@ public class WildcardPermission implements Permission {
             return false;
         }
 
-        WildcardPermission that = WildcardPermission.class.cast(p);
-        for (Integer x : this.levelHash.keySet()) {
-            if (!this.levelWildcard.get(x)) {
-                if (that.levelHash.size() < x) {
-                    return false;
-                }
+        WildcardPermission that = WildcardPermission.class.cast(p).resolve();
 
-                if (!this.levelHash.get(x).equals(that.levelHash.get((x)))) {
-                    return false;
-                }
+        // every non-wildcard level of this permission must be defined, and not be a wildcard, in the other permission
+        long required = this.levelDefined & ~this.levelWildcard;
+        if ((required & (~that.levelDefined | that.levelWildcard)) != 0) {
+            return false;
+        }
+
+        while (required != 0) {
+            int x = Long.numberOfTrailingZeros(required);
+            if ((that.levelBits[x] & ~this.levelBits[x]) != 0) {
+                return false;
+            }
+            if ((this.levelExact & that.levelExact & (1L << x)) == 0 && !containsAll(this.levelSymbols[x], that.levelSymbols[x])) {
+                return false;
+            }
+            required &= required - 1;
+        }
+
+        return true;
+    }
+
+    /**
+     * @return bitmask of the levels that have been assigned a value
+     */
+    long definedLevels() {
+        return levelDefined;
+    }
+
+    /**
+     * @return bitmask of the levels that contain a wildcard
+     */
+    long wildcardLevels() {
+        return levelWildcard;
+    }
+
+    /**
+     * @param level
+     * @return the sorted symbol ids of a defined level; must not be modified
+     */
+    int[] symbolsOfLevel(int level) {
+        return levelSymbols[level];
+    }
+
+    private static boolean isSet(long mask, int level) {
+        return (mask & (1L << level)) != 0;
+    }
+
+    /**
+     * @param symbols
+     * @return the symbols sorted and without duplicates
+     */
+    private static int[] distinct(int[] symbols) {
+        Arrays.sort(symbols);
+
+        int length = 0;
+        for (int x = 0; x < symbols.length; x++) {
+            if (length == 0 || symbols[length - 1] != symbols[x]) {
+                symbols[length++] = symbols[x];
+            }
+        }
+
+        return length == symbols.length ? symbols : Arrays.copyOf(symbols, length);
+    }
+
+    /**
+     * @param superset sorted symbol ids
+     * @param subset sorted symbol ids
+     * @return true if every id of subset is in superset
+     */
+    private static boolean containsAll(int[] superset, int[] subset) {
+        int x = 0;
+        for (int symbol : subset) {
+            while (x < superset.length && superset[x] < symbol) {
+                x++;
+            }
+            if (x == superset.length || superset[x] != symbol) {
+                return false;
             }
         }
 
@@ -116,7 +362,7 @@ public class WildcardPermission implements Permission {
     @Override
     public String toString() {
         return MoreObjects.toStringHelper(this)
-                .add("levelHash", this.levelHash.values().toArray(new Integer[this.levelHash.size()]))
+                .add("levelHash", getLevelHash().values())
                 .toString();
     }
 }
@@ -21,11 +21,13 @@ import org.apache.shiro.authz.Permission;
 import org.apache.shiro.authz.permission.PermissionResolver;
 
 /**
+ * Resolves permission strings to {@link WildcardPermission#isQuery() query} permissions.
+ *
  * @author Dustin Sweigart <dustin@swigg.net>
  */
 public class WildcardPermissionResolver implements PermissionResolver {
     @Override
     public Permission resolvePermission(String permissionString) {
-        return new WildcardPermission(permissionString);
+        return WildcardPermission.forQuery(permissionString);
     }
 }
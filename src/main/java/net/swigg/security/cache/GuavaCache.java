@@ -0,0 +1,96 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.cache;
+
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.apache.shiro.cache.Cache;
+import org.apache.shiro.cache.CacheException;
+
+import java.util.Collection;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Shiro {@link Cache} backed by a Guava {@link com.google.common.cache.Cache}.
+ *
+ * @author Dustin Sweigart <dustin@swigg.net>
+ */
+public class GuavaCache<K, V> implements Cache<K, V> {
+    private final com.google.common.cache.Cache<K, V> cache;
+
+    public GuavaCache(com.google.common.cache.Cache<K, V> cache) {
+        this.cache = checkNotNull(cache);
+    }
+
+    @Override
+    public V get(K key) throws CacheException {
+        return key != null ? cache.getIfPresent(key) : null;
+    }
+
+    @Override
+    public V put(K key, V value) throws CacheException {
+        V previous = cache.getIfPresent(key);
+        cache.put(key, value);
+        return previous;
+    }
+
+    @Override
+    public V remove(K key) throws CacheException {
+        V previous = cache.getIfPresent(key);
+        cache.invalidate(key);
+        return previous;
+    }
+
+    @Override
+    public void clear() throws CacheException {
+        cache.invalidateAll();
+    }
+
+    @Override
+    public int size() {
+        return (int) Math.min(cache.size(), Integer.MAX_VALUE);
+    }
+
+    @Override
+    public Set<K> keys() {
+        return ImmutableSet.copyOf(cache.asMap().keySet());
+    }
+
+    @Override
+    public Collection<V> values() {
+        return ImmutableList.copyOf(cache.asMap().values());
+    }
+
+    /**
+     * Hit, miss and eviction counters of the underlying cache. Only populated when the cache was built with
+     * {@link com.google.common.cache.CacheBuilder#recordStats()}.
+     *
+     * @return
+     */
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    @Override
+    public String toString() {
+        return "GuavaCache [" + cache.stats() + "]";
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.cache;
+
+import com.google.common.cache.CacheBuilder;
+import org.apache.shiro.cache.AbstractCacheManager;
+import org.apache.shiro.cache.Cache;
+import org.apache.shiro.cache.CacheException;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Shiro {@link org.apache.shiro.cache.CacheManager} that creates in-process {@link GuavaCache}s with a time to live,
+ * a maximum size and hit/miss statistics.
+ *
+ * @author Dustin Sweigart <dustin@swigg.net>
+ */
+public class GuavaCacheManager extends AbstractCacheManager {
+    public static final long DEFAULT_MAXIMUM_SIZE = 10000;
+
+    public static final long DEFAULT_TIME_TO_LIVE = 10;
+
+    public static final TimeUnit DEFAULT_TIME_TO_LIVE_UNIT = TimeUnit.MINUTES;
+
+    private long maximumSize = DEFAULT_MAXIMUM_SIZE;
+
+    private long timeToLive = DEFAULT_TIME_TO_LIVE;
+
+    private TimeUnit timeToLiveUnit = DEFAULT_TIME_TO_LIVE_UNIT;
+
+    public GuavaCacheManager() {
+    }
+
+    public GuavaCacheManager(long maximumSize, long timeToLive, TimeUnit timeToLiveUnit) {
+        setMaximumSize(maximumSize);
+        setTimeToLive(timeToLive, timeToLiveUnit);
+    }
+
+    @Override
+    protected Cache createCache(String name) throws CacheException {
+        return new GuavaCache<Object, Object>(CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(timeToLive, timeToLiveUnit)
+                .recordStats()
+                .build());
+    }
+
+    public long getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * Sets the maximum number of entries of caches created after this call.
+     *
+     * @param maximumSize
+     */
+    public void setMaximumSize(long maximumSize) {
+        checkArgument(maximumSize >= 0, "maximumSize can not be negative");
+        this.maximumSize = maximumSize;
+    }
+
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    public TimeUnit getTimeToLiveUnit() {
+        return timeToLiveUnit;
+    }
+
+    /**
+     * Sets how long entries of caches created after this call live after they have been written.
+     *
+     * @param timeToLive
+     * @param unit
+     */
+    public void setTimeToLive(long timeToLive, TimeUnit unit) {
+        checkArgument(timeToLive > 0, "timeToLive must be positive");
+        this.timeToLive = timeToLive;
+        this.timeToLiveUnit = checkNotNull(unit);
+    }
+}
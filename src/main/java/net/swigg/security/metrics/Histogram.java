@@ -0,0 +1,215 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Histogram of non-negative long values, e.g. latencies in nanoseconds or collection sizes.
+ * <p/>
+ * Values are counted in buckets that split every power of two into four, so a reported percentile is at most 25% above
+ * the actual value. Like {@link StripedCounter} each thread records into its own stripe of buckets; recording is a
+ * single atomic add in the common case. Percentiles are computed from the summed stripes when they are read.
+ *
+ * @author Dustin Sweigart <dustin@swigg.net>
+ */
+public class Histogram implements HistogramMBean {
+    static final int SUB_BUCKETS = 4;
+
+    static final int BUCKETS = bucket(Long.MAX_VALUE) + 1;
+
+    /**
+     * one row per stripe: the buckets followed by the sum of the values
+     */
+    private static final int ROW = BUCKETS + 1;
+
+    private final String unit;
+
+    private final AtomicLongArray rows;
+
+    private final int mask;
+
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param unit the unit of the recorded values, e.g. {@code ns}
+     */
+    public Histogram(String unit) {
+        this(unit, StripedCounter.defaultStripes());
+    }
+
+    public Histogram(String unit, int stripes) {
+        int size = Integer.highestOneBit(Math.max(1, stripes - 1) << 1);
+        this.unit = unit;
+        this.rows = new AtomicLongArray(size * ROW);
+        this.mask = size - 1;
+    }
+
+    public void record(long value) {
+        checkArgument(value >= 0, "value must not be negative");
+
+        int row = StripedCounter.stripe(mask) * ROW;
+        rows.incrementAndGet(row + bucket(value));
+        rows.addAndGet(row + BUCKETS, value);
+
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * @param quantile between 0 and 1
+     * @return the upper bound of the bucket holding the quantile, or 0 if nothing has been recorded
+     */
+    public long percentile(double quantile) {
+        checkArgument(quantile >= 0 && quantile <= 1);
+
+        long[] counts = counts();
+        long count = 0;
+        for (long bucketCount : counts) {
+            count += bucketCount;
+        }
+
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(quantile * count));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += counts[bucket];
+            if (seen >= rank) {
+                return Math.min(upperBound(bucket), max.get());
+            }
+        }
+
+        return max.get();
+    }
+
+    @Override
+    public String getUnit() {
+        return unit;
+    }
+
+    @Override
+    public long getCount() {
+        long count = 0;
+        for (long bucketCount : counts()) {
+            count += bucketCount;
+        }
+
+        return count;
+    }
+
+    public long getSum() {
+        long sum = 0;
+        for (int row = 0; row < rows.length(); row += ROW) {
+            sum += rows.get(row + BUCKETS);
+        }
+
+        return sum;
+    }
+
+    @Override
+    public double getMean() {
+        long count = getCount();
+        return count > 0 ? (double) getSum() / count : 0;
+    }
+
+    @Override
+    public long getMax() {
+        return max.get();
+    }
+
+    @Override
+    public long getP50() {
+        return percentile(0.5);
+    }
+
+    @Override
+    public long getP90() {
+        return percentile(0.9);
+    }
+
+    @Override
+    public long getP99() {
+        return percentile(0.99);
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < rows.length(); i++) {
+            rows.set(i, 0);
+        }
+
+        max.set(0);
+    }
+
+    private long[] counts() {
+        long[] counts = new long[BUCKETS];
+        for (int row = 0; row < rows.length(); row += ROW) {
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                counts[bucket] += rows.get(row + bucket);
+            }
+        }
+
+        return counts;
+    }
+
+    /**
+     * Values below {@link #SUB_BUCKETS} have a bucket each; above that every power of two is split into {@link
+     * #SUB_BUCKETS} buckets by the two bits below the highest one.
+     *
+     * @param value
+     * @return
+     */
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - 2)) & (SUB_BUCKETS - 1);
+        return (exponent - 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @param bucket
+     * @return the largest value counted in the bucket
+     */
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+
+        int exponent = bucket / SUB_BUCKETS + 1;
+        long width = 1L << (exponent - 2);
+        long lower = (SUB_BUCKETS + bucket % SUB_BUCKETS) * width;
+        return lower + (width - 1);
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount() + ", mean=" + getMean() + ", p50=" + getP50() + ", p99=" + getP99()
+                + ", max=" + getMax() + " " + unit;
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter for hot paths. Each thread adds to one of several stripes, spread a cache line apart, so concurrent updates
+ * do not contend on a single value. Reading sums all stripes and is therefore only consistent once writers are quiet.
+ *
+ * @author Dustin Sweigart <dustin@swigg.net>
+ */
+public class StripedCounter {
+    /**
+     * longs per cache line; only the first slot of each line is used
+     */
+    static final int PADDING = 8;
+
+    private final AtomicLongArray stripes;
+
+    private final int mask;
+
+    public StripedCounter() {
+        this(defaultStripes());
+    }
+
+    /**
+     * @param stripes rounded up to a power of two
+     */
+    public StripedCounter(int stripes) {
+        int size = Integer.highestOneBit(Math.max(1, stripes - 1) << 1);
+        this.stripes = new AtomicLongArray(size * PADDING);
+        this.mask = size - 1;
+    }
+
+    public void increment() {
+        add(1);
+    }
+
+    public void add(long delta) {
+        stripes.addAndGet(stripe(mask) * PADDING, delta);
+    }
+
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < stripes.length(); i += PADDING) {
+            sum += stripes.get(i);
+        }
+
+        return sum;
+    }
+
+    public void reset() {
+        for (int i = 0; i < stripes.length(); i += PADDING) {
+            stripes.set(i, 0);
+        }
+    }
+
+    /**
+     * @return twice the number of processors, so threads rarely share a stripe
+     */
+    static int defaultStripes() {
+        return Runtime.getRuntime().availableProcessors() * 2;
+    }
+
+    /**
+     * @param mask
+     * @return the stripe of the current thread
+     */
+    static int stripe(int mask) {
+        long id = Thread.currentThread().getId();
+        return (int) (id ^ (id >>> 7)) & mask;
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(sum());
+    }
+}
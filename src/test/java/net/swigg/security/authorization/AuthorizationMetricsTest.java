@@ -0,0 +1,139 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import com.google.common.collect.ImmutableList;
+import net.swigg.security.cache.GuavaCacheManager;
+import org.apache.shiro.authz.UnauthorizedException;
+import org.apache.shiro.subject.PrincipalCollection;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import static net.swigg.security.authorization.AuthorizingRealmTest.CountingPermissionFetcher;
+import static net.swigg.security.authorization.AuthorizingRealmTest.TestRealm;
+import static net.swigg.security.authorization.AuthorizingRealmTest.principals;
+import static org.junit.Assert.*;
+
+public class AuthorizationMetricsTest {
+    AuthorizationMetrics metrics;
+
+    TestRealm realm;
+
+    @Before
+    public void setUp() throws Exception {
+        metrics = new AuthorizationMetrics("test");
+
+        CountingPermissionFetcher permissionFetcher = new CountingPermissionFetcher(
+                new DATPermission("role:member", "account:read:*"),
+                new DATPermission("account:1", "account:delete:account-1"),
+                new DATPermission("account:1", "account:update:account-1"));
+        realm = new TestRealm(new InstrumentedPermissionFetcher(permissionFetcher, metrics));
+        realm.setCacheManager(new GuavaCacheManager());
+        realm.setMetrics(metrics);
+    }
+
+    @Test
+    public void testRecordsChecksFetchesAndCache() throws Exception {
+        PrincipalCollection account1 = principals("account:1", "role:member");
+        PrincipalCollection account2 = principals("account:2", "role:member");
+
+        assertTrue(realm.isPermitted(account1, "account:read:account-2"));
+        assertTrue(realm.isPermitted(account2, "account:read:account-2"));
+        realm.checkPermission(account1, "account:delete:account-1");
+        try {
+            realm.checkPermission(account2, "account:delete:account-1");
+            fail();
+        } catch (UnauthorizedException e) {
+            // expected
+        }
+        assertTrue(realm.hasRole(account1, "role:member"));
+        assertFalse(realm.hasAllRoles(account2, ImmutableList.of("role:member", "role:admin")));
+
+        assertEquals(2, metrics.getPermissionChecks());
+        assertEquals(2, metrics.getPermissionAssertions());
+        assertEquals(2, metrics.getRoleChecks());
+        assertTrue(metrics.getLatency(AuthorizationMetrics.Operation.IS_PERMITTED).getMax() > 0);
+
+        // account:1 and role:member, then account:2
+        assertEquals(2, metrics.getFetches());
+        assertEquals(3, metrics.getFetchedRows());
+        assertEquals(3, metrics.getCacheMisses());
+        assertEquals(5, metrics.getCacheHits());
+        assertEquals(5.0 / 8, metrics.getCacheHitRatio(), 0.0001);
+
+        assertEquals(3, metrics.getGrantSetSizes().getCount());
+        assertArrayEquals(new String[]{"account:1=2", "role:member=1", "account:2=0"}, metrics.getLargestGrantSets());
+
+        metrics.reset();
+        assertEquals(0, metrics.getPermissionChecks());
+        assertEquals(0, metrics.getFetches());
+        assertEquals(0, metrics.getLargestGrantSets().length);
+    }
+
+    @Test
+    public void testLargestGrantSetsAreBounded() throws Exception {
+        for (int i = 0; i < AuthorizationMetrics.LARGEST_GRANT_SETS * 2; i++) {
+            metrics.recordGrantSetSize("account:" + i, i);
+        }
+        metrics.recordGrantSetSize("account:0", 100);
+
+        String[] largest = metrics.getLargestGrantSets();
+        assertEquals(AuthorizationMetrics.LARGEST_GRANT_SETS, largest.length);
+        assertEquals("account:0=100", largest[0]);
+        assertEquals("account:19=19", largest[1]);
+    }
+
+    @Test
+    public void testLargestGrantSetsForgetShrunkSizes() throws Exception {
+        for (int i = 0; i < AuthorizationMetrics.LARGEST_GRANT_SETS; i++) {
+            metrics.recordGrantSetSize("account:" + i, 10 + i);
+        }
+        metrics.recordGrantSetSize("account:9", 1);
+
+        String[] largest = metrics.getLargestGrantSets();
+        assertEquals(AuthorizationMetrics.LARGEST_GRANT_SETS, largest.length);
+        assertEquals("account:8=18", largest[0]);
+        assertEquals("account:9=1", largest[largest.length - 1]);
+    }
+
+    @Test
+    public void testRegister() throws Exception {
+        MBeanServer server = MBeanServerFactory.newMBeanServer();
+        metrics.register(server);
+        realm.isPermitted(principals("account:1"), "account:read:account-2");
+
+        ObjectName name = metrics.objectName(null);
+        assertEquals(1L, server.getAttribute(name, "PermissionChecks"));
+        assertEquals(1L, server.getAttribute(metrics.objectName("isPermitted"), "Count"));
+        assertEquals("grants", server.getAttribute(metrics.objectName("grantSetSize"), "Unit"));
+
+        // registering again replaces the previous MBeans
+        metrics.register(server);
+
+        server.invoke(name, "reset", new Object[0], new String[0]);
+        assertEquals(0L, server.getAttribute(name, "Fetches"));
+
+        metrics.unregister(server);
+        assertFalse(server.isRegistered(name));
+        assertTrue(server.queryNames(new ObjectName(AuthorizationMetrics.DOMAIN + ":*"), null).isEmpty());
+    }
+}
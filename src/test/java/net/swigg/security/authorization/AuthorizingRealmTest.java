@@ -0,0 +1,367 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import net.swigg.security.cache.GuavaCache;
+import net.swigg.security.cache.GuavaCacheManager;
+import org.apache.shiro.authc.AuthenticationException;
+import org.apache.shiro.authc.AuthenticationInfo;
+import org.apache.shiro.authc.AuthenticationToken;
+import org.apache.shiro.authz.Permission;
+import org.apache.shiro.authz.UnauthorizedException;
+import org.apache.shiro.subject.PrincipalCollection;
+import org.apache.shiro.subject.SimplePrincipalCollection;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class AuthorizingRealmTest {
+    private CountingPermissionFetcher permissionFetcher;
+
+    private TestRealm realm;
+
+    @Before
+    public void setUp() throws Exception {
+        permissionFetcher = new CountingPermissionFetcher(
+                new DATPermission("role:member", "account:read:*"),
+                new DATPermission("account:1", "account:delete:account-1"));
+        realm = new TestRealm(permissionFetcher);
+    }
+
+    @Test
+    public void testWithoutCache() throws Exception {
+        PrincipalCollection principals = principals("account:1", "role:member");
+
+        assertTrue(realm.isPermitted(principals, "account:read:account-2"));
+        assertTrue(realm.isPermitted(principals, "account:read:account-2"));
+        assertEquals(2, permissionFetcher.fetches);
+    }
+
+    @Test
+    public void testCachesGrantsPerIdentity() throws Exception {
+        realm.setCacheManager(new GuavaCacheManager());
+
+        PrincipalCollection account1 = principals("account:1", "role:member");
+        PrincipalCollection account2 = principals("account:2", "role:member");
+
+        assertTrue(realm.isPermitted(account1, "account:read:account-2"));
+        assertTrue(realm.isPermitted(account1, "account:delete:account-1"));
+        assertEquals(1, permissionFetcher.fetches);
+
+        // role:member is already cached, only account:2 is fetched
+        assertTrue(realm.isPermitted(account2, "account:read:account-2"));
+        assertEquals(2, permissionFetcher.fetches);
+        assertEquals(ImmutableList.of("account:2"), permissionFetcher.lastIdentities);
+
+        GuavaCache cache = (GuavaCache) realm.getPermissionCache();
+        assertEquals(3, cache.size());
+        assertTrue(cache.stats().hitCount() > 0);
+    }
+
+    @Test
+    public void testCachesDenials() throws Exception {
+        realm.setCacheManager(new GuavaCacheManager());
+
+        PrincipalCollection principals = principals("account:3");
+        assertFalse(realm.isPermitted(principals, "account:delete:account-1"));
+        assertFalse(realm.isPermitted(principals, "account:delete:account-1"));
+        assertFalse(realm.isPermitted(principals, "account:read:account-1"));
+        assertEquals(1, permissionFetcher.fetches);
+    }
+
+    @Test
+    public void testClearCachedPermissions() throws Exception {
+        realm.setCacheManager(new GuavaCacheManager());
+
+        PrincipalCollection principals = principals("account:3");
+        assertFalse(realm.isPermitted(principals, "account:delete:account-3"));
+
+        permissionFetcher.grants.add(new DATPermission("account:3", "account:delete:account-3"));
+        assertFalse(realm.isPermitted(principals, "account:delete:account-3"));
+
+        realm.clearCachedPermissions("account:3");
+        assertTrue(realm.isPermitted(principals, "account:delete:account-3"));
+        assertEquals(2, permissionFetcher.fetches);
+    }
+
+    @Test
+    public void testChecksValuesOnlyLoadedGrantsHave() throws Exception {
+        realm = new TestRealm(new CountingPermissionFetcher() {
+            @Override
+            public Set<? extends Permission> fetchPermissions(Collection<PrincipalIdentity> identities, Permission... permissions) {
+                if (grants.isEmpty()) {
+                    // like a loaded entity, the grant only interns its values once it is fetched
+                    grants.add(new DATPermission("role:member", "fetched-report:fetched-export:fetched-report-1"));
+                }
+                return super.fetchPermissions(identities, permissions);
+            }
+        });
+
+        PrincipalCollection principals = principals("role:member");
+        assertTrue(realm.isPermitted(principals, "fetched-report:fetched-export:fetched-report-1"));
+        assertFalse(realm.isPermitted(principals, "fetched-report:fetched-export:fetched-report-2"));
+
+        realm.setCacheManager(new GuavaCacheManager());
+        assertTrue(realm.isPermitted(principals, "fetched-report:fetched-export:fetched-report-1"));
+        assertTrue(realm.isPermitted(principals, "fetched-report:fetched-export:fetched-report-1"));
+    }
+
+    @Test
+    public void testChangeDuringFetchIsNotCached() throws Exception {
+        final DATPermission revoked = new DATPermission("account:1", "account:delete:account-1");
+        realm = new TestRealm(new CountingPermissionFetcher(revoked) {
+            @Override
+            public Set<? extends Permission> fetchPermissions(Collection<PrincipalIdentity> identities, Permission... permissions) {
+                Set<? extends Permission> result = super.fetchPermissions(identities, permissions);
+                if (fetches == 1) {
+                    // the revocation is committed and published while the old grants are on their way to the cache
+                    grants.remove(revoked);
+                    realm.permissionsChanged(ImmutableList.of(
+                            new PermissionChange(PermissionChange.TYPE.REMOVED, "account:1", "account")));
+                }
+                return result;
+            }
+        });
+        realm.setCacheManager(new GuavaCacheManager());
+
+        PrincipalCollection principals = principals("account:1");
+        assertTrue(realm.isPermitted(principals, "account:delete:account-1"));
+        assertEquals(0, realm.getPermissionCache().size());
+        assertFalse(realm.isPermitted(principals, "account:delete:account-1"));
+        assertFalse(realm.isPermitted(principals, "account:delete:account-1"));
+        assertEquals(1, realm.getPermissionCache().size());
+    }
+
+    @Test
+    public void testPermissionCachingDisabled() throws Exception {
+        realm.setPermissionCachingEnabled(false);
+        realm.setCacheManager(new GuavaCacheManager());
+
+        PrincipalCollection principals = principals("role:member");
+        assertTrue(realm.isPermitted(principals, "account:read:account-2"));
+        assertTrue(realm.isPermitted(principals, "account:read:account-2"));
+        assertEquals(2, permissionFetcher.fetches);
+        assertNull(realm.getPermissionCache());
+    }
+
+    @Test
+    public void testBatchUsesSingleFetch() throws Exception {
+        PrincipalCollection principals = principals("account:1", "role:member");
+
+        boolean[] result = realm.isPermitted(principals, "account:read:account-2", "account:delete:account-1", "account:delete:account-2");
+        assertTrue(Arrays.equals(new boolean[]{true, true, false}, result));
+        assertEquals(1, permissionFetcher.fetches);
+
+        assertTrue(realm.isPermittedAll(principals, "account:read:account-2", "account:delete:account-1"));
+        assertFalse(realm.isPermittedAll(principals, "account:read:account-2", "account:delete:account-2"));
+        assertEquals(3, permissionFetcher.fetches);
+
+        realm.checkPermissions(principals, "account:read:account-2", "account:delete:account-1");
+        assertEquals(4, permissionFetcher.fetches);
+    }
+
+    @Test(expected = UnauthorizedException.class)
+    public void testCheckPermissionsDenied() throws Exception {
+        realm.checkPermissions(principals("account:1"), "account:delete:account-1", "account:delete:account-2");
+    }
+
+    @Test
+    public void testEmptyBatchDoesNotFetch() throws Exception {
+        assertTrue(realm.isPermittedAll(principals("account:1"), new String[0]));
+        assertEquals(0, realm.isPermitted(principals("account:1"), new String[0]).length);
+        assertEquals(0, permissionFetcher.fetches);
+    }
+
+    @Test
+    public void testParallelEvaluation() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            realm.setParallelExecutor(executor);
+            realm.setParallelThreshold(8);
+
+            PrincipalCollection principals = principals("account:1", "role:member");
+            String[] permissions = new String[200];
+            for (int x = 0; x < permissions.length; x++) {
+                permissions[x] = "account:read:account-" + x;
+            }
+            assertTrue(realm.isPermittedAll(principals, permissions));
+
+            permissions[150] = "account:delete:account-150";
+            permissions[170] = "account:delete:account-170";
+            assertFalse(realm.isPermittedAll(principals, permissions));
+
+            boolean[] result = realm.isPermitted(principals, permissions);
+            for (int x = 0; x < result.length; x++) {
+                assertEquals(x != 150 && x != 170, result[x]);
+            }
+
+            try {
+                realm.checkPermissions(principals, permissions);
+                fail();
+            } catch (UnauthorizedException e) {
+                // the first denial in list order is reported, as with sequential evaluation
+                assertTrue(e.getMessage().contains(ImmutableDATPermission.forQuery(permissions[150]).toString()));
+            }
+
+            assertEquals(4, permissionFetcher.fetches);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testParallelEvaluationFromExecutorThread() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            realm.setParallelExecutor(executor);
+            realm.setParallelThreshold(8);
+
+            final PrincipalCollection principals = principals("account:1", "role:member");
+            final String[] permissions = new String[200];
+            for (int x = 0; x < permissions.length; x++) {
+                permissions[x] = "account:read:account-" + x;
+            }
+
+            // the only thread of the executor waits for chunks queued behind itself unless it runs them
+            Future<Boolean> permitted = executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return realm.isPermittedAll(principals, permissions);
+                }
+            });
+            assertTrue(permitted.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testIdentityHierarchy() throws Exception {
+        realm.setIdentityHierarchy(IdentityHierarchy.builder()
+                .inherit("role:manager", "role:lead")
+                .inherit("role:lead", "role:member")
+                .build());
+
+        PrincipalCollection principals = principals("account:2", "role:manager");
+        assertTrue(realm.isPermitted(principals, "account:read:account-1"));
+        assertEquals(1, permissionFetcher.fetches);
+        assertEquals(ImmutableList.of("account:2", "role:manager", "role:lead", "role:member"), permissionFetcher.lastIdentities);
+
+        assertTrue(realm.hasRole(principals, "role:member"));
+        assertFalse(realm.hasRole(principals("role:member"), "role:manager"));
+    }
+
+    @Test
+    public void testRoleChecksUseMemoizedIdentities() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        PrincipalCollection principals = new SimplePrincipalCollection(new PrincipalIdentity() {
+            @Override
+            public String getPrincipalIdentity() {
+                calls.incrementAndGet();
+                return "role:" + "member";
+            }
+        }, "test");
+
+        for (int x = 0; x < 10; x++) {
+            assertTrue(realm.hasRole(principals, "role:member"));
+            assertFalse(realm.hasAllRoles(principals, ImmutableList.of("role:member", "role:admin")));
+            assertTrue(Arrays.equals(new boolean[]{false, true}, realm.hasRoles(principals, ImmutableList.of("role:admin", "role:member"))));
+        }
+        assertEquals(1, calls.get());
+
+        // a new hierarchy expands the identities again
+        realm.setIdentityHierarchy(IdentityHierarchy.builder().inherit("role:member", "role:admin").build());
+        assertTrue(realm.hasAllRoles(principals, ImmutableList.of("role:member", "role:admin")));
+        int expanded = calls.get();
+        assertTrue(expanded > 1);
+        assertTrue(realm.hasRole(principals, "role:admin"));
+        assertEquals(expanded, calls.get());
+    }
+
+    static PrincipalCollection principals(String... identities) {
+        List<PrincipalIdentity> principals = Lists.newArrayList();
+        for (final String identity : identities) {
+            principals.add(new PrincipalIdentity() {
+                @Override
+                public String getPrincipalIdentity() {
+                    return identity;
+                }
+            });
+        }
+
+        return new SimplePrincipalCollection(principals, "test");
+    }
+
+    /**
+     * {@link PermissionFetcher} that keeps grants in memory and counts how often it is called.
+     */
+    static class CountingPermissionFetcher implements PermissionFetcher {
+        final List<DATPermission> grants;
+
+        int fetches;
+
+        List<String> lastIdentities;
+
+        CountingPermissionFetcher(DATPermission... grants) {
+            this.grants = Lists.newArrayList(grants);
+        }
+
+        @Override
+        public Set<? extends Permission> fetchPermissions(Collection<PrincipalIdentity> identities, Permission... permissions) {
+            fetches++;
+            lastIdentities = Lists.newArrayList();
+            for (PrincipalIdentity identity : identities) {
+                lastIdentities.add(identity.getPrincipalIdentity());
+            }
+
+            Set<Permission> result = Sets.newHashSet();
+            for (DATPermission grant : grants) {
+                if (lastIdentities.contains(grant.getPrincipalIdentity())) {
+                    result.add(grant);
+                }
+            }
+
+            return result;
+        }
+    }
+
+    static class TestRealm extends AuthorizingRealm {
+        TestRealm(PermissionFetcher permissionFetcher) {
+            super(permissionFetcher);
+        }
+
+        @Override
+        protected AuthenticationInfo doGetAuthenticationInfo(AuthenticationToken token) throws AuthenticationException {
+            throw new AuthenticationException("test realm does not authenticate");
+        }
+    }
+}
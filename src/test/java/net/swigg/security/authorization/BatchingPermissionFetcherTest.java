@@ -0,0 +1,123 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import org.apache.shiro.authz.Permission;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+
+import static net.swigg.security.authorization.SnapshotPermissionFetcherTest.identities;
+import static org.junit.Assert.*;
+
+public class BatchingPermissionFetcherTest {
+    AuthorizingRealmTest.CountingPermissionFetcher delegate = new AuthorizingRealmTest.CountingPermissionFetcher(
+            new DATPermission("role:member", "account:read:*"),
+            new DATPermission("account:1", "account:delete:account-1"),
+            new DATPermission("account:2", "account:delete:account-2"));
+
+    BatchingPermissionFetcher permissionFetcher;
+
+    @After
+    public void tearDown() throws Exception {
+        permissionFetcher.shutdown();
+    }
+
+    @Test
+    public void testBatchesConcurrentFetches() throws Exception {
+        permissionFetcher = new BatchingPermissionFetcher(delegate, 200, TimeUnit.MILLISECONDS, 100, Executors.newScheduledThreadPool(1));
+
+        ExecutorService callers = Executors.newFixedThreadPool(20);
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<Set<? extends Permission>>> results = Lists.newArrayList();
+        for (int x = 0; x < 20; x++) {
+            final String identity = "account:" + (x % 3);
+            results.add(callers.submit(new Callable<Set<? extends Permission>>() {
+                @Override
+                public Set<? extends Permission> call() throws Exception {
+                    start.await();
+                    return permissionFetcher.fetchPermissions(identities(identity, "role:member"), new DATPermission("account:delete"));
+                }
+            }));
+        }
+        start.countDown();
+
+        for (int x = 0; x < 20; x++) {
+            Set<? extends Permission> grants = results.get(x).get(5, TimeUnit.SECONDS);
+            // every caller only sees the grants of its own identities
+            assertEquals(x % 3 == 0 ? 1 : 2, grants.size());
+            for (Permission grant : grants) {
+                String principalIdentity = DATPermission.class.cast(grant).getPrincipalIdentity();
+                assertTrue(principalIdentity.equals("role:member") || principalIdentity.equals("account:" + (x % 3)));
+            }
+        }
+        callers.shutdown();
+
+        assertEquals(20, permissionFetcher.getRequests());
+        assertTrue(delegate.fetches < 20);
+        assertEquals(delegate.fetches, permissionFetcher.getBatches());
+    }
+
+    @Test
+    public void testSendsFullBatchesImmediately() throws Exception {
+        permissionFetcher = new BatchingPermissionFetcher(delegate, 1, TimeUnit.HOURS, 1, Executors.newScheduledThreadPool(1));
+
+        assertEquals(1, permissionFetcher.fetchPermissions(identities("account:1")).size());
+        assertEquals(1, permissionFetcher.getBatches());
+    }
+
+    @Test
+    public void testFetchesUnattributableGrantsIndividually() throws Exception {
+        final WildcardPermission grant = new WildcardPermission("account:*");
+        AuthorizingRealmTest.CountingPermissionFetcher unattributable = new AuthorizingRealmTest.CountingPermissionFetcher() {
+            @Override
+            public Set<? extends Permission> fetchPermissions(Collection<PrincipalIdentity> identities, Permission... permissions) {
+                fetches++;
+                return ImmutableSet.of(grant);
+            }
+        };
+        permissionFetcher = new BatchingPermissionFetcher(unattributable, 0, TimeUnit.MILLISECONDS, 1, Executors.newScheduledThreadPool(1));
+
+        assertEquals(ImmutableSet.of(grant), permissionFetcher.fetchPermissions(identities("account:1"), new DATPermission("account:read")));
+        assertEquals(2, unattributable.fetches);
+    }
+
+    @Test
+    public void testFailuresArePropagated() throws Exception {
+        final IllegalStateException failure = new IllegalStateException("database unavailable");
+        permissionFetcher = new BatchingPermissionFetcher(new PermissionFetcher() {
+            @Override
+            public Set<? extends Permission> fetchPermissions(Collection<PrincipalIdentity> identities, Permission... permissions) {
+                throw failure;
+            }
+        }, 0, TimeUnit.MILLISECONDS, 10, Executors.newScheduledThreadPool(1));
+
+        try {
+            permissionFetcher.fetchPermissions(identities("account:1"));
+            fail();
+        } catch (IllegalStateException e) {
+            assertSame(failure, e);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Before;
+import org.junit.Test;
+
+import static net.swigg.security.authorization.SnapshotPermissionFetcherTest.identities;
+import static org.junit.Assert.*;
+
+public class BloomFilterPermissionFetcherTest {
+    AuthorizingRealmTest.CountingPermissionFetcher delegate;
+
+    BloomFilterPermissionFetcher permissionFetcher;
+
+    @Before
+    public void setUp() throws Exception {
+        delegate = new AuthorizingRealmTest.CountingPermissionFetcher(
+                new DATPermission("role:member", "account:read:*"),
+                new DATPermission("role:admin", "*"));
+        permissionFetcher = new BloomFilterPermissionFetcher(delegate);
+    }
+
+    @Test
+    public void testCountingBloomFilter() throws Exception {
+        CountingBloomFilter filter = new CountingBloomFilter(1000, 0.01);
+        for (int x = 0; x < 1000; x++) {
+            filter.add("key-" + x);
+        }
+        for (int x = 0; x < 1000; x++) {
+            assertTrue(filter.mightContain("key-" + x));
+        }
+
+        filter.add("key-0");
+        filter.remove("key-0");
+        assertTrue(filter.mightContain("key-0"));
+
+        int falsePositives = 0;
+        for (int x = 1000; x < 11000; x++) {
+            falsePositives += filter.mightContain("key-" + x) ? 1 : 0;
+        }
+        assertTrue("false positives: " + falsePositives, falsePositives < 300);
+
+        CountingBloomFilter single = new CountingBloomFilter(10, 0.01);
+        single.add("key");
+        single.remove("key");
+        assertFalse(single.mightContain("key"));
+    }
+
+    @Test
+    public void testPassesThroughUntilLoaded() throws Exception {
+        assertTrue(permissionFetcher.fetchPermissions(identities("account:1"), new DATPermission("account:read")).isEmpty());
+        assertEquals(1, delegate.fetches);
+        assertEquals(0, permissionFetcher.getSkipped());
+    }
+
+    @Test
+    public void testSkipsIdentitiesWithoutGrants() throws Exception {
+        load();
+
+        assertTrue(permissionFetcher.fetchPermissions(identities("account:1"), new DATPermission("account:read")).isEmpty());
+        assertEquals(0, delegate.fetches);
+        assertEquals(1, permissionFetcher.getSkipped());
+
+        assertTrue(permissionFetcher.fetchPermissions(identities("role:member"), new DATPermission("post:read")).isEmpty());
+        assertEquals(0, delegate.fetches);
+
+        // only the identity that may have grants is queried, admin has the wildcard domain
+        assertEquals(2, permissionFetcher.fetchPermissions(identities("account:1", "role:member", "role:admin"),
+                new DATPermission("account:read")).size());
+        assertEquals(1, delegate.fetches);
+        assertEquals(ImmutableList.of("role:member", "role:admin"), delegate.lastIdentities);
+
+        // fetching every grant can not be filtered by domain
+        permissionFetcher.fetchPermissions(identities("account:1"));
+        assertEquals(2, delegate.fetches);
+    }
+
+    @Test
+    public void testTracksChanges() throws Exception {
+        load();
+
+        DATPermission grant = new DATPermission("account:1", "account:delete:account-1");
+        delegate.grants.add(grant);
+        permissionFetcher.permissionsChanged(ImmutableList.of(new PermissionChange(PermissionChange.TYPE.PERSISTED, "account:1", "account")));
+        assertEquals(1, permissionFetcher.fetchPermissions(identities("account:1"), new DATPermission("account:delete")).size());
+
+        delegate.grants.remove(grant);
+        permissionFetcher.permissionsChanged(ImmutableList.of(new PermissionChange(PermissionChange.TYPE.REMOVED, "account:1", "account")));
+        int fetches = delegate.fetches;
+        assertTrue(permissionFetcher.fetchPermissions(identities("account:1"), new DATPermission("account:delete")).isEmpty());
+        assertEquals(fetches, delegate.fetches);
+    }
+
+    @Test
+    public void testRemovalsSeenByLoadAreNotSubtractedTwice() throws Exception {
+        // removed while the load was reading, so the load may or may not have seen the row
+        permissionFetcher.beforeSnapshotLoad();
+        PermissionChange removed = new PermissionChange(PermissionChange.TYPE.REMOVED, "role:member", "account");
+        permissionFetcher.snapshotLoaded(ImmutableList.copyOf(delegate.grants));
+        permissionFetcher.permissionsChanged(ImmutableList.of(removed));
+
+        assertEquals(1, permissionFetcher.fetchPermissions(identities("role:member"), new DATPermission("account:read")).size());
+        assertEquals(1, delegate.fetches);
+    }
+
+    private void load() {
+        permissionFetcher.beforeSnapshotLoad();
+        permissionFetcher.snapshotLoaded(ImmutableList.copyOf(delegate.grants));
+    }
+}
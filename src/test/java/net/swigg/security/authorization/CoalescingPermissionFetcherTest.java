@@ -0,0 +1,148 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.apache.shiro.authz.Permission;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static net.swigg.security.authorization.SnapshotPermissionFetcherTest.identities;
+import static org.junit.Assert.*;
+
+public class CoalescingPermissionFetcherTest {
+    BlockingPermissionFetcher delegate;
+
+    CoalescingPermissionFetcher permissionFetcher;
+
+    @Before
+    public void setUp() throws Exception {
+        delegate = new BlockingPermissionFetcher(new DATPermission("role:member", "account:read:*"));
+        permissionFetcher = new CoalescingPermissionFetcher(delegate, Executors.newFixedThreadPool(4));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        delegate.release.countDown();
+        permissionFetcher.shutdown();
+    }
+
+    @Test
+    public void testCoalescesIdenticalFetches() throws Exception {
+        List<ListenableFuture<Set<Permission>>> futures = Lists.newArrayList();
+        for (int x = 0; x < 100; x++) {
+            futures.add(permissionFetcher.fetchPermissionsAsync(identities("role:member", "account:1"), new DATPermission("account:read,update:account-1")));
+        }
+        // same fetch, normalized
+        futures.add(permissionFetcher.fetchPermissionsAsync(identities("account:1", "role:member"), new DATPermission("account:update,read:account-1")));
+
+        delegate.release.countDown();
+        for (ListenableFuture<Set<Permission>> future : futures) {
+            assertEquals(1, future.get(5, TimeUnit.SECONDS).size());
+        }
+
+        assertEquals(1, delegate.fetches.get());
+        assertEquals(100, permissionFetcher.getCoalesced());
+        assertEquals(0, permissionFetcher.getInFlight());
+
+        // completed fetches are not cached
+        assertEquals(1, permissionFetcher.fetchPermissions(identities("role:member", "account:1"), new DATPermission("account:read,update:account-1")).size());
+        assertEquals(2, delegate.fetches.get());
+    }
+
+    @Test
+    public void testDifferentFetchesAreNotCoalesced() throws Exception {
+        ListenableFuture<Set<Permission>> read = permissionFetcher.fetchPermissionsAsync(identities("role:member"), new DATPermission("account:read"));
+        ListenableFuture<Set<Permission>> update = permissionFetcher.fetchPermissionsAsync(identities("role:member"), new DATPermission("account:update"));
+        ListenableFuture<Set<Permission>> other = permissionFetcher.fetchPermissionsAsync(identities("role:admin"), new DATPermission("account:read"));
+        ListenableFuture<Set<Permission>> all = permissionFetcher.fetchPermissionsAsync(identities("role:member"));
+
+        delegate.release.countDown();
+        read.get(5, TimeUnit.SECONDS);
+        update.get(5, TimeUnit.SECONDS);
+        other.get(5, TimeUnit.SECONDS);
+        all.get(5, TimeUnit.SECONDS);
+
+        assertEquals(4, delegate.fetches.get());
+        assertEquals(0, permissionFetcher.getCoalesced());
+    }
+
+    @Test
+    public void testFailuresArePropagated() throws Exception {
+        delegate.failure = new IllegalStateException("database unavailable");
+        delegate.release.countDown();
+
+        try {
+            permissionFetcher.fetchPermissionsAsync(identities("role:member")).get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertSame(delegate.failure, e.getCause());
+        }
+
+        try {
+            permissionFetcher.fetchPermissions(identities("role:member"));
+            fail();
+        } catch (IllegalStateException e) {
+            assertSame(delegate.failure, e);
+        }
+
+        assertEquals(0, permissionFetcher.getInFlight());
+    }
+
+    /**
+     * Blocks every fetch until released.
+     */
+    static class BlockingPermissionFetcher extends AuthorizingRealmTest.CountingPermissionFetcher {
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final AtomicInteger fetches = new AtomicInteger();
+
+        volatile RuntimeException failure;
+
+        BlockingPermissionFetcher(DATPermission... grants) {
+            super(grants);
+        }
+
+        @Override
+        public synchronized Set<? extends Permission> fetchPermissions(Collection<PrincipalIdentity> identities, Permission... permissions) {
+            fetches.incrementAndGet();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+
+            if (failure != null) {
+                throw failure;
+            }
+
+            return super.fetchPermissions(identities, permissions);
+        }
+    }
+}
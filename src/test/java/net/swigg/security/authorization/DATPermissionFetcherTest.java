@@ -0,0 +1,84 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import org.apache.shiro.authz.Permission;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.security.SecurityAutoConfiguration;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.Set;
+
+import static net.swigg.security.authorization.SnapshotPermissionFetcherTest.identities;
+import static org.junit.Assert.*;
+
+@ContextConfiguration(classes = {DATPermissionFetcherTest.Config.class})
+@RunWith(SpringJUnit4ClassRunner.class)
+@Transactional
+public class DATPermissionFetcherTest {
+    @PersistenceContext
+    EntityManager entityManager;
+
+    DATPermissionFetcher permissionFetcher;
+
+    @Before
+    public void setUp() throws Exception {
+        permissionFetcher = new DATPermissionFetcher(entityManager);
+        entityManager.persist(new DATPermission("role:member", "account:read:*"));
+        entityManager.persist(new DATPermission("role:member", "post"));
+        entityManager.persist(new DATPermission("role:member", "comment:delete"));
+        entityManager.flush();
+    }
+
+    @Test
+    public void testScopedToPermissions() throws Exception {
+        Set<? extends Permission> permissions = permissionFetcher.fetchPermissions(identities("role:member"),
+                new DATPermission("account:read:account-1"));
+        assertEquals(1, permissions.size());
+    }
+
+    @Test
+    public void testMixedBatchIsNotScoped() throws Exception {
+        // more than three levels can not be a DATPermission
+        Permission deep = new WildcardPermission("post:read:post-1:comments");
+        Set<? extends Permission> permissions = permissionFetcher.fetchPermissions(identities("role:member"),
+                new DATPermission("account:read:account-1"), deep);
+        assertEquals(3, permissions.size());
+
+        boolean implied = false;
+        for (Permission permission : permissions) {
+            implied |= permission.implies(deep);
+        }
+        assertTrue(implied);
+    }
+
+    @Configuration
+    @EnableAutoConfiguration(exclude = {SecurityAutoConfiguration.class})
+    @Import({AuthorizationConfig.class})
+    public static class Config {
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.shiro.authz.Permission;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DATPermissionResolverTest {
+    @Test
+    public void testResolvesDATPermission() throws Exception {
+        DATPermissionResolver resolver = new DATPermissionResolver();
+        Permission permission = resolver.resolvePermission("account:read,write:account-1");
+
+        assertTrue(permission instanceof DATPermission);
+        DATPermission datPermission = (DATPermission) permission;
+        assertEquals("account", datPermission.getDomain());
+        assertEquals(2, datPermission.getActions().size());
+        assertEquals(1, datPermission.getTargets().size());
+    }
+
+    @Test
+    public void testResolvesCanonicalInstance() throws Exception {
+        new DATPermission("account:read");
+        DATPermissionResolver resolver = new DATPermissionResolver();
+        assertSame(resolver.resolvePermission("account:read"), resolver.resolvePermission("account:read"));
+        assertEquals(1, resolver.size());
+    }
+
+    @Test
+    public void testResolvesBounded() throws Exception {
+        DATPermissionResolver resolver = new DATPermissionResolver(10);
+        for (int x = 0; x < 100; x++) {
+            new DATPermission("account:read:account-" + x);
+            resolver.resolvePermission("account:read:account-" + x);
+        }
+        assertTrue(resolver.size() <= 10);
+    }
+
+    @Test
+    public void testResolvesWildcardPermissionForDeepPermissions() throws Exception {
+        WildcardPermission grant = new WildcardPermission("a:b:c:d");
+        Permission permission = new DATPermissionResolver().resolvePermission("a:b:c:d");
+        assertFalse(permission instanceof DATPermission);
+        assertTrue(grant.implies(permission));
+        assertTrue(new WildcardPermission("a:b").implies(permission));
+    }
+
+    @Test
+    public void testResolvingDoesNotInternValues() throws Exception {
+        DATPermissionResolver resolver = new DATPermissionResolver();
+        int size = SymbolTable.forLevel(DATPermission.LEVEL.TARGET.ordinal()).size();
+        for (int x = 0; x < 100; x++) {
+            resolver.resolvePermission("account:read:unknown-" + x);
+        }
+
+        assertEquals(size, SymbolTable.forLevel(DATPermission.LEVEL.TARGET.ordinal()).size());
+    }
+
+    @Test
+    public void testUnknownValuesOnlyMatchWildcards() throws Exception {
+        DATPermissionResolver resolver = new DATPermissionResolver();
+        Permission permission = resolver.resolvePermission("account:read:unseen-1");
+        assertTrue(((WildcardPermission) permission).isQuery());
+        assertFalse(new DATPermission("account:read:account-1").implies(permission));
+        assertTrue(new DATPermission("account:read:*").implies(permission));
+
+        // the value is looked up again, so the cached permission matches once a grant has it
+        DATPermission grant = new DATPermission("account:read:unseen-1");
+        assertSame(permission, resolver.resolvePermission("account:read:unseen-1"));
+        assertTrue(grant.implies(permission));
+        assertTrue(PermissionIndex.build(ImmutableList.of(grant)).implies(permission));
+        assertEquals(1, resolver.size());
+    }
+
+    @Test
+    public void testQueryBuiltInCodeDoesNotInternValues() throws Exception {
+        int size = SymbolTable.forLevel(DATPermission.LEVEL.TARGET.ordinal()).size();
+        DATPermission permission = ImmutableDATPermission.forQuery("account", ImmutableList.of("read"), ImmutableList.of("typed-1"));
+        assertEquals(size, SymbolTable.forLevel(DATPermission.LEVEL.TARGET.ordinal()).size());
+
+        assertTrue(new DATPermission("role:member", "account:read:typed-1").implies(permission));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testResolvedPermissionIsImmutable() throws Exception {
+        DATPermission permission = (DATPermission) new DATPermissionResolver().resolvePermission("account:read");
+        permission.setActions("delete");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testResolveInvalidPermission() throws Exception {
+        new DATPermissionResolver().resolvePermission("account::read");
+    }
+}
@@ -375,4 +375,18 @@ public class DATPermissionTest {
         assertTrue(p1.implies(p2));
         assertFalse(p2.implies(p1));
     }
+
+    @Test
+    public void testImpliesSkippedLevel() throws Exception {
+        DATPermission p1 = new DATPermission("domain");
+        DATPermission p2 = new DATPermission("domain:action1:instance1");
+
+        // p1 has no action level, which behaves like a wildcard action
+        p1.setTargets("instance1");
+        assertTrue(p1.implies(p2));
+        assertFalse(p2.implies(p1));
+
+        p1.setTargets("instance2");
+        assertFalse(p1.implies(p2));
+    }
 }
@@ -0,0 +1,304 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+import net.swigg.security.cache.GuavaCacheManager;
+import org.apache.shiro.authz.Permission;
+import org.apache.shiro.authz.UnauthorizedException;
+import org.apache.shiro.subject.PrincipalCollection;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static net.swigg.security.authorization.AuthorizingRealmTest.CountingPermissionFetcher;
+import static net.swigg.security.authorization.AuthorizingRealmTest.TestRealm;
+import static net.swigg.security.authorization.AuthorizingRealmTest.principals;
+import static org.junit.Assert.*;
+
+public class DecisionLogTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    DecisionLog decisionLog;
+
+    @Before
+    public void setUp() throws Exception {
+        decisionLog = new DecisionLog(new File(folder.getRoot(), "audit"));
+        decisionLog.setIdleMillis(1);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        decisionLog.close();
+    }
+
+    @Test
+    public void testRingBuffer() throws Exception {
+        RingBuffer<Integer> buffer = new RingBuffer<Integer>(3);
+        assertEquals(4, buffer.capacity());
+        assertNull(buffer.poll());
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffer.offer(i));
+        }
+        assertFalse(buffer.offer(4));
+        assertEquals(4, buffer.size());
+
+        assertEquals(Integer.valueOf(0), buffer.poll());
+        assertTrue(buffer.offer(4));
+
+        List<Integer> drained = Lists.newArrayList();
+        assertEquals(3, buffer.drainTo(drained, 3));
+        assertEquals(ImmutableList.of(1, 2, 3), drained);
+        assertEquals(Integer.valueOf(4), buffer.poll());
+        assertNull(buffer.poll());
+        assertEquals(0, buffer.size());
+    }
+
+    @Test
+    public void testRingBufferClose() throws Exception {
+        RingBuffer<Integer> buffer = new RingBuffer<Integer>(4);
+        assertTrue(buffer.offer(0));
+        buffer.close();
+        assertTrue(buffer.isClosed());
+        assertFalse(buffer.offer(1));
+
+        assertEquals(1, buffer.size());
+        assertFalse(buffer.isEmpty());
+        assertEquals(Integer.valueOf(0), buffer.poll());
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void testRingBufferWithConcurrentProducers() throws Exception {
+        final RingBuffer<Integer> buffer = new RingBuffer<Integer>(64);
+        final CountDownLatch start = new CountDownLatch(1);
+        final int producers = 4;
+        final int perProducer = 10000;
+
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            final int offset = p * perProducer;
+            threads[p] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < perProducer; i++) {
+                        while (!buffer.offer(offset + i)) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            });
+            threads[p].start();
+        }
+
+        start.countDown();
+        Set<Integer> received = Sets.newHashSet();
+        while (received.size() < producers * perProducer) {
+            Integer element = buffer.poll();
+            if (element != null) {
+                assertTrue("received twice: " + element, received.add(element));
+            }
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(buffer.poll());
+    }
+
+    @Test
+    public void testLogsDenialsAndSampledGrants() throws Exception {
+        decisionLog.setGrantSampleRate(1);
+        decisionLog.start();
+
+        TestRealm realm = new TestRealm(new CountingPermissionFetcher(
+                new DATPermission("role:member", "account:read:*"),
+                new DATPermission("account:1", "account:delete:account-1")));
+        realm.setCacheManager(new GuavaCacheManager());
+        realm.setName("test");
+        realm.setDecisionLog(decisionLog);
+
+        PrincipalCollection principals = principals("account:1", "role:member");
+        assertTrue(realm.isPermitted(principals, "account:read:account-2"));
+        try {
+            realm.checkPermissions(principals, "account:delete:account-1", "account:delete:account-2", "account:read");
+            fail();
+        } catch (UnauthorizedException e) {
+            // expected
+        }
+
+        decisionLog.setGrantSampleRate(0);
+        assertTrue(realm.isPermitted(principals, "account:read:account-3"));
+        assertFalse(realm.isPermitted(principals, "account:update:account-1"));
+        decisionLog.close();
+
+        List<String> lines = Files.readLines(decisionLog.file(0), Charsets.UTF_8);
+        assertEquals(4, lines.size());
+        assertEquals(4, decisionLog.getWritten());
+        assertEquals(0, decisionLog.getDropped());
+
+        String[] granted = lines.get(0).split("\t");
+        assertEquals(7, granted.length);
+        assertEquals("GRANTED", granted[1]);
+        assertEquals("test", granted[2]);
+        assertEquals("isPermitted", granted[3]);
+        assertEquals("account:1,role:member", granted[4]);
+        assertEquals("account:read:account-2", granted[5]);
+        assertEquals("role:member account:read:*", granted[6]);
+
+        // evaluation stops at the first denial, so the last permission is not logged
+        assertTrue(lines.get(1).contains("\tGRANTED\ttest\tcheckPermission\t"));
+        assertTrue(lines.get(1).endsWith("\taccount:1 account:delete:account-1"));
+        assertTrue(lines.get(2).contains("\tDENIED\ttest\tcheckPermission\t"));
+        assertTrue(lines.get(2).endsWith("\taccount:delete:account-2\t-"));
+        assertTrue(lines.get(3).endsWith("\tDENIED\ttest\tisPermitted\taccount:1,role:member\taccount:update:account-1\t-"));
+    }
+
+    @Test
+    public void testDropsWhenFull() throws Exception {
+        DecisionRecord record = new DecisionRecord(0, "test", "checkPermission", ImmutableList.of("account:1"),
+                new DATPermission("account:read"), false, null);
+        assertFalse(decisionLog.append(record));
+        assertEquals(1, decisionLog.getDropped());
+
+        decisionLog.setCapacity(2);
+        decisionLog.setIdleMillis(60000);
+        decisionLog.start();
+
+        // the writer is parked, so only the first records fit
+        int appended = 0;
+        for (int i = 0; i < 10; i++) {
+            appended += decisionLog.append(record) ? 1 : 0;
+        }
+        assertTrue(appended >= 2);
+        assertEquals(1 + 10 - appended, decisionLog.getDropped());
+
+        decisionLog.close();
+        assertEquals(appended, decisionLog.getWritten());
+    }
+
+    @Test
+    public void testCloseWritesEveryAppendedRecord() throws Exception {
+        decisionLog.start();
+
+        final DecisionRecord record = new DecisionRecord(0, "test", "checkPermission", ImmutableList.of("account:1"),
+                new DATPermission("account:read"), false, null);
+        final AtomicInteger appended = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[4];
+        for (int p = 0; p < threads.length; p++) {
+            threads[p] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    while (decisionLog.isRunning()) {
+                        if (decisionLog.append(record)) {
+                            appended.incrementAndGet();
+                        }
+                    }
+                }
+            });
+            threads[p].start();
+        }
+
+        start.countDown();
+        Thread.sleep(50);
+        decisionLog.close();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(appended.get(), decisionLog.getWritten());
+        assertEquals(appended.get(), Files.readLines(decisionLog.file(0), Charsets.UTF_8).size());
+    }
+
+    @Test
+    public void testWriterSurvivesFailures() throws Exception {
+        decisionLog.setBatchSize(1);
+        decisionLog.start();
+
+        Permission broken = new Permission() {
+            @Override
+            public boolean implies(Permission p) {
+                return false;
+            }
+
+            @Override
+            public String toString() {
+                throw new IllegalStateException("broken");
+            }
+        };
+        assertTrue(decisionLog.append(new DecisionRecord(0, "test", "checkPermission", ImmutableList.of("account:1"),
+                broken, false, null)));
+        assertTrue(decisionLog.append(new DecisionRecord(0, "test", "checkPermission", ImmutableList.of("account:1"),
+                new DATPermission("account:read"), false, null)));
+        decisionLog.close();
+
+        assertEquals(1, decisionLog.getFailed());
+        assertEquals(1, decisionLog.getWritten());
+        assertEquals(1, Files.readLines(decisionLog.file(0), Charsets.UTF_8).size());
+    }
+
+    @Test
+    public void testRotation() throws Exception {
+        decisionLog.setMaxFileSize(200);
+        decisionLog.setMaxFiles(2);
+        decisionLog.setBatchSize(1);
+        decisionLog.start();
+
+        for (int i = 0; i < 20; i++) {
+            DecisionRecord record = new DecisionRecord(i, "test", "checkPermission", ImmutableList.of("account:" + i),
+                    new DATPermission("account:read:account-" + i), false, null);
+            while (!decisionLog.append(record)) {
+                Thread.yield();
+            }
+        }
+        decisionLog.close();
+
+        assertTrue(decisionLog.file(0).length() <= 200);
+        assertTrue(decisionLog.file(1).exists());
+        assertTrue(decisionLog.file(2).exists());
+        assertFalse(decisionLog.file(3).exists());
+
+        List<String> last = Files.readLines(decisionLog.file(0), Charsets.UTF_8);
+        assertTrue(last.get(last.size() - 1).contains("\taccount:19\t"));
+    }
+}
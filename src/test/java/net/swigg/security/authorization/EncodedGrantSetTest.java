@@ -0,0 +1,152 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.apache.shiro.authz.Permission;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class EncodedGrantSetTest {
+    static final List<DATPermission> GRANTS = ImmutableList.of(
+            new DATPermission("account:1", "account:read,update:account-1,account-2"),
+            new DATPermission("account:1", "post"),
+            new DATPermission("account:1", "comment:*:comment-1"),
+            new DATPermission("account:1", "*:delete:*"),
+            new DATPermission("account:1", "user:create,read,update,delete,list,export,import,audit:user-1"));
+
+    static final List<String> QUERIES = ImmutableList.of(
+            "account:read:account-1", "account:read,update:account-2", "account:read:account-3", "account:read",
+            "account:*:account-1", "account:read:*", "post:anything:post-9", "post", "comment:edit:comment-1",
+            "comment:edit:comment-2", "comment:edit", "order:delete:order-1", "order:delete", "order:*:order-1",
+            "*:delete:*", "*:read:account-1", "user:export,audit:user-1", "user:export:user-2", "unknown:read:unknown");
+
+    @Test
+    public void testImpliesLikeDecodedGrants() throws Exception {
+        EncodedGrantSet encoded = EncodedGrantSet.of("account:1", GRANTS);
+        assertEquals(GRANTS.size(), encoded.size());
+        assertEquals("account:1", encoded.getPrincipalIdentity());
+
+        for (String query : QUERIES) {
+            DATPermission permission = new DATPermission(query);
+            Set<DATPermission> expected = Sets.newHashSet();
+            for (DATPermission grant : GRANTS) {
+                if (grant.implies(permission)) {
+                    expected.add(grant);
+                }
+            }
+
+            assertEquals(query, !expected.isEmpty(), encoded.implies(permission));
+            assertEquals(query, levels(expected), levels(encoded.findImplying(permission)));
+        }
+
+        assertEquals(GRANTS.size(), encoded.findImplying().size());
+        assertTrue(encoded.findImplying(new DATPermission("order:read"), new DATPermission("comment:edit:comment-1")).size() == 1);
+    }
+
+    @Test
+    public void testDecodesEveryVersion() throws Exception {
+        for (byte version : new byte[]{GrantSetCodec.VERSION_1, GrantSetCodec.VERSION_2}) {
+            byte[] bytes = GrantSetCodec.encode("account:1", GRANTS, version);
+            assertEquals(version, bytes[0]);
+            assertEquals(levels(GRANTS), levels(GrantSetCodec.decode(ByteBuffer.wrap(bytes))));
+
+            EncodedGrantSet wrapped = EncodedGrantSet.wrap(ByteBuffer.wrap(bytes));
+            assertEquals("account:1", wrapped.getPrincipalIdentity());
+            assertTrue(wrapped.implies(new DATPermission("account:update:account-2")));
+        }
+    }
+
+    @Test
+    public void testWrapDoesNotCopy() throws Exception {
+        byte[] first = GrantSetCodec.encode("account:1", GRANTS);
+        byte[] second = GrantSetCodec.encode("account:2", ImmutableList.of(new DATPermission("account:2", "post:read")));
+        ByteBuffer buffer = ByteBuffer.allocateDirect(first.length + second.length);
+        buffer.put(first).put(second);
+        buffer.position(first.length);
+
+        EncodedGrantSet wrapped = EncodedGrantSet.wrap(buffer);
+        assertEquals(second.length, wrapped.getEncodedSize());
+        assertEquals("account:2", wrapped.getPrincipalIdentity());
+        assertTrue(wrapped.asByteBuffer().isDirect());
+        assertEquals(1, wrapped.findImplying(new DATPermission("post:read:post-1")).size());
+    }
+
+    @Test
+    public void testSerializesCompactly() throws Exception {
+        EncodedGrantSet encoded = EncodedGrantSet.of("account:1", GRANTS);
+        byte[] serialized = serialize(encoded);
+        assertTrue(encoded.getEncodedSize() < GrantSetCodec.encode("account:1", GRANTS, GrantSetCodec.VERSION_1).length * 2 / 3);
+
+        // nothing but the encoded bytes and a class descriptor
+        assertTrue(serialized.length < encoded.getEncodedSize() + 128);
+
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized));
+        EncodedGrantSet read = (EncodedGrantSet) in.readObject();
+        assertEquals(levels(GRANTS), levels(read.getPermissions()));
+        assertTrue(read.implies(new DATPermission("comment:edit:comment-1")));
+    }
+
+    @Test
+    public void testUsesBitsetsForLargeActionSets() throws Exception {
+        List<String> actions = Lists.newArrayList();
+        for (int x = 0; x < 100; x++) {
+            actions.add("action-" + x);
+        }
+        DATPermission grant = new DATPermission("account:1", "user", actions, ImmutableSet.of("*"));
+
+        EncodedGrantSet encoded = EncodedGrantSet.of("account:1", ImmutableList.of(grant));
+        assertTrue(encoded.implies(new DATPermission("user:action-0,action-99:user-1")));
+        assertFalse(encoded.implies(new DATPermission("user:action-100:user-1")));
+        assertEquals(ImmutableSet.copyOf(actions), encoded.getPermissions().iterator().next().getActions());
+    }
+
+    private static byte[] serialize(Serializable object) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(object);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return the domain, actions and targets of the permissions, which is what survives encoding
+     */
+    private static Set<List<Object>> levels(Iterable<? extends Permission> permissions) {
+        Set<List<Object>> levels = Sets.newHashSet();
+        for (Permission permission : permissions) {
+            DATPermission grant = (DATPermission) permission;
+            levels.add(ImmutableList.<Object>of(grant.getDomain(), grant.getActions(), grant.getTargets()));
+        }
+
+        return levels;
+    }
+}
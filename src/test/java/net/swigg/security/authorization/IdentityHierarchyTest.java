@@ -0,0 +1,80 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import org.junit.Test;
+
+import java.util.Collection;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class IdentityHierarchyTest {
+    @Test
+    public void testDeepHierarchy() throws Exception {
+        IdentityHierarchy.Builder builder = IdentityHierarchy.builder();
+        for (int x = 0; x < 10; x++) {
+            builder.inherit("role:level-" + x, "role:level-" + (x + 1));
+        }
+        IdentityHierarchy hierarchy = builder.build();
+
+        assertEquals(10, hierarchy.inheritedBy("role:level-0").size());
+        assertEquals(ImmutableSet.of("role:level-10"), hierarchy.inheritedBy("role:level-9"));
+        assertTrue(hierarchy.inheritedBy("role:level-10").isEmpty());
+        assertTrue(hierarchy.inheritedBy("role:unknown").isEmpty());
+    }
+
+    @Test
+    public void testDiamondAndCycle() throws Exception {
+        IdentityHierarchy hierarchy = IdentityHierarchy.builder()
+                .inherit("role:manager", "role:sales", "role:support")
+                .inherit("role:sales", "role:employee")
+                .inherit("role:support", "role:employee")
+                .inherit("role:employee", "role:manager")
+                .build();
+
+        assertEquals(ImmutableSet.of("role:sales", "role:support", "role:employee"), hierarchy.inheritedBy("role:manager"));
+        assertEquals(ImmutableSet.of("role:manager", "role:sales", "role:support"), hierarchy.inheritedBy("role:employee"));
+        assertEquals(4, hierarchy.size());
+    }
+
+    @Test
+    public void testExpand() throws Exception {
+        IdentityHierarchy hierarchy = IdentityHierarchy.builder()
+                .inherit("role:manager", "role:employee")
+                .build();
+
+        PrincipalIdentity manager = new SimplePrincipalIdentity("role:manager");
+        PrincipalIdentity account = new SimplePrincipalIdentity("account:1");
+        Collection<PrincipalIdentity> expanded = hierarchy.expand(ImmutableList.of(account, manager));
+
+        Set<String> identities = Sets.newHashSet();
+        for (PrincipalIdentity identity : expanded) {
+            identities.add(identity.getPrincipalIdentity());
+        }
+        assertEquals(ImmutableSet.of("account:1", "role:manager", "role:employee"), identities);
+        assertTrue(expanded.contains(manager));
+
+        // nothing to add, so the identities are returned as they are
+        Collection<PrincipalIdentity> unchanged = ImmutableList.of(account);
+        assertSame(unchanged, hierarchy.expand(unchanged));
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import com.google.common.collect.ImmutableList;
+import net.swigg.security.example.Account;
+import org.apache.shiro.authz.Permission;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.security.SecurityAutoConfiguration;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.List;
+import java.util.Set;
+
+import static net.swigg.security.authorization.SnapshotPermissionFetcherTest.identities;
+import static org.junit.Assert.*;
+
+@ContextConfiguration(classes = {IdentityTypeTest.Config.class})
+@RunWith(SpringJUnit4ClassRunner.class)
+public class IdentityTypeTest {
+    static final IdentityType TYPE = IdentityType.register(900, "typed-user:");
+
+    @PersistenceContext
+    EntityManager entityManager;
+
+    @Test
+    public void testKeys() throws Exception {
+        long key = IdentityType.key(900, 42);
+        assertEquals(900, IdentityType.codeOf(key));
+        assertEquals(42, IdentityType.idOf(key));
+        assertTrue(key > 0);
+        assertEquals("typed-user:42", IdentityType.identityOf(key));
+
+        assertEquals(key, IdentityType.parse("typed-user:42"));
+        assertEquals(IdentityType.NO_KEY, IdentityType.parse("typed-user:042"));
+        assertEquals(IdentityType.NO_KEY, IdentityType.parse("typed-user:"));
+        assertEquals(IdentityType.NO_KEY, IdentityType.parse("role:42"));
+        assertEquals(IdentityType.NO_KEY, IdentityType.parse("typed-user:1000000000000000"));
+    }
+
+    @Test
+    @Transactional
+    public void testUnpackableIdsHaveNoKey() throws Exception {
+        assertEquals(IdentityType.NO_KEY, IdentityType.keyOf(new User(-1)));
+        assertEquals(IdentityType.NO_KEY, IdentityType.keyOf(new User(IdentityType.MAX_ID + 1)));
+        assertEquals(IdentityType.NO_KEY, IdentityType.keyOf(new Account(null, "unsaved", "password")));
+
+        // checks of identities without an id are denied rather than failing
+        DATPermissionFetcher permissionFetcher = new DATPermissionFetcher(entityManager);
+        assertTrue(permissionFetcher.fetchPermissions(ImmutableList.<PrincipalIdentity>of(new User(-1))).isEmpty());
+        assertTrue(permissionFetcher.fetchPermissions(ImmutableList.<PrincipalIdentity>of(
+                new Account(null, "unsaved", "password"))).isEmpty());
+    }
+
+    @Test
+    public void testRegister() throws Exception {
+        assertSame(TYPE, IdentityType.register(900, "typed-user:"));
+        assertSame(TYPE, IdentityType.forCode(900));
+
+        try {
+            IdentityType.register(901, "typed-user:");
+            fail();
+        } catch (IllegalArgumentException e) {
+            // prefix belongs to code 900
+        }
+        assertNull(IdentityType.forCode(901));
+    }
+
+    @Test
+    @Transactional
+    public void testFetchByKey() throws Exception {
+        DATPermission typed = new DATPermission(new User(7), "account:read:*");
+        DATPermission untyped = new DATPermission("role:member", "account:delete:*");
+        entityManager.persist(typed);
+        entityManager.persist(untyped);
+        entityManager.flush();
+
+        assertEquals(Long.valueOf(IdentityType.key(900, 7)), typed.getPrincipalKey());
+        assertNull(untyped.getPrincipalKey());
+
+        DATPermissionFetcher permissionFetcher = new DATPermissionFetcher(entityManager);
+        Set<? extends Permission> permissions = permissionFetcher.fetchPermissions(ImmutableList.<PrincipalIdentity>of(new User(7)));
+        assertEquals(1, permissions.size());
+        assertEquals("typed-user:7", ((DATPermission) permissions.iterator().next()).getPrincipalIdentity());
+
+        // the string form of a typed identity is looked up by key as well
+        assertEquals(2, permissionFetcher.fetchPermissions(identities("typed-user:7", "role:member")).size());
+        assertTrue(permissionFetcher.fetchPermissions(identities("typed-user:8")).isEmpty());
+    }
+
+    @Test
+    @Transactional
+    public void testFetchRowsWithoutKey() throws Exception {
+        entityManager.persist(new DATPermission(new User(9), "account:read:*"));
+        entityManager.flush();
+
+        // e.g. a row written before the key column existed or inserted with plain SQL
+        assertEquals(1, entityManager.createQuery(
+                "update DATPermission p set p.principalKey = null where p.principalIdentity = 'typed-user:9'").executeUpdate());
+        entityManager.clear();
+
+        DATPermissionFetcher permissionFetcher = new DATPermissionFetcher(entityManager);
+        assertEquals(1, permissionFetcher.fetchPermissions(ImmutableList.<PrincipalIdentity>of(new User(9))).size());
+        assertEquals(1, permissionFetcher.fetchPermissions(ImmutableList.<PrincipalIdentity>of(new User(9)),
+                new DATPermission("account:read:account-1")).size());
+    }
+
+    @Test
+    @Transactional
+    public void testBackfillPrincipalKeys() throws Exception {
+        entityManager.persist(new DATPermission(new User(10), "account:read:*"));
+        entityManager.persist(new DATPermission("role:member", "post:read"));
+        entityManager.flush();
+        entityManager.createQuery("update DATPermission p set p.principalKey = null").executeUpdate();
+        entityManager.clear();
+
+        DATPermissionFetcher permissionFetcher = new DATPermissionFetcher(entityManager);
+        permissionFetcher.setMatchTypedIdentityStrings(false);
+        assertTrue(permissionFetcher.fetchPermissions(ImmutableList.<PrincipalIdentity>of(new User(10))).isEmpty());
+
+        // only typed identities get a key
+        assertEquals(1, permissionFetcher.backfillPrincipalKeys());
+        entityManager.clear();
+        assertEquals(1, permissionFetcher.fetchPermissions(ImmutableList.<PrincipalIdentity>of(new User(10))).size());
+        assertEquals(1, permissionFetcher.fetchPermissions(identities("role:member")).size());
+    }
+
+    @Test
+    @Transactional
+    public void testBothIdentityColumnsIndexed() throws Exception {
+        List<?> columns = entityManager.createNativeQuery("select column_name from information_schema.indexes"
+                + " where table_name = 'DATPERMISSION' and index_name in ('DATPERMISSION_PRINCIPAL_KEY', 'DATPERMISSION_PRINCIPAL_IDENTITY')"
+                + " order by index_name").getResultList();
+        assertEquals(ImmutableList.of("PRINCIPAL_IDENTITY", "PRINCIPAL_KEY"), columns);
+    }
+
+    static class User implements PrincipalIdentity, TypedIdentity {
+        private final long id;
+
+        User(long id) {
+            this.id = id;
+        }
+
+        @Override
+        public String getPrincipalIdentity() {
+            return TYPE.format(id);
+        }
+
+        @Override
+        public int getIdentityType() {
+            return TYPE.getCode();
+        }
+
+        @Override
+        public long getIdentityId() {
+            return id;
+        }
+    }
+
+    @Configuration
+    @EnableAutoConfiguration(exclude = {SecurityAutoConfiguration.class})
+    @Import({AuthorizationConfig.class})
+    public static class Config {
+    }
+}
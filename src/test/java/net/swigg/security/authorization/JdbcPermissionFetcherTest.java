@@ -0,0 +1,113 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import org.apache.shiro.authz.Permission;
+import org.hibernate.Session;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.security.SecurityAutoConfiguration;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.sql.DataSource;
+import java.util.Set;
+
+import static net.swigg.security.authorization.SnapshotPermissionFetcherTest.identities;
+import static org.junit.Assert.*;
+
+@ContextConfiguration(classes = {JdbcPermissionFetcherTest.Config.class})
+@RunWith(SpringJUnit4ClassRunner.class)
+@Transactional
+public class JdbcPermissionFetcherTest {
+    @PersistenceContext
+    EntityManager entityManager;
+
+    @Autowired
+    DataSource dataSource;
+
+    JdbcPermissionFetcher permissionFetcher;
+
+    @Before
+    public void setUp() throws Exception {
+        permissionFetcher = new JdbcPermissionFetcher(dataSource);
+        entityManager.persist(new DATPermission("role:member", "account:read:*"));
+        entityManager.persist(new DATPermission("role:member", "post"));
+        entityManager.persist(new DATPermission("account:1", "account:read,update:account-1,account-2"));
+        entityManager.persist(new DATPermission("account:1", "account:delete:account-3"));
+        entityManager.flush();
+        entityManager.clear();
+    }
+
+    @Test
+    public void testFetchAll() throws Exception {
+        Set<? extends Permission> permissions = permissionFetcher.fetchPermissions(identities("account:1"));
+        assertEquals(2, permissions.size());
+        assertTrue(implies(permissions, new DATPermission("account:update:account-2")));
+        assertTrue(implies(permissions, new DATPermission("account:delete:account-3")));
+        for (Permission permission : permissions) {
+            assertEquals("account:1", DATPermission.class.cast(permission).getPrincipalIdentity());
+        }
+
+        assertTrue(permissionFetcher.fetchPermissions(identities("account:2")).isEmpty());
+    }
+
+    @Test
+    public void testFetchImplying() throws Exception {
+        Set<? extends Permission> permissions = permissionFetcher.fetchPermissions(identities("account:1"), new DATPermission("account:update:account-1"));
+        assertEquals(1, permissions.size());
+        assertTrue(implies(permissions, new DATPermission("account:read,update:account-1")));
+
+        assertTrue(permissionFetcher.fetchPermissions(identities("account:1"), new DATPermission("account:delete:account-1")).isEmpty());
+
+        // a grant without actions has a wildcard action
+        assertTrue(implies(permissionFetcher.fetchPermissions(identities("account:1", "role:member"), new DATPermission("post:delete:post-1")),
+                new DATPermission("post:delete:post-1")));
+        assertTrue(permissionFetcher.fetchPermissions(identities("account:1"), new DATPermission("post:delete:post-1")).isEmpty());
+    }
+
+    @Test
+    public void testDoesNotManageEntities() throws Exception {
+        permissionFetcher.fetchPermissions(identities("account:1", "role:member"));
+        assertEquals(0, entityManager.unwrap(Session.class).getStatistics().getEntityCount());
+    }
+
+    private static boolean implies(Set<? extends Permission> grants, Permission permission) {
+        for (Permission grant : grants) {
+            if (grant.implies(permission)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    @Configuration
+    @EnableAutoConfiguration(exclude = {SecurityAutoConfiguration.class})
+    @Import({AuthorizationConfig.class})
+    public static class Config {
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import org.apache.shiro.authz.Permission;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.security.SecurityAutoConfiguration;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+
+import static net.swigg.security.authorization.SnapshotPermissionFetcherTest.identities;
+import static org.junit.Assert.*;
+
+@ContextConfiguration(classes = {MappedPermissionFetcherTest.Config.class})
+@RunWith(SpringJUnit4ClassRunner.class)
+public class MappedPermissionFetcherTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @PersistenceContext
+    EntityManager entityManager;
+
+    File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = new File(folder.getRoot(), "permissions.snapshot");
+    }
+
+    @Test
+    public void testFetch() throws Exception {
+        List<DATPermission> grants = ImmutableList.of(
+                new DATPermission("role:member", "account:read:*"),
+                new DATPermission("account:1", "account:delete:account-1"),
+                new DATPermission("account:1", "post:read"));
+        PermissionSnapshotExporter.write(file, grants);
+
+        MappedPermissionFetcher permissionFetcher = new MappedPermissionFetcher(file);
+        assertEquals(2, permissionFetcher.size());
+        assertEquals(3, permissionFetcher.fetchPermissions(identities("role:member", "account:1")).size());
+        assertTrue(permissionFetcher.fetchPermissions(identities("account:2")).isEmpty());
+
+        Set<? extends Permission> permissions = permissionFetcher.fetchPermissions(identities("role:member", "account:1"),
+                new DATPermission("account:delete:account-1"));
+        assertEquals(1, permissions.size());
+        assertEquals("account:1", ((DATPermission) permissions.iterator().next()).getPrincipalIdentity());
+    }
+
+    @Test
+    public void testManyIdentities() throws Exception {
+        ImmutableList.Builder<DATPermission> grants = ImmutableList.builder();
+        for (int x = 0; x < 1000; x++) {
+            grants.add(new DATPermission("account:" + x, "account:delete:account-" + x));
+        }
+        PermissionSnapshotExporter.write(file, grants.build());
+
+        MappedPermissionFetcher permissionFetcher = new MappedPermissionFetcher(file);
+        for (int x = 0; x < 1000; x++) {
+            assertEquals(1, permissionFetcher.fetchPermissions(identities("account:" + x), new DATPermission("account:delete:account-" + x)).size());
+        }
+    }
+
+    @Test
+    public void testReload() throws Exception {
+        PermissionSnapshotExporter.write(file, ImmutableList.of(new DATPermission("role:member", "account:read:*")));
+        MappedPermissionFetcher permissionFetcher = new MappedPermissionFetcher(file);
+
+        PermissionSnapshotExporter.write(file, ImmutableList.of(new DATPermission("role:admin", "*:*:*")));
+        assertEquals(1, permissionFetcher.fetchPermissions(identities("role:member")).size());
+
+        permissionFetcher.reload();
+        assertTrue(permissionFetcher.fetchPermissions(identities("role:member")).isEmpty());
+        assertEquals(1, permissionFetcher.fetchPermissions(identities("role:admin")).size());
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsOtherFiles() throws Exception {
+        Files.write(new byte[32], file);
+        new MappedPermissionFetcher(file);
+    }
+
+    @Test
+    @Transactional
+    public void testExport() throws Exception {
+        entityManager.persist(new DATPermission("role:member", "account:read:*"));
+        entityManager.persist(new DATPermission("account:1", "account:delete:account-1"));
+        entityManager.persist(new DATPermission("account:1", "post:read,write:post-1,post-2"));
+        entityManager.flush();
+
+        new PermissionSnapshotExporter(entityManager).export(file);
+        assertArrayEquals(new String[]{file.getName()}, folder.getRoot().list());
+
+        MappedPermissionFetcher permissionFetcher = new MappedPermissionFetcher(file);
+        assertEquals(2, permissionFetcher.size());
+        assertEquals(1, permissionFetcher.fetchPermissions(identities("role:member", "account:1"), new DATPermission("account:read:account-2")).size());
+        assertEquals(1, permissionFetcher.fetchPermissions(identities("account:1"), new DATPermission("post:write:post-2")).size());
+        assertEquals(3, permissionFetcher.fetchPermissions(identities("role:member", "account:1")).size());
+    }
+
+    @Configuration
+    @EnableAutoConfiguration(exclude = {SecurityAutoConfiguration.class})
+    @Import({AuthorizationConfig.class})
+    public static class Config {
+    }
+}
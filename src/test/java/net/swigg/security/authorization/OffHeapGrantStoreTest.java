@@ -0,0 +1,104 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class OffHeapGrantStoreTest {
+    @Test
+    public void testCodecRoundTrip() throws Exception {
+        DATPermission grant = new DATPermission("account:1", "account:read,update:account-1,account-2");
+        DATPermission domainOnly = new DATPermission("account:1", "post");
+        byte[] encoded = GrantSetCodec.encode("account:1", ImmutableList.of(grant, domainOnly));
+        assertEquals(GrantSetCodec.VERSION, encoded[0]);
+
+        Set<DATPermission> decoded = GrantSetCodec.decode(ByteBuffer.wrap(encoded));
+        assertEquals(2, decoded.size());
+        for (DATPermission permission : decoded) {
+            assertEquals("account:1", permission.getPrincipalIdentity());
+        }
+        assertTrue(implies(decoded, new DATPermission("account:update:account-2")));
+        assertTrue(implies(decoded, new DATPermission("post:delete:post-1")));
+        assertFalse(implies(decoded, new DATPermission("account:delete:account-1")));
+    }
+
+    @Test
+    public void testPutGetRemove() throws Exception {
+        OffHeapGrantStore store = new OffHeapGrantStore(4, 1024);
+        int count = 1000;
+        for (int x = 1; x <= count; x++) {
+            store.put(IdentityType.key(1, x), "account:" + x, ImmutableList.of(new DATPermission("account:read:account-" + x)));
+        }
+        store.put(IdentityType.key(2, 1), "role:none", ImmutableList.<DATPermission>of());
+        assertEquals(count + 1, store.size());
+        assertTrue(store.get(IdentityType.key(2, 1)).isEmpty());
+        assertNull(store.get(IdentityType.key(2, 2)));
+
+        // remove every other key, the remaining ones must still be reachable after the entries were shifted back
+        for (int x = 1; x <= count; x += 2) {
+            assertTrue(store.remove(IdentityType.key(1, x)));
+        }
+        assertFalse(store.remove(IdentityType.key(1, 1)));
+        assertEquals(count / 2 + 1, store.size());
+
+        for (int x = 1; x <= count; x++) {
+            Set<DATPermission> grants = store.get(IdentityType.key(1, x));
+            if (x % 2 == 1) {
+                assertNull(grants);
+            } else {
+                assertEquals("account:" + x, grants.iterator().next().getPrincipalIdentity());
+                assertTrue(implies(grants, new DATPermission("account:read:account-" + x)));
+            }
+        }
+    }
+
+    @Test
+    public void testReplaceCompactsGarbage() throws Exception {
+        OffHeapGrantStore store = new OffHeapGrantStore(16, 256);
+        long key = IdentityType.key(1, 1);
+        for (int x = 0; x < 100; x++) {
+            store.put(key, "account:1", ImmutableList.of(new DATPermission("account:read:account-" + x)));
+        }
+
+        assertEquals(1, store.size());
+        assertTrue(store.getAllocatedBytes() <= 2 * 256);
+        assertEquals(ImmutableSet.of("account-99"), store.get(key).iterator().next().getTargets());
+
+        store.clear();
+        assertEquals(0, store.size());
+        assertEquals(0, store.getLiveBytes());
+        assertNull(store.get(key));
+    }
+
+    private static boolean implies(Set<DATPermission> grants, DATPermission permission) {
+        for (DATPermission grant : grants) {
+            if (grant.implies(permission)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
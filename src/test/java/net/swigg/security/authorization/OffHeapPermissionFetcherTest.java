@@ -0,0 +1,101 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.shiro.authz.Permission;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collection;
+import java.util.Set;
+
+import static net.swigg.security.authorization.SnapshotPermissionFetcherTest.identities;
+import static org.junit.Assert.*;
+
+public class OffHeapPermissionFetcherTest {
+    static final IdentityType TYPE = IdentityType.register(902, "offheap-user:");
+
+    AuthorizingRealmTest.CountingPermissionFetcher delegate;
+
+    OffHeapPermissionFetcher permissionFetcher;
+
+    @Before
+    public void setUp() throws Exception {
+        delegate = new AuthorizingRealmTest.CountingPermissionFetcher(
+                new DATPermission("offheap-user:1", "account:read,update:*"),
+                new DATPermission("role:member", "account:read:*"));
+        permissionFetcher = new OffHeapPermissionFetcher(delegate);
+    }
+
+    @Test
+    public void testStoresTypedIdentities() throws Exception {
+        assertEquals(1, permissionFetcher.fetchPermissions(identities("offheap-user:1", "offheap-user:2")).size());
+        assertEquals(1, delegate.fetches);
+        assertEquals(2, permissionFetcher.getStore().size());
+
+        assertEquals(1, permissionFetcher.fetchPermissions(identities("offheap-user:1"), new DATPermission("account:update:account-1")).size());
+        assertTrue(permissionFetcher.fetchPermissions(identities("offheap-user:1"), new DATPermission("account:delete:account-1")).isEmpty());
+        assertTrue(permissionFetcher.fetchPermissions(identities("offheap-user:2")).isEmpty());
+        assertEquals(1, delegate.fetches);
+    }
+
+    @Test
+    public void testPassesUntypedIdentitiesThrough() throws Exception {
+        assertEquals(2, permissionFetcher.fetchPermissions(identities("offheap-user:1", "role:member"), new DATPermission("account:read:account-1")).size());
+        assertEquals(2, delegate.fetches);
+        assertEquals(ImmutableList.of("role:member"), delegate.lastIdentities);
+
+        permissionFetcher.fetchPermissions(identities("role:member"));
+        assertEquals(3, delegate.fetches);
+        assertEquals(1, permissionFetcher.getStore().size());
+    }
+
+    @Test
+    public void testChangesRemoveStoredGrants() throws Exception {
+        permissionFetcher.fetchPermissions(identities("offheap-user:1"));
+        delegate.grants.add(new DATPermission("offheap-user:1", "post:read"));
+
+        permissionFetcher.permissionsChanged(ImmutableList.of(new PermissionChange(PermissionChange.TYPE.PERSISTED, "offheap-user:1", "post")));
+        assertEquals(0, permissionFetcher.getStore().size());
+        assertEquals(2, permissionFetcher.fetchPermissions(identities("offheap-user:1")).size());
+        assertEquals(2, delegate.fetches);
+    }
+
+    @Test
+    public void testChangeDuringFetchIsNotStored() throws Exception {
+        delegate = new AuthorizingRealmTest.CountingPermissionFetcher(new DATPermission("offheap-user:1", "account:read:*")) {
+            @Override
+            public Set<? extends Permission> fetchPermissions(Collection<PrincipalIdentity> identities, Permission... permissions) {
+                Set<? extends Permission> result = super.fetchPermissions(identities, permissions);
+                if (fetches == 1) {
+                    permissionFetcher.permissionsChanged(ImmutableList.of(
+                            new PermissionChange(PermissionChange.TYPE.REMOVED, "offheap-user:1", "account")));
+                }
+                return result;
+            }
+        };
+        permissionFetcher = new OffHeapPermissionFetcher(delegate);
+
+        assertEquals(1, permissionFetcher.fetchPermissions(identities("offheap-user:1")).size());
+        assertEquals(0, permissionFetcher.getStore().size());
+
+        permissionFetcher.fetchPermissions(identities("offheap-user:1"));
+        assertEquals(1, permissionFetcher.getStore().size());
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.security.SecurityAutoConfiguration;
+import org.springframework.boot.test.ConfigFileApplicationContextInitializer;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceContext;
+
+import static net.swigg.security.authorization.SnapshotPermissionFetcherTest.identities;
+import static org.junit.Assert.*;
+
+@ContextConfiguration(classes = {PermissionCacheTest.Config.class}, initializers = ConfigFileApplicationContextInitializer.class)
+@ActiveProfiles("permission-cache")
+@RunWith(SpringJUnit4ClassRunner.class)
+public class PermissionCacheTest {
+    @PersistenceContext
+    EntityManager entityManager;
+
+    @Autowired
+    EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @Autowired
+    PermissionFetcher permissionFetcher;
+
+    TransactionTemplate transactionTemplate;
+
+    Statistics statistics;
+
+    @Before
+    public void setUp() throws Exception {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        persist(new DATPermission("role:member", "account:read:*"));
+
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.setStatisticsEnabled(true);
+        statistics.clear();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        statistics.setStatisticsEnabled(false);
+        transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                for (Object permission : entityManager.createQuery("select p from DATPermission p").getResultList()) {
+                    entityManager.remove(permission);
+                }
+            }
+        });
+    }
+
+    @Test
+    public void testCachesFetches() throws Exception {
+        assertEquals(1, permissionFetcher.fetchPermissions(identities("role:member"), new DATPermission("account:read:account-1")).size());
+        assertEquals(0, statistics.getQueryCacheHitCount());
+
+        assertEquals(1, permissionFetcher.fetchPermissions(identities("role:member"), new DATPermission("account:read:account-1")).size());
+        assertEquals(1, statistics.getQueryCacheHitCount());
+        assertTrue(statistics.getSecondLevelCacheStatistics(DATPermission.CACHE_REGION).getHitCount() > 0);
+        assertEquals(0, statistics.getSecondLevelCacheStatistics(DATPermission.CACHE_REGION).getMissCount());
+    }
+
+    @Test
+    public void testWritesInvalidateCachedFetches() throws Exception {
+        assertEquals(1, permissionFetcher.fetchPermissions(identities("role:member"), new DATPermission("account:read:account-1")).size());
+
+        persist(new DATPermission("role:member", "account:read:account-1"));
+        assertEquals(2, permissionFetcher.fetchPermissions(identities("role:member"), new DATPermission("account:read:account-1")).size());
+    }
+
+    private void persist(final DATPermission permission) {
+        transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                entityManager.persist(permission);
+            }
+        });
+    }
+
+    @Configuration
+    @EnableAutoConfiguration(exclude = {SecurityAutoConfiguration.class})
+    @Import({AuthorizationConfig.class})
+    public static class Config {
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import com.google.common.collect.Lists;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.security.SecurityAutoConfiguration;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@ContextConfiguration(classes = {PermissionChangePublisherTest.Config.class})
+@RunWith(SpringJUnit4ClassRunner.class)
+public class PermissionChangePublisherTest {
+    @PersistenceContext
+    EntityManager entityManager;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    TransactionTemplate transactionTemplate;
+
+    RecordingListener listener;
+
+    @Before
+    public void setUp() throws Exception {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        listener = new RecordingListener();
+        PermissionChangePublisher.register(listener);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        PermissionChangePublisher.unregister(listener);
+        transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                for (Object permission : entityManager.createQuery("select p from DATPermission p").getResultList()) {
+                    entityManager.remove(permission);
+                }
+            }
+        });
+    }
+
+    @Test
+    public void testPublishesAfterCommit() throws Exception {
+        transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                entityManager.persist(new DATPermission("role:member", "account:read:*"));
+                entityManager.persist(new DATPermission("role:member", "account:read:*"));
+                entityManager.flush();
+                assertTrue(listener.changes.isEmpty());
+            }
+        });
+
+        // both writes are delivered together, one change per grant
+        PermissionChange persisted = new PermissionChange(PermissionChange.TYPE.PERSISTED, "role:member", "account");
+        assertEquals(1, listener.deliveries);
+        assertEquals(Lists.newArrayList(persisted, persisted), listener.changes);
+    }
+
+    @Test
+    public void testPublishesStoredAndDeletedTuples() throws Exception {
+        final PermissionGrantFetcher grantFetcher = new PermissionGrantFetcher(entityManager);
+        final DATPermission permission = transactionTemplate.execute(new TransactionCallback<DATPermission>() {
+            @Override
+            public DATPermission doInTransaction(TransactionStatus status) {
+                DATPermission permission = new DATPermission("account:1", "account:delete:account-1");
+                entityManager.persist(permission);
+                return permission;
+            }
+        });
+        listener.changes.clear();
+
+        // the tuples are written in transactions of their own, after the grant has been published
+        TransactionCallbackWithoutResult store = new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                grantFetcher.store(permission);
+            }
+        };
+        transactionTemplate.execute(store);
+        assertEquals(Lists.newArrayList(new PermissionChange(PermissionChange.TYPE.UPDATED, "account:1", "account")), listener.changes);
+        listener.changes.clear();
+
+        // moved tuples are published for the identity they were stored under as well
+        permission.setPrincipalIdentity("account:2");
+        transactionTemplate.execute(store);
+        assertEquals(Lists.newArrayList(
+                new PermissionChange(PermissionChange.TYPE.UPDATED, "account:1", "account"),
+                new PermissionChange(PermissionChange.TYPE.UPDATED, "account:2", "account")), listener.changes);
+        listener.changes.clear();
+
+        transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                grantFetcher.delete(permission);
+            }
+        });
+        assertEquals(Lists.newArrayList(new PermissionChange(PermissionChange.TYPE.UPDATED, "account:2", "account")), listener.changes);
+    }
+
+    @Test
+    public void testNothingPublishedOnRollback() throws Exception {
+        transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                entityManager.persist(new DATPermission("role:member", "account:read:*"));
+                entityManager.flush();
+                status.setRollbackOnly();
+            }
+        });
+
+        assertTrue(listener.changes.isEmpty());
+    }
+
+    @Test
+    public void testPublishesMovedGrantAsRemovedAndPersisted() throws Exception {
+        final Long id = transactionTemplate.execute(new TransactionCallback<Long>() {
+            @Override
+            public Long doInTransaction(TransactionStatus status) {
+                DATPermission permission = new DATPermission("account:1", "account:delete:account-1");
+                entityManager.persist(permission);
+                return permission.getId();
+            }
+        });
+        listener.changes.clear();
+
+        transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                entityManager.find(DATPermission.class, id).setPrincipalIdentity("account:2");
+            }
+        });
+
+        assertEquals(Lists.newArrayList(
+                new PermissionChange(PermissionChange.TYPE.REMOVED, "account:1", "account"),
+                new PermissionChange(PermissionChange.TYPE.PERSISTED, "account:2", "account")), listener.changes);
+
+        listener.changes.clear();
+        transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                entityManager.find(DATPermission.class, id).setActions("read");
+            }
+        });
+
+        assertEquals(Lists.newArrayList(new PermissionChange(PermissionChange.TYPE.UPDATED, "account:2", "account")), listener.changes);
+
+        listener.changes.clear();
+        transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                entityManager.remove(entityManager.find(DATPermission.class, id));
+            }
+        });
+
+        assertEquals(Lists.newArrayList(new PermissionChange(PermissionChange.TYPE.REMOVED, "account:2", "account")), listener.changes);
+    }
+
+    @Test
+    public void testRealmEvictsChangedIdentities() throws Exception {
+        AuthorizingRealmTest.CountingPermissionFetcher permissionFetcher = new AuthorizingRealmTest.CountingPermissionFetcher();
+        AuthorizingRealmTest.TestRealm realm = new AuthorizingRealmTest.TestRealm(permissionFetcher);
+        realm.setCacheManager(new net.swigg.security.cache.GuavaCacheManager());
+        PermissionChangePublisher.register(realm);
+
+        try {
+            assertFalse(realm.isPermitted(AuthorizingRealmTest.principals("account:3"), "account:delete:account-3"));
+
+            final DATPermission grant = new DATPermission("account:3", "account:delete:account-3");
+            permissionFetcher.grants.add(grant);
+            transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+                @Override
+                protected void doInTransactionWithoutResult(TransactionStatus status) {
+                    entityManager.persist(grant);
+                }
+            });
+
+            assertTrue(realm.isPermitted(AuthorizingRealmTest.principals("account:3"), "account:delete:account-3"));
+        } finally {
+            PermissionChangePublisher.unregister(realm);
+        }
+    }
+
+    static class RecordingListener implements PermissionChangeListener {
+        final List<PermissionChange> changes = Lists.newArrayList();
+
+        int deliveries;
+
+        @Override
+        public void permissionsChanged(Collection<PermissionChange> changes) {
+            this.deliveries++;
+            this.changes.addAll(changes);
+        }
+    }
+
+    @Configuration
+    @EnableAutoConfiguration(exclude = {SecurityAutoConfiguration.class})
+    @Import({AuthorizationConfig.class})
+    public static class Config {
+    }
+}
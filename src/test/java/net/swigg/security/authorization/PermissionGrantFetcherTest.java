@@ -0,0 +1,136 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.shiro.authz.Permission;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.security.SecurityAutoConfiguration;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.List;
+import java.util.Set;
+
+import static net.swigg.security.authorization.SnapshotPermissionFetcherTest.identities;
+import static org.junit.Assert.*;
+
+@ContextConfiguration(classes = {PermissionGrantFetcherTest.Config.class})
+@RunWith(SpringJUnit4ClassRunner.class)
+@Transactional
+public class PermissionGrantFetcherTest {
+    @PersistenceContext
+    EntityManager entityManager;
+
+    PermissionGrantFetcher permissionFetcher;
+
+    DATPermission accountGrant;
+
+    DATPermission postGrant;
+
+    @Before
+    public void setUp() throws Exception {
+        permissionFetcher = new PermissionGrantFetcher(entityManager);
+        store(new DATPermission("role:member", "account:read:*"));
+        postGrant = store(new DATPermission("role:member", "post"));
+        accountGrant = store(new DATPermission("account:1", "account:read,update:account-1,account-2"));
+        store(new DATPermission("account:1", "account:delete:account-3"));
+        entityManager.flush();
+    }
+
+    @Test
+    public void testExpand() throws Exception {
+        assertEquals(4, PermissionGrant.expand(accountGrant).size());
+
+        // undefined levels are stored as wildcards
+        assertEquals(1, PermissionGrant.expand(postGrant).size());
+        assertEquals("*", PermissionGrant.expand(postGrant).get(0).getAction());
+        assertEquals("*", PermissionGrant.expand(postGrant).get(0).getTarget());
+    }
+
+    @Test
+    public void testFetchAll() throws Exception {
+        Set<? extends Permission> permissions = permissionFetcher.fetchPermissions(identities("account:1"));
+        assertEquals(2, permissions.size());
+        assertTrue(implies(permissions, new DATPermission("account:update:account-2")));
+        assertTrue(implies(permissions, new DATPermission("account:delete:account-3")));
+
+        assertTrue(permissionFetcher.fetchPermissions(identities("account:2")).isEmpty());
+    }
+
+    @Test
+    public void testFetchImplying() throws Exception {
+        assertTrue(implies(permissionFetcher.fetchPermissions(identities("account:1"), new DATPermission("account:update:account-1")),
+                new DATPermission("account:update:account-1")));
+        assertTrue(implies(permissionFetcher.fetchPermissions(identities("account:1"), new DATPermission("account:read,update:account-2")),
+                new DATPermission("account:read,update:account-2")));
+
+        // the tuples of different grants are not combined
+        Set<? extends Permission> permissions = permissionFetcher.fetchPermissions(identities("account:1"), new DATPermission("account:delete:account-1"));
+        assertFalse(implies(permissions, new DATPermission("account:delete:account-1")));
+
+        assertTrue(implies(permissionFetcher.fetchPermissions(identities("account:1", "role:member"), new DATPermission("post:delete:post-1")),
+                new DATPermission("post:delete:post-1")));
+        assertTrue(permissionFetcher.fetchPermissions(identities("account:1"), new DATPermission("post:delete:post-1")).isEmpty());
+        assertTrue(permissionFetcher.fetchPermissions(identities("account:1"), new DATPermission("account:read")).isEmpty());
+    }
+
+    @Test
+    public void testCoveringIndex() throws Exception {
+        List<?> columns = entityManager.createNativeQuery("select column_name from information_schema.indexes"
+                + " where table_name = 'PERMISSION_GRANT' and index_name = 'PERMISSION_GRANT_LOOKUP' order by ordinal_position")
+                .getResultList();
+        assertEquals(ImmutableList.of("PRINCIPAL_IDENTITY", "DOMAIN", "ACTION", "TARGET", "GRANT_ID"), columns);
+    }
+
+    @Test
+    public void testDelete() throws Exception {
+        permissionFetcher.delete(accountGrant);
+        assertEquals(1, permissionFetcher.fetchPermissions(identities("account:1")).size());
+    }
+
+    private DATPermission store(DATPermission permission) {
+        entityManager.persist(permission);
+        permissionFetcher.store(permission);
+        return permission;
+    }
+
+    private static boolean implies(Set<? extends Permission> grants, Permission permission) {
+        for (Permission grant : grants) {
+            if (grant.implies(permission)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    @Configuration
+    @EnableAutoConfiguration(exclude = {SecurityAutoConfiguration.class})
+    @Import({AuthorizationConfig.class})
+    public static class Config {
+    }
+}
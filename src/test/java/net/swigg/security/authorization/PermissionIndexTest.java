@@ -0,0 +1,140 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.apache.shiro.authz.Permission;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PermissionIndexTest {
+    @Test
+    public void testEmpty() throws Exception {
+        PermissionIndex index = PermissionIndex.build(ImmutableList.<Permission>of());
+        assertTrue(index.isEmpty());
+        assertFalse(index.implies(new DATPermission("account:read")));
+    }
+
+    @Test
+    public void testSmallGrantSets() throws Exception {
+        PermissionIndex index = PermissionIndex.build(ImmutableList.of(new DATPermission("account:read:*")));
+        assertTrue(index.implies(new DATPermission("account:read:account-1")));
+        assertFalse(index.implies(new DATPermission("account:delete:account-1")));
+    }
+
+    @Test
+    public void testLargeGrantSets() throws Exception {
+        List<Permission> grants = Lists.newArrayList();
+        for (int x = 0; x < 1000; x++) {
+            grants.add(new DATPermission("account:read:account-" + x));
+        }
+        DATPermission readPosts = new DATPermission("post:read");
+        DATPermission anyComment = new DATPermission("comment:*:comment-1");
+        grants.add(readPosts);
+        grants.add(anyComment);
+
+        PermissionIndex index = PermissionIndex.build(grants);
+        assertEquals(1002, index.size());
+
+        assertTrue(index.implies(new DATPermission("account:read:account-0")));
+        assertTrue(index.implies(new DATPermission("account:read:account-999")));
+        assertFalse(index.implies(new DATPermission("account:read:account-1000")));
+        assertFalse(index.implies(new DATPermission("account:delete:account-1")));
+        assertFalse(index.implies(new DATPermission("account:read")));
+
+        assertSame(readPosts, index.findImplying(new DATPermission("post:read:post-1")));
+        assertSame(readPosts, index.findImplying(new DATPermission("post:read")));
+        assertNull(index.findImplying(new DATPermission("post:delete:post-1")));
+
+        assertSame(anyComment, index.findImplying(new DATPermission("comment:delete:comment-1")));
+        assertNull(index.findImplying(new DATPermission("comment:delete:comment-2")));
+        assertNull(index.findImplying(new DATPermission("comment:delete")));
+    }
+
+    @Test
+    public void testUnindexed() throws Exception {
+        List<Permission> grants = Lists.newArrayList();
+        for (int x = 0; x < 100; x++) {
+            grants.add(new DATPermission("account:read:account-" + x));
+        }
+
+        PermissionIndex index = PermissionIndex.unindexed(grants);
+        assertEquals(100, index.size());
+        assertSame(grants.get(99), index.findImplying(new DATPermission("account:read:account-99")));
+        assertFalse(index.implies(new DATPermission("account:read:account-100")));
+        assertTrue(PermissionIndex.unindexed(ImmutableList.<Permission>of()).isEmpty());
+    }
+
+    @Test
+    public void testMatchesLinearScan() throws Exception {
+        String[] grantStrings = {"*", "a:*:x", "a:r", "a:r,w:y", "b:r:x,y", "b:*:*", "c:w:z", "c:r", "d:*:x"};
+        String[] queries = {"a", "a:r", "a:r:x", "a:w:x", "a:w:y", "a:r,w:y", "b:r:x", "b:r:x,y", "c:w", "c:w:z", "d:r:x",
+                "d:r", "e:r:x"};
+
+        List<Permission> grants = Lists.newArrayList();
+        for (String grant : grantStrings) {
+            grants.add(new WildcardPermission(grant));
+        }
+
+        // every subset of grants, indexed or not, must agree with implies()
+        for (int skip = 0; skip < grants.size(); skip++) {
+            List<Permission> subset = Lists.newArrayList(grants);
+            subset.remove(skip);
+            subset.addAll(grants.subList(1, grants.size()));
+            PermissionIndex index = PermissionIndex.build(subset);
+
+            for (String query : queries) {
+                WildcardPermission permission = new WildcardPermission(query);
+                boolean expected = false;
+                for (Permission grant : subset) {
+                    expected = expected || grant.implies(permission);
+                }
+                assertEquals(query, expected, index.implies(permission));
+            }
+        }
+    }
+
+    @Test
+    public void testSubsetGrants() throws Exception {
+        List<Permission> grants = Lists.newArrayList();
+        for (int x = 0; x < 10; x++) {
+            grants.add(new DATPermission("post:read,write:post-" + x));
+        }
+        StringBuilder targets = new StringBuilder("account-0");
+        for (int x = 1; x < 100; x++) {
+            targets.append(",account-").append(x);
+        }
+        DATPermission manyAccounts = new DATPermission("account:read,update,delete:" + targets);
+        grants.add(manyAccounts);
+
+        PermissionIndex index = PermissionIndex.build(grants);
+        assertTrue(index.implies(new DATPermission("post:write:post-3")));
+        assertTrue(index.implies(new DATPermission("post:read,write:post-9")));
+        assertFalse(index.implies(new DATPermission("post:delete:post-3")));
+        assertFalse(index.implies(new DATPermission("post:read:post-10")));
+
+        assertSame(manyAccounts, index.findImplying(new DATPermission("account:delete:account-99")));
+        assertSame(manyAccounts, index.findImplying(new DATPermission("account:read,update:account-1,account-50")));
+        assertNull(index.findImplying(new DATPermission("account:create:account-1")));
+        assertNull(index.findImplying(new DATPermission("account:read:account-1,account-100")));
+    }
+}
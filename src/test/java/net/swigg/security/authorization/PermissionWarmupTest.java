@@ -0,0 +1,119 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import net.swigg.security.cache.GuavaCacheManager;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.security.SecurityAutoConfiguration;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static net.swigg.security.authorization.AuthorizingRealmTest.CountingPermissionFetcher;
+import static net.swigg.security.authorization.AuthorizingRealmTest.TestRealm;
+import static net.swigg.security.authorization.AuthorizingRealmTest.principals;
+import static org.junit.Assert.*;
+
+@ContextConfiguration(classes = {PermissionWarmupTest.Config.class})
+@RunWith(SpringJUnit4ClassRunner.class)
+@Transactional
+public class PermissionWarmupTest {
+    @PersistenceContext
+    EntityManager entityManager;
+
+    @Autowired
+    PermissionWarmup configuredWarmup;
+
+    CountingPermissionFetcher permissionFetcher;
+
+    @Before
+    public void setUp() throws Exception {
+        entityManager.persist(new DATPermission("role:member", "account:read:*"));
+        entityManager.persist(new DATPermission("role:admin", "account:*"));
+        entityManager.persist(new DATPermission("account:1", "account:delete:account-1"));
+        entityManager.persist(new DATPermission("account:1", "account:update:account-1"));
+        entityManager.persist(new DATPermission("account:2", "account:delete:account-2"));
+        entityManager.flush();
+
+        permissionFetcher = new CountingPermissionFetcher(
+                new DATPermission("role:member", "account:read:*"),
+                new DATPermission("account:1", "account:delete:account-1"));
+    }
+
+    @Test
+    public void testDisabledByDefault() throws Exception {
+        assertFalse(configuredWarmup.isEnabled());
+        assertTrue(configuredWarmup.isReady());
+        assertEquals(0, configuredWarmup.getTotal());
+    }
+
+    @Test
+    public void testSelectIdentities() throws Exception {
+        PermissionWarmup warmup = new PermissionWarmup(entityManager, permissionFetcher);
+        warmup.setTopIdentities(1);
+        warmup.setIdentities(ImmutableList.of("account:3", "role:member"));
+
+        List<String> identities = warmup.selectIdentities();
+        assertEquals("account:1", identities.get(0));
+        assertEquals(ImmutableSet.of("account:1", "role:admin", "role:member", "account:3"), ImmutableSet.copyOf(identities));
+        assertEquals(4, identities.size());
+    }
+
+    @Test
+    public void testWarmUpFillsRealmCache() throws Exception {
+        TestRealm realm = new TestRealm(permissionFetcher);
+        realm.setCacheManager(new GuavaCacheManager());
+
+        PermissionWarmup warmup = new PermissionWarmup(entityManager, permissionFetcher);
+        warmup.setTopIdentities(1);
+        warmup.setBatchSize(1);
+        warmup.setThreads(1);
+        warmup.setRealms(ImmutableList.<AuthorizingRealm>of(realm));
+        assertFalse(warmup.isReady());
+
+        warmup.warmUp();
+        assertTrue(warmup.awaitReady(1, TimeUnit.SECONDS));
+        assertEquals(3, warmup.getTotal());
+        assertEquals(3, warmup.getLoaded());
+        assertTrue(warmup.getDuration() >= 0);
+        assertEquals(3, permissionFetcher.fetches);
+
+        assertTrue(realm.isPermitted(principals("account:1", "role:member"), "account:delete:account-1"));
+        assertTrue(realm.isPermitted(principals("account:1", "role:member"), "account:read:account-2"));
+        assertEquals(3, permissionFetcher.fetches);
+    }
+
+    @Configuration
+    @EnableAutoConfiguration(exclude = {SecurityAutoConfiguration.class})
+    @Import({AuthorizationConfig.class})
+    public static class Config {
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.authorization;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.shiro.authz.Permission;
+import org.hibernate.Session;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.security.SecurityAutoConfiguration;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.Collection;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+@ContextConfiguration(classes = {SnapshotPermissionFetcherTest.Config.class})
+@RunWith(SpringJUnit4ClassRunner.class)
+@Transactional
+public class SnapshotPermissionFetcherTest {
+    @PersistenceContext
+    EntityManager entityManager;
+
+    SnapshotPermissionFetcher permissionFetcher;
+
+    @Before
+    public void setUp() throws Exception {
+        permissionFetcher = new SnapshotPermissionFetcher(entityManager);
+        entityManager.persist(new DATPermission("role:member", "account:read:*"));
+        entityManager.persist(new DATPermission("account:1", "account:delete:account-1"));
+        entityManager.flush();
+    }
+
+    @Test
+    public void testEmptyUntilLoaded() throws Exception {
+        assertEquals(0, permissionFetcher.size());
+        assertTrue(permissionFetcher.fetchPermissions(identities("role:member")).isEmpty());
+    }
+
+    @Test
+    public void testLoad() throws Exception {
+        permissionFetcher.load();
+        assertEquals(2, permissionFetcher.size());
+
+        assertEquals(2, permissionFetcher.fetchPermissions(identities("role:member", "account:1")).size());
+
+        Set<? extends Permission> permissions = permissionFetcher.fetchPermissions(identities("role:member", "account:1"),
+                new DATPermission("account:read:account-2"));
+        assertEquals(1, permissions.size());
+        assertTrue(permissions.iterator().next().implies(new DATPermission("account:read:account-2")));
+
+        assertTrue(permissionFetcher.fetchPermissions(identities("account:2"), new DATPermission("account:read")).isEmpty());
+    }
+
+    @Test
+    public void testLoadDoesNotManageEntities() throws Exception {
+        entityManager.clear();
+        permissionFetcher.load();
+
+        for (Permission permission : permissionFetcher.fetchPermissions(identities("role:member", "account:1"))) {
+            assertTrue(permission instanceof ImmutableDATPermission);
+        }
+        assertEquals(0, entityManager.unwrap(Session.class).getStatistics().getEntityCount());
+    }
+
+    @Test
+    public void testRefresh() throws Exception {
+        permissionFetcher.load();
+
+        entityManager.persist(new DATPermission("account:2", "account:delete:account-2"));
+        entityManager.flush();
+        assertTrue(permissionFetcher.fetchPermissions(identities("account:2")).isEmpty());
+
+        permissionFetcher.refresh(ImmutableList.of("account:2"));
+        assertEquals(3, permissionFetcher.size());
+        assertEquals(1, permissionFetcher.fetchPermissions(identities("account:2"), new DATPermission("account:delete:account-2")).size());
+
+        for (Object permission : entityManager.createQuery("select p from DATPermission p where p.principalIdentity = 'account:1'").getResultList()) {
+            entityManager.remove(permission);
+        }
+        entityManager.flush();
+
+        permissionFetcher.refresh(ImmutableList.of("account:1"));
+        assertEquals(2, permissionFetcher.size());
+        assertTrue(permissionFetcher.fetchPermissions(identities("account:1")).isEmpty());
+    }
+
+    static Collection<PrincipalIdentity> identities(String... identities) {
+        ImmutableList.Builder<PrincipalIdentity> builder = ImmutableList.builder();
+        for (final String identity : identities) {
+            builder.add(new PrincipalIdentity() {
+                @Override
+                public String getPrincipalIdentity() {
+                    return identity;
+                }
+            });
+        }
+
+        return builder.build();
+    }
+
+    @Configuration
+    @EnableAutoConfiguration(exclude = {SecurityAutoConfiguration.class})
+    @Import({AuthorizationConfig.class})
+    public static class Config {
+    }
+}
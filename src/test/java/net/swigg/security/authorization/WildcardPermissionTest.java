@@ -309,4 +309,47 @@ public class WildcardPermissionTest {
         assertTrue(p1.implies(p2));
         assertFalse(p2.implies(p1));
     }
+
+    @Test
+    public void testImpliesSubsetActions() throws Exception {
+        WildcardPermission p1 = new WildcardPermission("domain:action1,action2");
+        WildcardPermission p2 = new WildcardPermission("domain:action1");
+        assertTrue(p1.implies(p2));
+        assertFalse(p2.implies(p1));
+
+        p1 = new WildcardPermission("domain:action1,action2,action3:instance1");
+        p2 = new WildcardPermission("domain:action3,action1:instance1");
+        assertTrue(p1.implies(p2));
+        assertFalse(p2.implies(p1));
+
+        p1 = new WildcardPermission("domain:action1,action2");
+        p2 = new WildcardPermission("domain:*");
+        assertFalse(p1.implies(p2));
+    }
+
+    @Test
+    public void testImpliesSubsetInstances() throws Exception {
+        WildcardPermission p1 = new WildcardPermission("domain:action1:instance1,instance2,instance3");
+        WildcardPermission p2 = new WildcardPermission("domain:action1:instance2");
+        assertTrue(p1.implies(p2));
+        assertFalse(p2.implies(p1));
+
+        p2 = new WildcardPermission("domain:action1:instance2,instance4");
+        assertFalse(p1.implies(p2));
+    }
+
+    @Test
+    public void testImpliesBeyondBitmaskWidth() throws Exception {
+        // more distinct values than fit in a level bitmask, so ids alias and the sorted ids decide
+        StringBuilder instances = new StringBuilder("wide-0");
+        for (int x = 1; x < 3 * Long.SIZE; x++) {
+            instances.append(",wide-").append(x);
+        }
+
+        WildcardPermission p1 = new WildcardPermission("domain:action1:" + instances);
+        assertTrue(p1.implies(new WildcardPermission("domain:action1:wide-0,wide-" + (3 * Long.SIZE - 1))));
+        assertTrue(p1.implies(new WildcardPermission("domain:action1:wide-" + Long.SIZE)));
+        assertFalse(p1.implies(new WildcardPermission("domain:action1:wide-" + 3 * Long.SIZE)));
+        assertFalse(p1.implies(new WildcardPermission("domain:action1:wide-1,wide-" + 4 * Long.SIZE)));
+    }
 }
@@ -18,15 +18,19 @@
 package net.swigg.security.example;
 
 import com.google.common.collect.Sets;
+import net.swigg.security.authorization.IdentityType;
 import net.swigg.security.authorization.PrincipalIdentity;
 import net.swigg.security.authorization.TargetIdentity;
+import net.swigg.security.authorization.TypedIdentity;
 
 import java.util.Set;
 
 /**
  * @author Dustin Sweigart <dustin@swigg.net>
  */
-public class Account implements PrincipalIdentity, TargetIdentity {
+public class Account implements PrincipalIdentity, TargetIdentity, TypedIdentity {
+    public static final IdentityType TYPE = IdentityType.register(1, "account:");
+
     private Integer id;
 
     private String name;
@@ -72,7 +76,17 @@ public class Account implements PrincipalIdentity, TargetIdentity {
 
     @Override
     public String getPrincipalIdentity() {
-        return "account:" + getId();
+        return TYPE.format(getIdentityId());
+    }
+
+    @Override
+    public int getIdentityType() {
+        return TYPE.getCode();
+    }
+
+    @Override
+    public long getIdentityId() {
+        return id != null ? id : -1;
     }
 
     @Override
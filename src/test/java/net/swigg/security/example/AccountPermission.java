@@ -26,7 +26,8 @@ import org.apache.shiro.authz.Permission;
 import java.util.Set;
 
 /**
- * Implementation of {@link org.apache.shiro.authz.Permission} specifically for {@link Account}s.
+ * Implementation of {@link org.apache.shiro.authz.Permission} specifically for {@link Account}s. Only used for checks,
+ * so it is built as a {@link #isQuery() query} and the account ids do not grow the symbol tables.
  *
  * @author Dustin Sweigart <dustin@swigg.net>
  */
@@ -36,7 +37,7 @@ public class AccountPermission extends DATPermission implements Permission {
     private Set<String> actions;
 
     public AccountPermission(TargetIdentity... identities) {
-        super(PERMISSION_DOMAIN, null, identities);
+        super(true, PERMISSION_DOMAIN, null, identities);
         this.actions = Sets.newHashSet();
     }
 
@@ -43,6 +43,7 @@ import org.springframework.transaction.annotation.Transactional;
 
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
+import java.util.Arrays;
 import java.util.Collection;
 
 import static net.swigg.security.authorization.TargetIdentity.ANY;
@@ -138,6 +139,18 @@ public class SecurityTest {
         assertFalse(subject.isPermitted(new AccountPermission(kermit).create())); // no permission implies "account:create:account-1"
         assertTrue(subject.isPermitted(new AccountPermission(kermit).read()));    // member implies "account:read:*"
         assertFalse(subject.isPermitted(new AccountPermission(kermit).delete())); // no permission implies "account:delete:account-1"
+
+        // string permissions resolve to the same domain/action/target permissions
+        assertTrue(subject.isPermitted("account:read:account-1"));     // member implies "account:read:*"
+        assertTrue(subject.isPermitted("account:delete:account-2"));   // as fozzy: "account:delete:account-2"
+        assertFalse(subject.isPermitted("account:delete:account-1"));  // no permission implies "account:delete:account-1"
+        assertFalse(subject.isPermitted("account:create"));            // no permission implies "account:create"
+
+        // batches are answered from a single fetch
+        assertTrue(Arrays.equals(new boolean[]{true, true, false},
+                subject.isPermitted("account:read:account-1", "account:delete:account-2", "account:delete:account-1")));
+        assertTrue(subject.isPermittedAll("account:read:account-1", "account:delete:account-2"));
+        assertFalse(subject.isPermittedAll("account:read:account-1", "account:delete:account-1"));
     }
 
     @Configuration
@@ -0,0 +1,92 @@
+/*
+ * Copyright. This file is part of swigg-security.
+ *
+ * swigg-security is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Foobar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with swigg-security.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.swigg.security.metrics;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class HistogramTest {
+    @Test
+    public void testBuckets() throws Exception {
+        for (long value : new long[]{0, 1, 3, 4, 5, 7, 8, 100, 1000000, Long.MAX_VALUE - 1, Long.MAX_VALUE}) {
+            int bucket = Histogram.bucket(value);
+            assertTrue(value + " above its bucket", value <= Histogram.upperBound(bucket));
+            assertTrue(value + " below its bucket", bucket == 0 || value > Histogram.upperBound(bucket - 1));
+        }
+
+        assertEquals(Long.MAX_VALUE, Histogram.upperBound(Histogram.BUCKETS - 1));
+    }
+
+    @Test
+    public void testPercentiles() throws Exception {
+        Histogram histogram = new Histogram("ns");
+        assertEquals(0, histogram.getP99());
+
+        for (int value = 1; value <= 1000; value++) {
+            histogram.record(value);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500.5, histogram.getMean(), 0.001);
+        assertEquals(1000, histogram.getMax());
+        assertTrue(histogram.getP50() >= 500 && histogram.getP50() <= 500 * 1.25);
+        assertTrue(histogram.getP99() >= 990 && histogram.getP99() <= 1000);
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+    }
+
+    @Test
+    public void testConcurrentRecording() throws Exception {
+        final Histogram histogram = new Histogram("ns", 4);
+        final StripedCounter counter = new StripedCounter(3);
+        final CountDownLatch start = new CountDownLatch(1);
+
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int value = 0; value < 10000; value++) {
+                        histogram.record(value);
+                        counter.add(2);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(80000, histogram.getCount());
+        assertEquals(8L * (9999L * 10000L / 2), histogram.getSum());
+        assertEquals(160000, counter.sum());
+    }
+}